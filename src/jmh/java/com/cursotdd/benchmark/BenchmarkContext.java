@@ -0,0 +1,29 @@
+package com.cursotdd.benchmark;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.cursotdd.LibraryApiApplication;
+
+/**
+ * Sobe a aplicacao sem servidor web, com um H2 novo a cada trial. Jobs
+ * agendados (relay da outbox, atrasos, indice) e o envio de e-mails ficam
+ * desligados, e o SMTP aponta para um host local sem credenciais: os
+ * emprestimos criados nao enviam e-mail real e nenhum trabalho de fundo
+ * concorre com a medicao.
+ */
+final class BenchmarkContext {
+
+	private BenchmarkContext() {
+	}
+
+	static ConfigurableApplicationContext start() {
+		return new SpringApplicationBuilder(LibraryApiApplication.class).web(WebApplicationType.NONE).run(
+				"--spring.datasource.generate-unique-name=true", "--spring.jpa.show-sql=false",
+				"--spring.boot.admin.client.enabled=false", "--logging.level.root=WARN",
+				"--application.scheduling.enabled=false", "--application.mail.dispatcher.workers=0",
+				"--spring.mail.host=localhost", "--spring.mail.port=2525", "--spring.mail.username=",
+				"--spring.mail.password=");
+	}
+}
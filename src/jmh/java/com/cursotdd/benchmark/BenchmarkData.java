@@ -0,0 +1,79 @@
+package com.cursotdd.benchmark;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import com.cursotdd.dto.LoanDto;
+import com.cursotdd.model.entity.Book;
+import com.cursotdd.model.entity.Customer;
+import com.cursotdd.model.entity.Loan;
+
+/**
+ * Massa de dados dos benchmarks. A semente e fixa, entao a mesma quantidade
+ * gera sempre os mesmos livros e emprestimos e os resultados podem ser
+ * comparados entre commits.
+ */
+public final class BenchmarkData {
+
+	public static final long SEED = 42L;
+
+	/** Palavra presente em cerca de 1 a cada 16 titulos. */
+	public static final String SEARCH_TERM = "tempo";
+
+	private static final String[] WORDS = { "tempo", "casa", "mar", "noite", "cidade", "sombra", "jardim", "rio",
+			"pedra", "vento", "livro", "estrela", "caminho", "ilha", "fogo", "memoria" };
+
+	private static final String[] AUTHORS = { "Ana Souza", "Bruno Lima", "Carla Mendes", "Diego Alves",
+			"Elisa Rocha", "Fabio Costa", "Gabriela Reis", "Hugo Martins" };
+
+	private BenchmarkData() {
+	}
+
+	public static List<Book> books(int count) {
+		Random random = new Random(SEED);
+		List<Book> books = new ArrayList<>(count);
+		for (int i = 1; i <= count; i++) {
+			String title = word(random) + " " + word(random) + " " + word(random);
+			String author = AUTHORS[random.nextInt(AUTHORS.length)];
+			books.add(Book.builder().id((long) i).isbn(String.format("978%010d", i)).title(title).author(author)
+					.build());
+		}
+		return books;
+	}
+
+	public static List<Loan> loans(List<Book> books) {
+		List<Loan> loans = new ArrayList<>(books.size());
+		for (Book book : books) {
+			long id = book.getId();
+			boolean returned = id % 3 == 0;
+			Customer customer = Customer.builder().id(id).name("cliente " + id).email("cliente" + id + "@email.com")
+					.activeLoans(returned ? 0 : 1).lateLoans(0).build();
+			LocalDate loanDate = LocalDate.of(2020, 1, 1).plusDays(id % 30);
+			loans.add(Loan.builder().id(id).book(book).customer(customer).loanDate(loanDate)
+					.dueDate(loanDate.plusDays(4)).returned(returned).build());
+		}
+		return loans;
+	}
+
+	public static List<LoanDto> loanDtos(int count) {
+		return loans(books(count)).stream().map(BenchmarkData::loanDto).collect(Collectors.toList());
+	}
+
+	/**
+	 * Monta o dto pelo mesmo construtor que as projecoes JPQL do
+	 * LoanRepository usam.
+	 */
+	public static LoanDto loanDto(Loan loan) {
+		Book book = loan.getBook();
+		Customer customer = loan.getCustomer();
+		return new LoanDto(loan.getId(), book.getIsbn(), customer.getEmail(), customer.getName(), book.getId(),
+				book.getTitle(), book.getAuthor());
+	}
+
+	private static String word(Random random) {
+		return WORDS[random.nextInt(WORDS.length)];
+	}
+}
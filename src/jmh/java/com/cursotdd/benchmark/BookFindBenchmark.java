@@ -0,0 +1,77 @@
+package com.cursotdd.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+
+import com.cursotdd.dto.BookSearchResultDto;
+import com.cursotdd.model.entity.Book;
+import com.cursotdd.service.BookSearchService;
+import com.cursotdd.service.BookService;
+
+/**
+ * Busca por titulo no H2: BookServiceImpl.find com Example (like '%x%' mais a
+ * contagem da pagina) contra o indice Lucene.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookFindBenchmark {
+
+	private static final int IMPORT_CHUNK_SIZE = 1000;
+
+	@Param({ "10000", "100000" })
+	public int books;
+
+	private ConfigurableApplicationContext context;
+	private BookService bookService;
+	private BookSearchService searchService;
+	private Book filter;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		context = BenchmarkContext.start();
+		bookService = context.getBean(BookService.class);
+		searchService = context.getBean(BookSearchService.class);
+		filter = Book.builder().title(BenchmarkData.SEARCH_TERM).build();
+
+		List<Book> data = BenchmarkData.books(books);
+		for (int i = 0; i < data.size(); i += IMPORT_CHUNK_SIZE) {
+			bookService.saveAll(data.subList(i, Math.min(i + IMPORT_CHUNK_SIZE, data.size())));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public Page<Book> exampleFind() {
+		return bookService.find(filter, PageRequest.of(0, 20));
+	}
+
+	@Benchmark
+	public List<BookSearchResultDto> luceneSearch() {
+		return searchService.search(BenchmarkData.SEARCH_TERM, 20);
+	}
+}
@@ -0,0 +1,63 @@
+package com.cursotdd.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.modelmapper.ModelMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cursotdd.dto.BookDto;
+import com.cursotdd.dto.LoanDto;
+import com.cursotdd.model.entity.Loan;
+
+/**
+ * Custo de converter uma pagina de emprestimos com ModelMapper (como os
+ * controllers faziam) e com o construtor usado pelas projecoes JPQL. Com
+ * -prof gc mostra tambem a alocacao por pagina.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DtoMappingBenchmark {
+
+	@Param({ "20", "100" })
+	public int pageSize;
+
+	private List<Loan> page;
+	private ModelMapper modelMapper;
+
+	@Setup
+	public void setup() {
+		page = BenchmarkData.loans(BenchmarkData.books(pageSize));
+		modelMapper = new ModelMapper();
+	}
+
+	@Benchmark
+	public List<LoanDto> modelMapper() {
+		return page.stream().map(loan -> {
+			BookDto bookDto = modelMapper.map(loan.getBook(), BookDto.class);
+			LoanDto loanDto = modelMapper.map(loan, LoanDto.class);
+			loanDto.setBook(bookDto);
+			return loanDto;
+		}).collect(Collectors.toList());
+	}
+
+	@Benchmark
+	public List<LoanDto> projection() {
+		return page.stream().map(BenchmarkData::loanDto).collect(Collectors.toList());
+	}
+}
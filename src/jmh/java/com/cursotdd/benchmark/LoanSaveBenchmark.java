@@ -0,0 +1,109 @@
+package com.cursotdd.benchmark;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.cursotdd.exception.BusinessException;
+import com.cursotdd.model.entity.Book;
+import com.cursotdd.model.entity.Customer;
+import com.cursotdd.model.entity.Loan;
+import com.cursotdd.model.repository.BookRepository;
+import com.cursotdd.service.BookService;
+import com.cursotdd.service.CustomerService;
+import com.cursotdd.service.LoanService;
+
+/**
+ * Emprestimo e devolucao concorrentes sobre um acervo pequeno. Com um unico
+ * livro todas as threads disputam o mesmo registro; os contadores loans e
+ * conflicts mostram quantas tentativas passaram e quantas bateram no indice
+ * de emprestimo ativo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class LoanSaveBenchmark {
+
+	private static final int CUSTOMERS = 100;
+
+	@Param({ "1", "64" })
+	public int books;
+
+	private ConfigurableApplicationContext context;
+	private LoanService loanService;
+	private List<Book> catalog;
+	private List<Customer> customers;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Attempts {
+
+		public long loans;
+		public long conflicts;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			loans = 0;
+			conflicts = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setup() {
+		context = BenchmarkContext.start();
+		loanService = context.getBean(LoanService.class);
+		context.getBean(BookService.class).saveAll(BenchmarkData.books(books));
+		catalog = context.getBean(BookRepository.class).findAll();
+
+		CustomerService customerService = context.getBean(CustomerService.class);
+		customers = new ArrayList<>(CUSTOMERS);
+		for (int i = 0; i < CUSTOMERS; i++) {
+			customers.add(customerService.getOrCreate("cliente " + i, "cliente" + i + "@email.com"));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	@Benchmark
+	public boolean checkoutAndReturn(Attempts attempts) {
+		Book book = catalog.get(ThreadLocalRandom.current().nextInt(catalog.size()));
+		Customer customer = customers.get(ThreadLocalRandom.current().nextInt(customers.size()));
+		Loan loan;
+		try {
+			loan = loanService.save(Loan.builder().book(book).customer(customer).loanDate(LocalDate.now()).build());
+		} catch (BusinessException e) {
+			attempts.conflicts++;
+			return false;
+		}
+
+		loanService.markReturned(loan.getId(), true);
+		attempts.loans++;
+		return true;
+	}
+}
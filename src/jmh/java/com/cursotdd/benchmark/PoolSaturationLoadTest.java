@@ -0,0 +1,172 @@
+package com.cursotdd.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.cursotdd.LibraryApiApplication;
+import com.cursotdd.model.entity.Customer;
+import com.cursotdd.model.entity.Loan;
+import com.cursotdd.model.repository.BookRepository;
+import com.cursotdd.model.repository.CustomerRepository;
+import com.cursotdd.model.repository.LoanRepository;
+import com.cursotdd.service.BookService;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Esgota o pool da api com GET /api/loans: roda uma etapa com tantos clientes
+ * quanto conexoes e outra com load.overload vezes mais. Durante cada etapa
+ * amostra o /actuator/health e as metricas do Hikari; no fim mostra vazao,
+ * latencia, respostas por status (503 quando o connection-timeout estoura) e o
+ * tempo de espera por conexao. Para rodar:
+ * mvn -Pbenchmark test-compile exec:java -Dexec.mainClass=com.cursotdd.benchmark.PoolSaturationLoadTest
+ */
+public class PoolSaturationLoadTest {
+
+	private static final int POOL_SIZE = Integer.getInteger("load.pool-size", 4);
+	private static final long CONNECTION_TIMEOUT_MS = Long.getLong("load.connection-timeout-ms", 500);
+	private static final int OVERLOAD = Integer.getInteger("load.overload", 32);
+	private static final int STEP_SECONDS = Integer.getInteger("load.step-seconds", 10);
+	private static final int BOOKS = 10000;
+
+	private static final Pattern HEALTH_STATUS = Pattern.compile("\"status\"\\s*:\\s*\"(\\w+)\"");
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("http.maxConnections", String.valueOf(POOL_SIZE * OVERLOAD));
+
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(LibraryApiApplication.class).run(
+				"--server.port=0", "--server.tomcat.max-threads=" + Math.max(200, POOL_SIZE * OVERLOAD),
+				"--spring.datasource.generate-unique-name=true", "--spring.jpa.show-sql=false",
+				"--spring.boot.admin.client.enabled=false", "--logging.level.root=WARN",
+				"--spring.datasource.hikari.maximum-pool-size=" + POOL_SIZE,
+				"--spring.datasource.hikari.minimum-idle=" + POOL_SIZE,
+				"--spring.datasource.hikari.connection-timeout=" + CONNECTION_TIMEOUT_MS);
+		try {
+			seed(context);
+			String base = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+			MeterRegistry registry = context.getBean(MeterRegistry.class);
+
+			step("within pool", base, POOL_SIZE, registry);
+			step("overloaded", base, POOL_SIZE * OVERLOAD, registry);
+		} finally {
+			context.close();
+		}
+		System.exit(0);
+	}
+
+	private static void seed(ConfigurableApplicationContext context) {
+		context.getBean(BookService.class).saveAll(BenchmarkData.books(BOOKS));
+		List<Loan> loans = BenchmarkData.loans(context.getBean(BookRepository.class).findAll());
+		List<Customer> customers = new ArrayList<>(loans.size());
+		for (Loan loan : loans) {
+			loan.setId(null);
+			loan.getCustomer().setId(null);
+			customers.add(loan.getCustomer());
+		}
+		context.getBean(CustomerRepository.class).saveAll(customers);
+		context.getBean(LoanRepository.class).saveAll(loans);
+	}
+
+	private static void step(String name, String base, int concurrency, MeterRegistry registry)
+			throws InterruptedException {
+		String url = base + "/api/loans?page=0&size=20&customer=cliente%20";
+		Recorder recorder = new Recorder(3);
+		Map<Integer, AtomicLong> statuses = new ConcurrentHashMap<>();
+		Timer acquire = registry.get("hikaricp.connections.acquire").tag("pool", "api").timer();
+		long acquireCount = acquire.count();
+		double acquireNanos = acquire.totalTime(TimeUnit.NANOSECONDS);
+		double timeouts = registry.get("hikaricp.connections.timeout").tag("pool", "api").counter().count();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(STEP_SECONDS);
+
+		ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+		for (int i = 0; i < concurrency; i++) {
+			clients.execute(() -> {
+				while (System.nanoTime() < deadline) {
+					long start = System.nanoTime();
+					int status = request(url + (ThreadLocalRandom.current().nextInt(BOOKS) + 1)).status;
+					recorder.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+					statuses.computeIfAbsent(status, key -> new AtomicLong()).incrementAndGet();
+				}
+			});
+		}
+
+		Map<String, Integer> health = new TreeMap<>();
+		double maxPending = 0;
+		while (System.nanoTime() < deadline) {
+			Response response = request(base + "/actuator/health");
+			Matcher matcher = HEALTH_STATUS.matcher(response.body);
+			health.merge(matcher.find() ? matcher.group(1) : "HTTP " + response.status, 1, Integer::sum);
+			maxPending = Math.max(maxPending, registry.get("hikaricp.connections.pending").tag("pool", "api")
+					.gauge().value());
+			Thread.sleep(500);
+		}
+		clients.shutdown();
+		clients.awaitTermination(STEP_SECONDS + 60, TimeUnit.SECONDS);
+
+		Histogram histogram = recorder.getIntervalHistogram();
+		long acquired = acquire.count() - acquireCount;
+		double acquireMeanMs = acquired == 0 ? 0
+				: (acquire.totalTime(TimeUnit.NANOSECONDS) - acquireNanos) / acquired / 1000000.0;
+		System.out.printf("%-12s clients %4d: %8.0f req/s p50 %7.1f ms p99 %7.1f ms statuses %s%n", name,
+				concurrency, histogram.getTotalCount() / (double) STEP_SECONDS,
+				histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+				new TreeMap<>(statuses));
+		System.out.printf("%-12s pool %d: acquire mean %.1f ms, max pending %.0f, timeouts %.0f, health %s%n", name,
+				POOL_SIZE, acquireMeanMs, maxPending,
+				registry.get("hikaricp.connections.timeout").tag("pool", "api").counter().count() - timeouts,
+				health);
+	}
+
+	private static Response request(String url) {
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+			connection.setConnectTimeout(5000);
+			connection.setReadTimeout(30000);
+			int status = connection.getResponseCode();
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+				byte[] buffer = new byte[8192];
+				int read;
+				while (in != null && (read = in.read(buffer)) != -1) {
+					body.write(buffer, 0, read);
+				}
+			}
+			return new Response(status, new String(body.toByteArray(), StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			return new Response(-1, "");
+		}
+	}
+
+	private static class Response {
+
+		private final int status;
+		private final String body;
+
+		Response(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+	}
+}
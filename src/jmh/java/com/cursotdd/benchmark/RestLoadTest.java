@@ -0,0 +1,156 @@
+package com.cursotdd.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.cursotdd.LibraryApiApplication;
+import com.cursotdd.model.entity.Book;
+import com.cursotdd.model.entity.Customer;
+import com.cursotdd.model.entity.Loan;
+import com.cursotdd.model.repository.BookRepository;
+import com.cursotdd.model.repository.CustomerRepository;
+import com.cursotdd.model.repository.LoanRepository;
+import com.cursotdd.service.BookService;
+
+/**
+ * Teste de carga em malha fechada contra GET /api/loans, primeiro com threads
+ * de plataforma e depois com virtual threads, ambos com o mesmo pool JDBC. A
+ * concorrencia dobra a cada etapa ate o p99 passar de load.p99-ms ou os erros
+ * passarem de 1%; o resultado de cada modo e a maior vazao sustentada abaixo
+ * desse limite. Precisa de Java 21 para o modo virtual. Para rodar:
+ * mvn -Pbenchmark test-compile exec:java -Dexec.mainClass=com.cursotdd.benchmark.RestLoadTest
+ */
+public class RestLoadTest {
+
+	private static final long P99_LIMIT_MS = Long.getLong("load.p99-ms", 200);
+	private static final int STEP_SECONDS = Integer.getInteger("load.step-seconds", 10);
+	private static final int MAX_CONCURRENCY = Integer.getInteger("load.max-concurrency", 2048);
+	private static final int JDBC_POOL_SIZE = Integer.getInteger("load.jdbc-pool-size", 50);
+	private static final int BOOKS = 10000;
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("http.maxConnections", String.valueOf(MAX_CONCURRENCY));
+
+		double platform = run(false);
+		double virtual = run(true);
+
+		System.out.printf("max throughput with p99 <= %d ms: platform %.0f req/s, virtual %.0f req/s%n",
+				P99_LIMIT_MS, platform, virtual);
+		System.exit(0);
+	}
+
+	private static double run(boolean virtualThreads) throws InterruptedException {
+		ConfigurableApplicationContext context = new SpringApplicationBuilder(LibraryApiApplication.class).run(
+				"--server.port=0", "--spring.datasource.generate-unique-name=true", "--spring.jpa.show-sql=false",
+				"--spring.boot.admin.client.enabled=false", "--logging.level.root=WARN",
+				"--spring.datasource.hikari.maximum-pool-size=" + JDBC_POOL_SIZE,
+				"--application.threads.virtual.jdbc-pool-size=" + JDBC_POOL_SIZE,
+				"--application.threads.virtual.enabled=" + virtualThreads);
+		try {
+			seed(context);
+			String url = "http://localhost:" + context.getEnvironment().getProperty("local.server.port")
+					+ "/api/loans?page=0&size=20&customer=cliente%20";
+
+			double best = 0;
+			for (int concurrency = 8; concurrency <= MAX_CONCURRENCY; concurrency *= 2) {
+				Step step = step(url, concurrency);
+				System.out.printf("%-8s concurrency %5d: %8.0f req/s p99 %8.1f ms errors %d%n",
+						virtualThreads ? "virtual" : "platform", concurrency, step.throughput, step.p99Ms,
+						step.errors);
+				if (step.p99Ms > P99_LIMIT_MS || step.errors > step.requests / 100) {
+					break;
+				}
+				best = Math.max(best, step.throughput);
+			}
+			return best;
+		} finally {
+			context.close();
+		}
+	}
+
+	private static void seed(ConfigurableApplicationContext context) {
+		context.getBean(BookService.class).saveAll(BenchmarkData.books(BOOKS));
+		List<Loan> loans = BenchmarkData.loans(context.getBean(BookRepository.class).findAll());
+		List<Customer> customers = new ArrayList<>(loans.size());
+		for (Loan loan : loans) {
+			loan.setId(null);
+			loan.getCustomer().setId(null);
+			customers.add(loan.getCustomer());
+		}
+		context.getBean(CustomerRepository.class).saveAll(customers);
+		context.getBean(LoanRepository.class).saveAll(loans);
+	}
+
+	private static Step step(String url, int concurrency) throws InterruptedException {
+		Recorder recorder = new Recorder(3);
+		AtomicLong errors = new AtomicLong();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(STEP_SECONDS);
+
+		ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+		for (int i = 0; i < concurrency; i++) {
+			clients.execute(() -> {
+				while (System.nanoTime() < deadline) {
+					long start = System.nanoTime();
+					boolean ok = get(url + (ThreadLocalRandom.current().nextInt(BOOKS) + 1));
+					recorder.recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+					if (!ok) {
+						errors.incrementAndGet();
+					}
+				}
+			});
+		}
+		clients.shutdown();
+		clients.awaitTermination(STEP_SECONDS + 60, TimeUnit.SECONDS);
+
+		Histogram histogram = recorder.getIntervalHistogram();
+		return new Step(histogram.getTotalCount(), histogram.getTotalCount() / (double) STEP_SECONDS,
+				histogram.getValueAtPercentile(99) / 1000.0, errors.get());
+	}
+
+	private static boolean get(String url) {
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+			connection.setConnectTimeout(5000);
+			connection.setReadTimeout(30000);
+			int status = connection.getResponseCode();
+			try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+				byte[] buffer = new byte[8192];
+				while (in != null && in.read(buffer) != -1) {
+					// esvazia a resposta para reaproveitar a conexao
+				}
+			}
+			return status == 200;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static class Step {
+
+		private final long requests;
+		private final double throughput;
+		private final double p99Ms;
+		private final long errors;
+
+		Step(long requests, double throughput, double p99Ms, long errors) {
+			this.requests = requests;
+			this.throughput = throughput;
+			this.p99Ms = p99Ms;
+			this.errors = errors;
+		}
+	}
+}
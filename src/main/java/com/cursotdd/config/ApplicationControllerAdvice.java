@@ -1,8 +1,11 @@
 package com.cursotdd.config;
 
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
+import org.springframework.transaction.CannotCreateTransactionException;
 import org.springframework.web.bind.MethodArgumentNotValidException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
@@ -12,9 +15,14 @@ import org.springframework.web.server.ResponseStatusException;
 import com.cursotdd.exception.BusinessException;
 import com.cursotdd.exceptions.ApiErrors;
 
+import lombok.extern.slf4j.Slf4j;
+
 @RestControllerAdvice
+@Slf4j
 public class ApplicationControllerAdvice {
 
+	private static final String RETRY_AFTER_SECONDS = "1";
+
 	@ExceptionHandler(MethodArgumentNotValidException.class)
 	@ResponseStatus(HttpStatus.BAD_REQUEST)
 	public ApiErrors handleValidationsExceptions(MethodArgumentNotValidException ex) {
@@ -32,4 +40,16 @@ public class ApplicationControllerAdvice {
 	public ResponseEntity handleResponseStatusException(ResponseStatusException ex) {
 		return new ResponseEntity(new ApiErrors(ex), ex.getStatus());
 	}
+
+	/**
+	 * Sem conexao disponivel no pool dentro do connection-timeout: responde 503
+	 * na hora, em vez de deixar a requisicao presa ou virar um 500 generico.
+	 */
+	@ExceptionHandler({ CannotCreateTransactionException.class, DataAccessResourceFailureException.class })
+	public ResponseEntity<ApiErrors> handleUnavailableDatabase(Exception ex) {
+		log.debug("database unavailable: {}", ex.getMessage());
+		return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+				.body(new ApiErrors("servico temporariamente indisponivel, tente novamente"));
+	}
 }
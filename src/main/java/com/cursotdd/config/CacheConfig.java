@@ -0,0 +1,24 @@
+package com.cursotdd.config;
+
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+/**
+ * Caches de leitura do catalogo. Os caches sao criados na inicializacao a
+ * partir de spring.cache.cache-names, o que permite ao actuator registrar as
+ * metricas de hit/miss/eviction (cache.gets, cache.evictions).
+ * <p>
+ * O interceptor de cache fica por fora do transacional: um @CacheEvict roda
+ * depois do commit, e nao antes, quando uma leitura concorrente ainda veria e
+ * guardaria a linha antiga; e um acerto no cache nao abre transacao.
+ */
+@Configuration
+@EnableCaching(order = Ordered.HIGHEST_PRECEDENCE)
+public class CacheConfig {
+
+	public static final String BOOKS_BY_ID = "booksById";
+
+	public static final String BOOKS_BY_ISBN = "booksByIsbn";
+
+}
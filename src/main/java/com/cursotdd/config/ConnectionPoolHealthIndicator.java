@@ -0,0 +1,55 @@
+package com.cursotdd.config;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+/**
+ * Estado dos pools de conexao. Fica DEGRADED quando ha threads esperando por
+ * conexao ou quando a fracao de conexoes em uso passa de
+ * application.datasource.health.saturation; nunca DOWN, porque o banco pode
+ * estar respondendo normalmente (isso e papel do indicador "db").
+ */
+public class ConnectionPoolHealthIndicator extends AbstractHealthIndicator {
+
+	public static final Status DEGRADED = new Status("DEGRADED", "pool de conexoes saturado");
+
+	private final List<HikariDataSource> pools;
+	private final double saturation;
+
+	public ConnectionPoolHealthIndicator(List<HikariDataSource> pools, double saturation) {
+		super("Connection pool health check failed");
+		this.pools = pools;
+		this.saturation = saturation;
+	}
+
+	@Override
+	protected void doHealthCheck(Health.Builder builder) {
+		boolean degraded = false;
+		for (HikariDataSource pool : pools) {
+			Map<String, Object> details = new LinkedHashMap<>();
+			details.put("max", pool.getMaximumPoolSize());
+
+			HikariPoolMXBean mxBean = pool.getHikariPoolMXBean();
+			if (mxBean == null) {
+				details.put("state", "not started");
+			} else {
+				int active = mxBean.getActiveConnections();
+				int waiting = mxBean.getThreadsAwaitingConnection();
+				details.put("active", active);
+				details.put("idle", mxBean.getIdleConnections());
+				details.put("waiting", waiting);
+				degraded |= waiting > 0 || active >= pool.getMaximumPoolSize() * saturation;
+			}
+			builder.withDetail(pool.getPoolName(), details);
+		}
+		builder.status(degraded ? DEGRADED : Status.UP);
+	}
+}
@@ -0,0 +1,115 @@
+package com.cursotdd.config;
+
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.flyway.FlywayDataSource;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pools de conexao da aplicacao:
+ * <ul>
+ * <li>api (spring.datasource.*): requisicoes HTTP, escritas e migracoes do
+ * Flyway;</li>
+ * <li>scheduler (application.datasource.scheduler.hikari.*): jobs @Scheduled,
+ * mesmo banco do primario, para que uma varredura longa nao tire conexoes das
+ * requisicoes; dimensionado com uma conexao por thread de
+ * spring.task.scheduling.pool.size, para que um job lento nao deixe os
+ * outros esperando conexao;</li>
+ * <li>replica (application.datasource.replica.*): transacoes somente leitura,
+ * apenas quando application.datasource.replica.url esta definido.</li>
+ * </ul>
+ * O pool e escolhido quando a transacao abre a conexao, entao cada transacao
+ * precisa abrir a sua. Com spring.jpa.open-in-view ligado o EntityManager da
+ * requisicao guardaria a primeira conexao ate o fim dela, e uma escrita depois
+ * de uma leitura iria para a replica; por isso o roteamento exige
+ * open-in-view desligado.
+ */
+@Configuration
+@Slf4j
+public class DataSourceConfig {
+
+	public static final String PRIMARY_DATA_SOURCE = "primaryDataSource";
+	public static final String SCHEDULER_DATA_SOURCE = "schedulerDataSource";
+	public static final String REPLICA_DATA_SOURCE = "replicaDataSource";
+
+	@Bean(PRIMARY_DATA_SOURCE)
+	@FlywayDataSource
+	@ConfigurationProperties("spring.datasource.hikari")
+	public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+		return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+	}
+
+	@Bean(SCHEDULER_DATA_SOURCE)
+	@ConfigurationProperties("application.datasource.scheduler.hikari")
+	public HikariDataSource schedulerDataSource(DataSourceProperties properties) {
+		return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+	}
+
+	@Bean(REPLICA_DATA_SOURCE)
+	@ConditionalOnProperty(name = "application.datasource.replica.url")
+	@ConfigurationProperties("application.datasource.replica.hikari")
+	public HikariDataSource replicaDataSource(Environment environment,
+			@Value("${spring.jpa.open-in-view:true}") boolean openInView) throws Exception {
+		if (openInView) {
+			throw new IllegalStateException(
+					"replica routing requires spring.jpa.open-in-view=false, otherwise the request keeps its first "
+							+ "connection and writes can reach the replica");
+		}
+		DataSourceProperties properties = Binder.get(environment)
+				.bind("application.datasource.replica", Bindable.of(DataSourceProperties.class))
+				.orElseGet(DataSourceProperties::new);
+		properties.setBeanClassLoader(getClass().getClassLoader());
+		properties.afterPropertiesSet();
+		log.info("routing read-only transactions to replica {}", properties.getUrl());
+		return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+	}
+
+	@Bean
+	@Primary
+	public DataSource dataSource(@Qualifier(PRIMARY_DATA_SOURCE) HikariDataSource primaryDataSource,
+			@Qualifier(SCHEDULER_DATA_SOURCE) HikariDataSource schedulerDataSource,
+			@Qualifier(REPLICA_DATA_SOURCE) ObjectProvider<HikariDataSource> replicaDataSource) {
+		RoutingDataSource routingDataSource = new RoutingDataSource(primaryDataSource, schedulerDataSource,
+				replicaDataSource.getIfAvailable());
+		routingDataSource.afterPropertiesSet();
+		return new LazyConnectionDataSourceProxy(routingDataSource);
+	}
+
+	@Bean
+	public ScheduledWorkloadAspect scheduledWorkloadAspect() {
+		return new ScheduledWorkloadAspect();
+	}
+
+	@Bean
+	public FilterRegistrationBean<ReadYourWritesFilter> readYourWritesFilter() {
+		FilterRegistrationBean<ReadYourWritesFilter> registration = new FilterRegistrationBean<>(
+				new ReadYourWritesFilter());
+		registration.addUrlPatterns("/api/*");
+		return registration;
+	}
+
+	@Bean
+	public ConnectionPoolHealthIndicator connectionPoolsHealthIndicator(List<HikariDataSource> pools,
+			@Value("${application.datasource.health.saturation:0.9}") double saturation) {
+		return new ConnectionPoolHealthIndicator(pools, saturation);
+	}
+}
@@ -0,0 +1,41 @@
+package com.cursotdd.config;
+
+import java.io.IOException;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.spi.CachingProvider;
+
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.Resource;
+
+/**
+ * CacheManager JCache usado pelo cache de segundo nivel do Hibernate. O
+ * provider e o que estiver no classpath (Ehcache por padrao) e as regioes vem
+ * de application.cache.jcache.config.
+ */
+@Configuration
+public class HibernateCacheConfig {
+
+	/**
+	 * O provider guarda um CacheManager por (uri, class loader); com um class
+	 * loader proprio cada contexto tem as suas regioes, mesmo com varios
+	 * contextos no mesmo processo.
+	 */
+	@Bean(destroyMethod = "close")
+	public CacheManager hibernateCacheManager(
+			@Value("${application.cache.jcache.config:classpath:ehcache.xml}") Resource config) throws IOException {
+		CachingProvider provider = Caching.getCachingProvider();
+		return provider.getCacheManager(config.getURI(), new ClassLoader(getClass().getClassLoader()) {
+		});
+	}
+
+	@Bean
+	public HibernatePropertiesCustomizer hibernateCacheCustomizer(CacheManager hibernateCacheManager) {
+		return properties -> properties.put(ConfigSettings.CACHE_MANAGER, hibernateCacheManager);
+	}
+}
@@ -0,0 +1,125 @@
+package com.cursotdd.config;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.data.jpa.repository.Query;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Timers por metodo dos services (library.service) e dos repositories
+ * (library.repository), com tag de resultado. O histograma de percentis soma
+ * dezenas de series por timer, entao so e publicado para os metodos listados
+ * em application.metrics.histogram-methods (Classe.metodo, ex.
+ * LoanServiceImpl.save ou LoanRepository.findNewlyLateLoans). Os timers sao
+ * criados uma vez por classe e metodo, entao cada chamada custa duas consultas
+ * em mapa. Consultas de repository acima de
+ * application.metrics.slow-query-ms sao logadas com o JPQL e os parametros.
+ */
+@Aspect
+@Slf4j
+public class MethodMetricsAspect {
+
+	private MeterRegistry registry;
+	private final long slowQueryNanos;
+	private final Set<String> histogramMethods;
+
+	private final Map<Class<?>, Map<Method, MethodTimers>> timers = new ConcurrentHashMap<>();
+
+	public MethodMetricsAspect(MeterRegistry registry, long slowQueryMs, Collection<String> histogramMethods) {
+		this.registry = registry;
+		this.slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryMs);
+		this.histogramMethods = new HashSet<>(histogramMethods);
+	}
+
+	@Around("execution(public * com.cursotdd.service..*(..))")
+	public Object timeService(ProceedingJoinPoint joinPoint) throws Throwable {
+		MethodTimers methodTimers = timers(joinPoint, joinPoint.getTarget().getClass(), "library.service", "class");
+		return proceed(joinPoint, methodTimers, false);
+	}
+
+	@Around("execution(* org.springframework.data.repository.Repository+.*(..))")
+	public Object timeRepository(ProceedingJoinPoint joinPoint) throws Throwable {
+		MethodTimers methodTimers = timers(joinPoint, joinPoint.getThis().getClass(), "library.repository",
+				"repository");
+		return proceed(joinPoint, methodTimers, true);
+	}
+
+	private Object proceed(ProceedingJoinPoint joinPoint, MethodTimers methodTimers, boolean logSlow)
+			throws Throwable {
+		long start = System.nanoTime();
+		Timer timer = methodTimers.error;
+		try {
+			Object result = joinPoint.proceed();
+			timer = methodTimers.success;
+			return result;
+		} finally {
+			long elapsed = System.nanoTime() - start;
+			timer.record(elapsed, TimeUnit.NANOSECONDS);
+			if (logSlow && elapsed > slowQueryNanos) {
+				log.warn("slow query {}.{} took {} ms: {} with parameters {}", methodTimers.owner,
+						methodTimers.method, TimeUnit.NANOSECONDS.toMillis(elapsed), methodTimers.query,
+						Arrays.toString(joinPoint.getArgs()));
+			}
+		}
+	}
+
+	private MethodTimers timers(ProceedingJoinPoint joinPoint, Class<?> type, String name, String ownerTag) {
+		Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+		return timers.computeIfAbsent(type, t -> new ConcurrentHashMap<>()).computeIfAbsent(method, m -> {
+			String owner = ownerName(type);
+			return new MethodTimers(registry, name, ownerTag, owner, m,
+					histogramMethods.contains(owner + "." + m.getName()));
+		});
+	}
+
+	private static String ownerName(Class<?> type) {
+		for (Class<?> candidate : type.getInterfaces()) {
+			if (candidate.getName().startsWith("com.cursotdd.model.repository")) {
+				return candidate.getSimpleName();
+			}
+		}
+		String name = type.getSimpleName();
+		int proxySuffix = name.indexOf("$$");
+		return proxySuffix > 0 ? name.substring(0, proxySuffix) : name;
+	}
+
+	private static class MethodTimers {
+
+		private final String owner;
+		private final String method;
+		private final String query;
+		private final Timer success;
+		private final Timer error;
+
+		MethodTimers(MeterRegistry registry, String name, String ownerTag, String owner, Method method,
+				boolean histogram) {
+			Query annotation = AnnotationUtils.findAnnotation(method, Query.class);
+			this.owner = owner;
+			this.method = method.getName();
+			this.query = annotation == null ? "(derived query)" : annotation.value();
+			this.success = timer(registry, name, ownerTag, owner, this.method, "success", histogram);
+			this.error = timer(registry, name, ownerTag, owner, this.method, "error", histogram);
+		}
+
+		private static Timer timer(MeterRegistry registry, String name, String ownerTag, String owner, String method,
+				String outcome, boolean histogram) {
+			return Timer.builder(name).tag(ownerTag, owner).tag("method", method).tag("outcome", outcome)
+					.publishPercentileHistogram(histogram).register(registry);
+		}
+	}
+}
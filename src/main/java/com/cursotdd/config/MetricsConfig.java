@@ -0,0 +1,29 @@
+package com.cursotdd.config;
+
+import java.util.Arrays;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+@Configuration
+public class MetricsConfig {
+
+	@Bean
+	public MethodMetricsAspect methodMetricsAspect(MeterRegistry registry,
+			@Value("${application.metrics.slow-query-ms:500}") long slowQueryMs,
+			@Value("${application.metrics.histogram-methods:}") String[] histogramMethods) {
+		return new MethodMetricsAspect(registry, slowQueryMs, Arrays.asList(histogramMethods));
+	}
+
+	@Bean
+	public FilterRegistrationBean<StatementCountFilter> statementCountFilter(MeterRegistry registry) {
+		FilterRegistrationBean<StatementCountFilter> registration = new FilterRegistrationBean<>(
+				new StatementCountFilter(registry));
+		registration.addUrlPatterns("/api/*");
+		return registration;
+	}
+}
@@ -0,0 +1,33 @@
+package com.cursotdd.config;
+
+/**
+ * Estado de roteamento da requisicao corrente: depois da primeira transacao de
+ * escrita, as leituras seguintes da mesma requisicao tambem vao para o
+ * primario, para nao lerem da replica um dado que ainda nao chegou nela. Fora
+ * de uma requisicao (jobs, inicializacao) nada fica preso ao primario.
+ */
+final class ReadYourWrites {
+
+	private static final ThreadLocal<Boolean> PINNED = new ThreadLocal<>();
+
+	private ReadYourWrites() {
+	}
+
+	static void begin() {
+		PINNED.set(Boolean.FALSE);
+	}
+
+	static void end() {
+		PINNED.remove();
+	}
+
+	static void markWrite() {
+		if (PINNED.get() != null) {
+			PINNED.set(Boolean.TRUE);
+		}
+	}
+
+	static boolean isPinned() {
+		return Boolean.TRUE.equals(PINNED.get());
+	}
+}
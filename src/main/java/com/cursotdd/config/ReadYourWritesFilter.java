@@ -0,0 +1,27 @@
+package com.cursotdd.config;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Delimita a requisicao para o {@link RoutingDataSource}.
+ */
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		ReadYourWrites.begin();
+		try {
+			filterChain.doFilter(request, response);
+		} finally {
+			ReadYourWrites.end();
+		}
+	}
+}
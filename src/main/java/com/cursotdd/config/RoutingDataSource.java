@@ -0,0 +1,52 @@
+package com.cursotdd.config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Escolhe o pool de cada conexao. Transacoes @Transactional(readOnly = true)
+ * vao para a replica, quando existe; jobs @Scheduled usam o pool do
+ * scheduler, para nao disputar conexoes com as requisicoes; o resto vai para o
+ * pool da api. A decisao depende do flag de somente leitura da transacao, que
+ * o Spring so publica depois de pedir a conexao, por isso este data source
+ * precisa ficar atras de um LazyConnectionDataSourceProxy.
+ */
+public class RoutingDataSource extends AbstractRoutingDataSource {
+
+	enum Route {
+		PRIMARY, SCHEDULER, REPLICA
+	}
+
+	private final boolean hasReplica;
+
+	public RoutingDataSource(DataSource primary, DataSource scheduler, DataSource replica) {
+		Map<Object, Object> targets = new HashMap<>();
+		targets.put(Route.PRIMARY, primary);
+		targets.put(Route.SCHEDULER, scheduler);
+		if (replica != null) {
+			targets.put(Route.REPLICA, replica);
+		}
+		setTargetDataSources(targets);
+		setDefaultTargetDataSource(primary);
+		this.hasReplica = replica != null;
+	}
+
+	@Override
+	protected Object determineCurrentLookupKey() {
+		boolean transaction = TransactionSynchronizationManager.isActualTransactionActive();
+		boolean readOnly = transaction && TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+		if (transaction && !readOnly) {
+			ReadYourWrites.markWrite();
+		}
+
+		if (readOnly && hasReplica && !ReadYourWrites.isPinned()) {
+			return Route.REPLICA;
+		}
+		return Workload.isScheduled() ? Route.SCHEDULER : Route.PRIMARY;
+	}
+}
@@ -0,0 +1,25 @@
+package com.cursotdd.config;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+
+/**
+ * Envolve os metodos @Scheduled para que as conexoes abertas por eles venham
+ * do pool do scheduler.
+ */
+@Aspect
+public class ScheduledWorkloadAspect {
+
+	@Around("@annotation(org.springframework.scheduling.annotation.Scheduled)")
+	public Object runOnSchedulerPool(ProceedingJoinPoint joinPoint) throws Throwable {
+		boolean started = Workload.beginScheduled();
+		try {
+			return joinPoint.proceed();
+		} finally {
+			if (started) {
+				Workload.end();
+			}
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package com.cursotdd.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Jobs @Scheduled (relay da outbox, atrasos, indice, invalidacao de cache).
+ * application.scheduling.enabled=false desliga todos, por exemplo nos
+ * benchmarks, em que o trabalho de fundo distorceria as medicoes.
+ */
+@Configuration
+@EnableScheduling
+@ConditionalOnProperty(name = "application.scheduling.enabled", havingValue = "true", matchIfMissing = true)
+public class SchedulingConfig {
+
+}
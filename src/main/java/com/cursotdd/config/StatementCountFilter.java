@@ -0,0 +1,48 @@
+package com.cursotdd.config;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Publica library.http.statements: quantos comandos SQL cada requisicao
+ * executou, por metodo e padrao de uri. A contagem e por thread, entao
+ * requisicoes assincronas (os endpoints de stream, que devolvem Flux), cujas
+ * consultas rodam no boundedElastic depois que o filtro retorna, nao sao
+ * registradas: o valor sairia quase sempre zero. Sem histograma, como as
+ * demais metricas fora de application.metrics.histogram-methods.
+ */
+public class StatementCountFilter extends OncePerRequestFilter {
+
+	private MeterRegistry registry;
+
+	public StatementCountFilter(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+			throws ServletException, IOException {
+		StatementCounter.reset();
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			if (!isAsyncStarted(request)) {
+				Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+				DistributionSummary.builder("library.http.statements").baseUnit("statements")
+						.tag("method", request.getMethod())
+						.tag("uri", pattern == null ? "UNKNOWN" : pattern.toString()).register(registry)
+						.record(StatementCounter.count());
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.cursotdd.config;
+
+import java.util.concurrent.Executors;
+
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.ConcurrentTaskScheduler;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Modo experimental (application.threads.virtual.enabled=true, Java 21) em que
+ * as requisicoes do Tomcat e os jobs @Scheduled rodam em virtual threads. Como
+ * o numero de requisicoes simultaneas deixa de ser limitado pelo pool do
+ * Tomcat, os pools JDBC das requisicoes passam a ser o limite e sao
+ * dimensionados por application.threads.virtual.jdbc-pool-size. O scheduler
+ * mantem um numero fixo de threads
+ * (application.threads.virtual.scheduler-pool-size), como
+ * spring.task.scheduling.pool.size no modo normal, para que um job longo nao
+ * atrase os demais. A combinacao de Boot 2.2, Hibernate 5.4 e Hikari 3.4 com
+ * virtual threads, alcancadas por reflexao, nao e exercitada pelos testes
+ * (VirtualThreadsTest cai no modo normal antes do Java 21) nem por uma execucao
+ * registrada do RestLoadTest; nao use em producao sem antes validar.
+ */
+@Configuration
+@ConditionalOnProperty(name = "application.threads.virtual.enabled", havingValue = "true")
+@Slf4j
+public class VirtualThreadConfig {
+
+	public VirtualThreadConfig() {
+		if (!VirtualThreads.isSupported()) {
+			throw new IllegalStateException("application.threads.virtual.enabled requires Java 21 or newer");
+		}
+		log.warn("running requests and scheduled jobs on virtual threads (experimental)");
+	}
+
+	@Bean
+	public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer() {
+		return protocolHandler -> protocolHandler.setExecutor(VirtualThreads.executor("http-vt-"));
+	}
+
+	@Bean
+	public TaskScheduler taskScheduler(Environment environment) {
+		int poolSize = environment.getProperty("application.threads.virtual.scheduler-pool-size", Integer.class, 10);
+		return new ConcurrentTaskScheduler(
+				Executors.newScheduledThreadPool(poolSize, VirtualThreads.threadFactory("scheduling-vt-")));
+	}
+
+	@Bean
+	public static BeanPostProcessor virtualThreadJdbcPoolSizer(Environment environment) {
+		return new BeanPostProcessor() {
+			@Override
+			public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+				if (bean instanceof HikariDataSource && !DataSourceConfig.SCHEDULER_DATA_SOURCE.equals(beanName)) {
+					int poolSize = environment.getProperty("application.threads.virtual.jdbc-pool-size",
+							Integer.class, 50);
+					((HikariDataSource) bean).setMaximumPoolSize(poolSize);
+				}
+				return bean;
+			}
+		};
+	}
+}
@@ -0,0 +1,33 @@
+package com.cursotdd.config;
+
+/**
+ * Marca a thread corrente como execucao de um job @Scheduled enquanto ele
+ * roda, para que o {@link RoutingDataSource} use o pool do scheduler.
+ */
+final class Workload {
+
+	private static final ThreadLocal<Boolean> SCHEDULED = new ThreadLocal<>();
+
+	private Workload() {
+	}
+
+	/**
+	 * @return falso se a thread ja estava marcada, caso em que quem marcou
+	 *         primeiro e quem deve chamar {@link #end()}
+	 */
+	static boolean beginScheduled() {
+		if (isScheduled()) {
+			return false;
+		}
+		SCHEDULED.set(Boolean.TRUE);
+		return true;
+	}
+
+	static void end() {
+		SCHEDULED.remove();
+	}
+
+	static boolean isScheduled() {
+		return Boolean.TRUE.equals(SCHEDULED.get());
+	}
+}
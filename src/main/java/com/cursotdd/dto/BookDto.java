@@ -1,6 +1,7 @@
 package com.cursotdd.dto;
 
 import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Positive;
 
 import lombok.AllArgsConstructor;
 import lombok.Builder;
@@ -23,4 +24,16 @@ public class BookDto {
 	@NotEmpty
 	private String isbn;
 
+	/**
+	 * Prazo de emprestimo do livro em dias; nulo usa o prazo padrao.
+	 */
+	@Positive
+	private Integer loanDays;
+
+	/**
+	 * Preenchido apenas nas listagens, a partir do mapa em memoria; nulo
+	 * quando desconhecido.
+	 */
+	private Boolean available;
+
 }
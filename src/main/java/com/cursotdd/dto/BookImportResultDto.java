@@ -0,0 +1,25 @@
+package com.cursotdd.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookImportResultDto {
+
+	public enum Status {
+		CREATED, DUPLICATED, INVALID
+	}
+
+	private Long id;
+
+	private String isbn;
+
+	private Status status;
+
+	private String message;
+}
@@ -0,0 +1,23 @@
+package com.cursotdd.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BookSearchResultDto {
+
+	private Long id;
+
+	private String title;
+
+	private String author;
+
+	private String isbn;
+
+	private float score;
+}
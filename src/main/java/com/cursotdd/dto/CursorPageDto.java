@@ -0,0 +1,32 @@
+package com.cursotdd.dto;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Pagina do modo cursor: traz apenas o conteudo e o token para buscar a
+ * proxima pagina, sem total de registros.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPageDto<T> {
+
+	private List<T> content;
+
+	private String nextCursor;
+
+	private boolean hasNext;
+
+	public <R> CursorPageDto<R> map(Function<? super T, ? extends R> mapper) {
+		List<R> mapped = content.stream().map(mapper).collect(Collectors.toList());
+		return new CursorPageDto<R>(mapped, nextCursor, hasNext);
+	}
+}
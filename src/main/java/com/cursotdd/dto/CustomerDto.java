@@ -0,0 +1,32 @@
+package com.cursotdd.dto;
+
+import javax.validation.constraints.Positive;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class CustomerDto {
+
+	private Long id;
+
+	private String name;
+
+	private String email;
+
+	private int activeLoans;
+
+	private int lateLoans;
+
+	/**
+	 * Prazo de emprestimo proprio do cliente em dias; nulo usa o prazo do
+	 * livro.
+	 */
+	@Positive
+	private Integer loanDays;
+}
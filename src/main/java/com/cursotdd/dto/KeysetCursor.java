@@ -0,0 +1,44 @@
+package com.cursotdd.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import com.cursotdd.exception.BusinessException;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Posicao do ultimo registro lido no modo cursor: o id e, quando a ordenacao
+ * nao e pelo id, o valor da chave de ordenacao. O token entregue ao cliente e
+ * opaco (base64 url-safe de "id:valor").
+ */
+@Data
+@AllArgsConstructor
+public class KeysetCursor {
+
+	private Long id;
+
+	private String sortValue;
+
+	public String encode() {
+		String raw = id + ":" + (sortValue == null ? "" : sortValue);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public static KeysetCursor decode(String token) {
+		if (token == null || token.trim().isEmpty()) {
+			return null;
+		}
+		try {
+			String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+			String[] parts = raw.split(":", 2);
+			if (parts.length != 2) {
+				throw new BusinessException("cursor invalido");
+			}
+			return new KeysetCursor(Long.valueOf(parts[0]), parts[1]);
+		} catch (IllegalArgumentException e) {
+			throw new BusinessException("cursor invalido");
+		}
+	}
+}
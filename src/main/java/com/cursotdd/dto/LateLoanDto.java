@@ -0,0 +1,21 @@
+package com.cursotdd.dto;
+
+import java.time.LocalDate;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LateLoanDto {
+
+	private Long id;
+
+	private String customerEmail;
+
+	private LocalDate dueDate;
+}
@@ -25,4 +25,13 @@ public class LoanDto {
 	private String customer;
 
 	private BookDto book;
+
+	/**
+	 * Usado nas consultas JPQL com "select new", que nao aceitam objetos
+	 * aninhados.
+	 */
+	public LoanDto(Long id, String isbn, String customerEmail, String customer, Long bookId, String bookTitle,
+			String bookAuthor) {
+		this(id, isbn, customerEmail, customer, new BookDto(bookId, bookTitle, bookAuthor, isbn, null, null));
+	}
 }
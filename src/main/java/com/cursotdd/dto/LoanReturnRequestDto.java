@@ -0,0 +1,19 @@
+package com.cursotdd.dto;
+
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LoanReturnRequestDto {
+
+	private List<Long> ids;
+
+	private List<String> isbns;
+}
@@ -0,0 +1,23 @@
+package com.cursotdd.dto.mapper;
+
+import com.cursotdd.dto.BookDto;
+import com.cursotdd.model.entity.Book;
+
+/**
+ * Conversao entre Book e BookDto sem reflexao.
+ */
+public final class BookMapper {
+
+	private BookMapper() {
+	}
+
+	public static BookDto toDto(Book book) {
+		return BookDto.builder().id(book.getId() == null ? 0 : book.getId()).title(book.getTitle())
+				.author(book.getAuthor()).isbn(book.getIsbn()).loanDays(book.getLoanDays()).build();
+	}
+
+	public static Book toEntity(BookDto dto) {
+		return Book.builder().id(dto.getId() == 0 ? null : dto.getId()).title(dto.getTitle())
+				.author(dto.getAuthor()).isbn(dto.getIsbn()).loanDays(dto.getLoanDays()).build();
+	}
+}
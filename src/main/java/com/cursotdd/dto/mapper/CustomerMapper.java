@@ -0,0 +1,23 @@
+package com.cursotdd.dto.mapper;
+
+import com.cursotdd.dto.CustomerDto;
+import com.cursotdd.model.entity.Customer;
+
+/**
+ * Conversao de Customer para CustomerDto sem reflexao.
+ */
+public final class CustomerMapper {
+
+	private CustomerMapper() {
+	}
+
+	public static CustomerDto toDto(Customer customer) {
+		return CustomerDto.builder().id(customer.getId()).name(customer.getName()).email(customer.getEmail())
+				.activeLoans(valueOf(customer.getActiveLoans())).lateLoans(valueOf(customer.getLateLoans()))
+				.loanDays(customer.getLoanDays()).build();
+	}
+
+	private static int valueOf(Integer count) {
+		return count == null ? 0 : count;
+	}
+}
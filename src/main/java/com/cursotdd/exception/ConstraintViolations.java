@@ -0,0 +1,26 @@
+package com.cursotdd.exception;
+
+import java.util.Locale;
+
+import org.springframework.dao.DataIntegrityViolationException;
+
+/**
+ * Identifica qual constraint foi violada. O nome vem na mensagem do driver
+ * (SQL Server: "... constraint 'uk_book_isbn'", H2: "PUBLIC.UK_BOOK_ISBN_INDEX_1
+ * ON ..."), ja que o dialeto nem sempre preenche o nome na excecao do
+ * Hibernate.
+ */
+public final class ConstraintViolations {
+
+	private ConstraintViolations() {
+	}
+
+	public static boolean isViolationOf(DataIntegrityViolationException e, String constraint) {
+		String name = constraint.toLowerCase(Locale.ROOT);
+		return contains(e.getMessage(), name) || contains(e.getMostSpecificCause().getMessage(), name);
+	}
+
+	private static boolean contains(String message, String name) {
+		return message != null && message.toLowerCase(Locale.ROOT).contains(name);
+	}
+}
@@ -0,0 +1,43 @@
+package com.cursotdd.model.entity;
+
+import java.time.LocalDateTime;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "cache_invalidation")
+public class CacheInvalidation {
+
+	@Id
+	@Column
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "cache_invalidation_seq")
+	@SequenceGenerator(name = "cache_invalidation_seq", sequenceName = "cache_invalidation_seq", allocationSize = 50)
+	private Long id;
+
+	@Column(name = "entity_name", length = 100)
+	private String entityName;
+
+	@Column(name = "entity_id")
+	private Long entityId;
+
+	@Column(length = 36)
+	private String origin;
+
+	@Column(name = "created_at")
+	private LocalDateTime createdAt;
+}
@@ -0,0 +1,31 @@
+package com.cursotdd.model.entity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Contador incrementado a cada alteracao no acervo de livros, usado como ETag
+ * das listagens.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "catalog_version")
+public class CatalogVersion {
+
+	@Id
+	@Column
+	private Integer id;
+
+	@Column
+	private Long version;
+}
@@ -0,0 +1,53 @@
+package com.cursotdd.model.entity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Cliente identificado pelo e-mail. active_loans e late_loans sao contadores
+ * desnormalizados: o primeiro e mantido a cada emprestimo e devolucao, o
+ * segundo e recalculado periodicamente porque depende da data atual.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "customer")
+public class Customer {
+
+	@Id
+	@Column
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "customer_seq")
+	@SequenceGenerator(name = "customer_seq", sequenceName = "customer_seq", allocationSize = 50)
+	private Long id;
+
+	@Column
+	private String name;
+
+	@Column
+	private String email;
+
+	@Column(name = "active_loans")
+	private Integer activeLoans;
+
+	@Column(name = "late_loans")
+	private Integer lateLoans;
+
+	/**
+	 * Prazo de emprestimo proprio do cliente, em dias; quando nulo vale o
+	 * prazo do livro.
+	 */
+	@Column(name = "loan_days")
+	private Integer loanDays;
+}
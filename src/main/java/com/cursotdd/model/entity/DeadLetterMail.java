@@ -0,0 +1,49 @@
+package com.cursotdd.model.entity;
+
+import java.time.LocalDateTime;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "dead_letter_mail")
+public class DeadLetterMail {
+
+	@Id
+	@Column
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "dead_letter_mail_seq")
+	@SequenceGenerator(name = "dead_letter_mail_seq", sequenceName = "dead_letter_mail_seq", allocationSize = 50)
+	private Long id;
+
+	@Column(length = 1000)
+	private String recipients;
+
+	@Column
+	private String subject;
+
+	@Column(length = 4000)
+	private String body;
+
+	@Column(length = 1000)
+	private String error;
+
+	@Column
+	private Integer attempts;
+
+	@Column(name = "created_at")
+	private LocalDateTime createdAt;
+}
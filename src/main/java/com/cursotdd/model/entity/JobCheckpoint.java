@@ -0,0 +1,35 @@
+package com.cursotdd.model.entity;
+
+import java.time.LocalDate;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "job_checkpoint")
+public class JobCheckpoint {
+
+	@Id
+	@Column(name = "job_name")
+	private String jobName;
+
+	@Column(name = "run_date")
+	private LocalDate runDate;
+
+	@Column
+	private String position;
+
+	@Column
+	private Boolean finished;
+}
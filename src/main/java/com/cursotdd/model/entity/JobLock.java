@@ -0,0 +1,35 @@
+package com.cursotdd.model.entity;
+
+import java.time.LocalDateTime;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "job_lock")
+public class JobLock {
+
+	@Id
+	@Column(length = 100)
+	private String name;
+
+	@Column(length = 36)
+	private String owner;
+
+	@Column(name = "locked_until")
+	private LocalDateTime lockedUntil;
+
+	@Column(name = "fencing_token")
+	private Long fencingToken;
+}
@@ -1,47 +1,90 @@
 package com.cursotdd.model.entity;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
 import lombok.NoArgsConstructor;
+import lombok.ToString;
 
 @Data
 @Builder
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity
-@Table
+@Table(indexes = { @Index(name = "ix_loan_book_returned", columnList = "id_book, returned"),
+		@Index(name = "ix_loan_customer_id", columnList = "customer_id, id"),
+		@Index(name = "ix_loan_date_returned", columnList = "loan_date, returned"),
+		@Index(name = "ix_loan_active_due_date", columnList = "due_date, id"),
+		@Index(name = "uk_loan_active_book", columnList = "active_book_id", unique = true) })
 public class Loan {
 
 	@Id
 	@Column
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "loan_seq")
+	@SequenceGenerator(name = "loan_seq", sequenceName = "loan_seq", allocationSize = 50)
 	private Long id;
 
-	@Column
-	private String customer;
+	@JoinColumn(name = "customer_id")
+	@ManyToOne(fetch = FetchType.LAZY)
+	@ToString.Exclude
+	@EqualsAndHashCode.Exclude
+	private Customer customer;
 
 	@JoinColumn(name = "id_book")
-	@ManyToOne
+	@ManyToOne(fetch = FetchType.LAZY)
+	@ToString.Exclude
+	@EqualsAndHashCode.Exclude
 	private Book book;
 
 	@Column
 	private LocalDate loanDate;
 
+	/**
+	 * Data de emprestimo somada ao prazo do cliente ou do livro. A partir
+	 * desse dia o emprestimo em aberto conta como atrasado.
+	 */
+	@Column(name = "due_date")
+	private LocalDate dueDate;
+
 	@Column
 	private Boolean returned;
 
-	@Column(name = "customer_email")
-	private String customerEmail;
+	/**
+	 * Momento em que o aviso de atraso foi enviado; o aviso sai uma unica vez
+	 * por emprestimo.
+	 */
+	@Column(name = "late_notified_at")
+	private LocalDateTime lateNotifiedAt;
+
+	/**
+	 * Copia do id do livro enquanto o emprestimo esta em aberto e nulo depois
+	 * da devolucao. O indice unico sobre a coluna garante no banco um unico
+	 * emprestimo ativo por livro.
+	 */
+	@Column(name = "active_book_id")
+	private Long activeBookId;
+
+	@PrePersist
+	@PreUpdate
+	void updateActiveBook() {
+		activeBookId = book == null || Boolean.TRUE.equals(returned) ? null : book.getId();
+	}
 }
@@ -0,0 +1,71 @@
+package com.cursotdd.model.entity;
+
+import java.time.LocalDateTime;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Evento da outbox de emprestimos. A sequence nao usa pool (allocationSize 1)
+ * porque a ordem dos ids e a ordem de entrega dos eventos de cada livro.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "loan_event", indexes = { @Index(name = "ix_loan_event_pending", columnList = "processed_at, id"),
+		@Index(name = "ix_loan_event_book", columnList = "book_id, id") })
+public class LoanEvent {
+
+	public enum Type {
+		LOAN_CREATED, LOAN_RETURNED, LOAN_REOPENED
+	}
+
+	@Id
+	@Column
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "loan_event_seq")
+	@SequenceGenerator(name = "loan_event_seq", sequenceName = "loan_event_seq", allocationSize = 1)
+	private Long id;
+
+	@Enumerated(EnumType.STRING)
+	@Column(name = "event_type", length = 20)
+	private Type type;
+
+	@Column(name = "loan_id")
+	private Long loanId;
+
+	@Column(name = "book_id")
+	private Long bookId;
+
+	@Column(name = "customer_id")
+	private Long customerId;
+
+	@Column(name = "created_at")
+	private LocalDateTime createdAt;
+
+	@Column
+	private Integer attempts;
+
+	@Column(name = "next_attempt_at")
+	private LocalDateTime nextAttemptAt;
+
+	@Column(name = "processed_at")
+	private LocalDateTime processedAt;
+
+	@Column(length = 1000)
+	private String error;
+}
@@ -0,0 +1,53 @@
+package com.cursotdd.model.entity;
+
+import java.time.LocalDateTime;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * E-mail aceito pelo dispatcher e ainda nao enviado. claimedUntil e o prazo da
+ * instancia que o enfileirou; vencido o prazo, qualquer instancia pode
+ * reclama-lo e envia-lo.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+@Entity
+@Table(name = "pending_mail", indexes = @Index(name = "ix_pending_mail_claimed_until",
+		columnList = "claimed_until, id"))
+public class PendingMail {
+
+	@Id
+	@Column
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "pending_mail_seq")
+	@SequenceGenerator(name = "pending_mail_seq", sequenceName = "pending_mail_seq", allocationSize = 50)
+	private Long id;
+
+	@Column(nullable = false)
+	private String recipient;
+
+	@Column
+	private String subject;
+
+	@Column(length = 4000)
+	private String body;
+
+	@Column(name = "created_at", nullable = false)
+	private LocalDateTime createdAt;
+
+	@Column(name = "claimed_until", nullable = false)
+	private LocalDateTime claimedUntil;
+}
@@ -1,15 +1,19 @@
 package com.cursotdd.model.repository;
 
-import java.util.Optional;
+import java.util.Collection;
+import java.util.List;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import com.cursotdd.model.entity.Book;
 
-public interface BookRepository extends JpaRepository<Book, Long> {
+public interface BookRepository extends JpaRepository<Book, Long>, BookRepositoryCustom {
 
 	boolean existsByIsbn(String isbn);
 
-	Optional<Book> findByIsbn(String isbn);
+	@Query("select b.isbn from Book b where b.isbn in :isbns")
+	List<String> findExistingIsbns(@Param("isbns") Collection<String> isbns);
 
 }
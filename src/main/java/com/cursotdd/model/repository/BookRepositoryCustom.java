@@ -0,0 +1,36 @@
+package com.cursotdd.model.repository;
+
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import org.springframework.data.domain.Slice;
+
+import com.cursotdd.dto.KeysetCursor;
+import com.cursotdd.model.entity.Book;
+
+public interface BookRepositoryCustom {
+
+	/**
+	 * Busca por keyset: aplica os mesmos filtros do find por Example (contem,
+	 * ignorando caixa) e retorna os registros posteriores ao cursor, ordenados
+	 * por sortProperty e id, sem consulta de contagem.
+	 */
+	Slice<Book> findSlice(Book filter, String sortProperty, KeysetCursor after, int size);
+
+	/**
+	 * Busca pelo isbn (natural id), passando pelo cache de segundo nivel do
+	 * Hibernate em vez de uma consulta derivada.
+	 */
+	Optional<Book> findByIsbn(String isbn);
+
+	/**
+	 * Percorre o acervo em ordem de id a partir de afterId com um cursor
+	 * forward-only, entregando cada livro ao consumer e desanexando-o em
+	 * seguida, para que a memoria nao cresca com o tamanho do acervo. Precisa
+	 * de uma transacao aberta.
+	 *
+	 * @return quantidade de livros entregues
+	 */
+	long forEachAfter(Long afterId, int fetchSize, Consumer<Book> consumer);
+
+}
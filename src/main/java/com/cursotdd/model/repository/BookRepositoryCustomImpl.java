@@ -0,0 +1,123 @@
+package com.cursotdd.model.repository;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.hibernate.jpa.QueryHints;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+
+import com.cursotdd.dto.KeysetCursor;
+import com.cursotdd.model.entity.Book;
+
+public class BookRepositoryCustomImpl implements BookRepositoryCustom {
+
+	public static final String SORT_BY_TITLE = "title";
+
+	private static final char LIKE_ESCAPE = '\\';
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	/**
+	 * Na ordenacao por titulo um titulo nulo vale como vazio, tanto na ordem
+	 * quanto na comparacao com o cursor, para que esses livros nao sumam da
+	 * paginacao.
+	 */
+	@Override
+	public Slice<Book> findSlice(Book filter, String sortProperty, KeysetCursor after, int size) {
+		CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+		CriteriaQuery<Book> query = cb.createQuery(Book.class);
+		Root<Book> book = query.from(Book.class);
+		Path<Long> id = book.get("id");
+		Expression<String> title = cb.coalesce(book.<String>get("title"), "");
+		boolean byTitle = SORT_BY_TITLE.equals(sortProperty);
+
+		List<Predicate> predicates = new ArrayList<>();
+		addContains(cb, book, predicates, "title", filter.getTitle());
+		addContains(cb, book, predicates, "author", filter.getAuthor());
+		addContains(cb, book, predicates, "isbn", filter.getIsbn());
+
+		if (after != null && byTitle) {
+			String afterTitle = after.getSortValue() == null ? "" : after.getSortValue();
+			predicates.add(cb.or(cb.greaterThan(title, afterTitle),
+					cb.and(cb.equal(title, afterTitle), cb.greaterThan(id, after.getId()))));
+		} else if (after != null) {
+			predicates.add(cb.greaterThan(id, after.getId()));
+		}
+
+		query.where(predicates.toArray(new Predicate[predicates.size()]));
+		if (byTitle) {
+			query.orderBy(cb.asc(title), cb.asc(id));
+		} else {
+			query.orderBy(cb.asc(id));
+		}
+
+		List<Book> rows = entityManager.createQuery(query).setMaxResults(size + 1).getResultList();
+		boolean hasNext = rows.size() > size;
+		List<Book> content = hasNext ? new ArrayList<>(rows.subList(0, size)) : rows;
+
+		return new SliceImpl<>(content, PageRequest.of(0, size), hasNext);
+	}
+
+	@Override
+	public Optional<Book> findByIsbn(String isbn) {
+		return entityManager.unwrap(Session.class).bySimpleNaturalId(Book.class).loadOptional(isbn);
+	}
+
+	@Override
+	public long forEachAfter(Long afterId, int fetchSize, Consumer<Book> consumer) {
+		TypedQuery<Book> query = entityManager
+				.createQuery("select b from Book b where b.id > :afterId order by b.id", Book.class)
+				.setParameter("afterId", afterId).setHint(QueryHints.HINT_FETCH_SIZE, fetchSize)
+				.setHint(QueryHints.HINT_READONLY, true).setHint(QueryHints.HINT_CACHE_MODE, CacheMode.IGNORE);
+
+		long count = 0;
+		try (Stream<Book> books = query.getResultStream()) {
+			Iterator<Book> iterator = books.iterator();
+			while (iterator.hasNext()) {
+				Book book = iterator.next();
+				consumer.accept(book);
+				entityManager.detach(book);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private void addContains(CriteriaBuilder cb, Root<Book> book, List<Predicate> predicates, String attribute,
+			String value) {
+		if (value != null) {
+			predicates.add(cb.like(cb.lower(book.<String>get(attribute)), "%" + escapeLike(value.toLowerCase()) + "%",
+					LIKE_ESCAPE));
+		}
+	}
+
+	private static String escapeLike(String value) {
+		StringBuilder escaped = new StringBuilder(value.length());
+		for (char c : value.toCharArray()) {
+			if (c == '%' || c == '_' || c == LIKE_ESCAPE) {
+				escaped.append(LIKE_ESCAPE);
+			}
+			escaped.append(c);
+		}
+		return escaped.toString();
+	}
+}
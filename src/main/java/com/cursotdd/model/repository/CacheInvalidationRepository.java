@@ -0,0 +1,23 @@
+package com.cursotdd.model.repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.cursotdd.model.entity.CacheInvalidation;
+
+public interface CacheInvalidationRepository extends JpaRepository<CacheInvalidation, Long> {
+
+	List<CacheInvalidation> findByEntityNameAndCreatedAtAfterAndOriginNot(String entityName, LocalDateTime createdAt,
+			String origin);
+
+	@Transactional
+	@Modifying
+	@Query("delete from CacheInvalidation c where c.createdAt < :createdAt")
+	int deleteCreatedBefore(@Param("createdAt") LocalDateTime createdAt);
+}
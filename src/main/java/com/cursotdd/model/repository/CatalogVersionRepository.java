@@ -0,0 +1,20 @@
+package com.cursotdd.model.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.cursotdd.model.entity.CatalogVersion;
+
+public interface CatalogVersionRepository extends JpaRepository<CatalogVersion, Integer> {
+
+	@Transactional
+	@Modifying
+	@Query("update CatalogVersion c set c.version = c.version + 1 where c.id = :id")
+	int increment(@Param("id") Integer id);
+
+	@Query("select c.version from CatalogVersion c where c.id = :id")
+	Long findVersion(@Param("id") Integer id);
+}
@@ -0,0 +1,68 @@
+package com.cursotdd.model.repository;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.Optional;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import com.cursotdd.model.entity.Customer;
+
+public interface CustomerRepository extends JpaRepository<Customer, Long> {
+
+	Optional<Customer> findByEmail(String email);
+
+	/**
+	 * Soma delta (1 ou -1) aos contadores dos clientes dos emprestimos
+	 * informados, por cliente, em um unico update. Os emprestimos devem estar
+	 * bloqueados pelo chamador para que a mesma devolucao nao seja contada duas
+	 * vezes.
+	 * <p>
+	 * late_loans e so uma aproximacao ate o proximo {@link #refreshLateLoans}:
+	 * um emprestimo que vence depois de registrado so entra na contagem pelo
+	 * refresh, mas sai dela aqui se for devolvido atrasado antes disso. Por
+	 * isso o valor nunca fica abaixo de zero.
+	 */
+	@Modifying
+	@Query(nativeQuery = true, value = "UPDATE customer SET "
+			+ "active_loans = active_loans + :delta * (SELECT COUNT(*) FROM loan l "
+			+ "WHERE l.customer_id = customer.id AND l.id IN (:loanIds)), "
+			+ "late_loans = CASE WHEN late_loans + :delta * (SELECT COUNT(*) FROM loan l "
+			+ "WHERE l.customer_id = customer.id AND l.id IN (:loanIds) AND l.due_date <= :today) < 0 THEN 0 "
+			+ "ELSE late_loans + :delta * (SELECT COUNT(*) FROM loan l "
+			+ "WHERE l.customer_id = customer.id AND l.id IN (:loanIds) AND l.due_date <= :today) END "
+			+ "WHERE id IN (SELECT l.customer_id FROM loan l WHERE l.id IN (:loanIds))")
+	int updateLoanCounts(@Param("loanIds") Collection<Long> loanIds, @Param("today") LocalDate today,
+			@Param("delta") int delta);
+
+	/**
+	 * Recalcula late_loans apenas dos clientes com emprestimos em aberto ou com
+	 * atrasos ja contados (inclusive valores negativos gravados antes do limite
+	 * em zero de {@link #updateLoanCounts}).
+	 */
+	default int refreshLateLoans(LocalDate today) {
+		return refreshLateLoans(today, false);
+	}
+
+	/**
+	 * O booleano vai como parametro porque o literal muda entre H2 (FALSE) e
+	 * SQL Server (0).
+	 */
+	@Modifying
+	@Query(nativeQuery = true, value = "UPDATE customer SET late_loans = (SELECT COUNT(*) FROM loan l "
+			+ "WHERE l.customer_id = customer.id AND l.due_date <= :today "
+			+ "AND (l.returned IS NULL OR l.returned = :returned)) WHERE active_loans > 0 OR late_loans <> 0")
+	int refreshLateLoans(@Param("today") LocalDate today, @Param("returned") boolean returned);
+
+	/**
+	 * Altera apenas o prazo, sem regravar os contadores mantidos por
+	 * {@link #updateLoanCounts}.
+	 */
+	@Modifying(clearAutomatically = true)
+	@Query("update Customer c set c.loanDays = :loanDays where c.id = :id")
+	int updateLoanDays(@Param("id") Long id, @Param("loanDays") Integer loanDays);
+
+}
@@ -0,0 +1,9 @@
+package com.cursotdd.model.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import com.cursotdd.model.entity.JobCheckpoint;
+
+public interface JobCheckpointRepository extends JpaRepository<JobCheckpoint, String> {
+
+}
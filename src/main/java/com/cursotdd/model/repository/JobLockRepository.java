@@ -0,0 +1,50 @@
+package com.cursotdd.model.repository;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.cursotdd.model.entity.JobLock;
+
+public interface JobLockRepository extends JpaRepository<JobLock, String> {
+
+	/**
+	 * Cria a linha do lease ja expirada. O insert e nativo porque um save de
+	 * entidade com id atribuido faria merge sobre a linha criada por outro no;
+	 * aqui a disputa termina na chave primaria.
+	 */
+	@Transactional
+	@Modifying
+	@Query(value = "insert into job_lock (name, owner, locked_until, fencing_token) "
+			+ "values (:name, null, :lockedUntil, 0)", nativeQuery = true)
+	int create(@Param("name") String name, @Param("lockedUntil") LocalDateTime lockedUntil);
+
+	/**
+	 * Toma o lease se ele expirou, em um unico update; cada aquisicao gera um
+	 * novo fencing token.
+	 */
+	@Transactional
+	@Modifying
+	@Query("update JobLock j set j.owner = :owner, j.lockedUntil = :lockedUntil, "
+			+ "j.fencingToken = j.fencingToken + 1 where j.name = :name and j.lockedUntil < :now")
+	int acquire(@Param("name") String name, @Param("owner") String owner, @Param("now") LocalDateTime now,
+			@Param("lockedUntil") LocalDateTime lockedUntil);
+
+	@Transactional
+	@Modifying
+	@Query("update JobLock j set j.lockedUntil = :lockedUntil where j.name = :name and j.owner = :owner "
+			+ "and j.fencingToken = :token and j.lockedUntil >= :now")
+	int renew(@Param("name") String name, @Param("owner") String owner, @Param("token") Long token,
+			@Param("now") LocalDateTime now, @Param("lockedUntil") LocalDateTime lockedUntil);
+
+	@Transactional
+	@Modifying
+	@Query("update JobLock j set j.lockedUntil = :now where j.name = :name and j.owner = :owner "
+			+ "and j.fencingToken = :token")
+	int release(@Param("name") String name, @Param("owner") String owner, @Param("token") Long token,
+			@Param("now") LocalDateTime now);
+}
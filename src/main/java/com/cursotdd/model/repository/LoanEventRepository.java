@@ -0,0 +1,57 @@
+package com.cursotdd.model.repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.cursotdd.model.entity.LoanEvent;
+
+public interface LoanEventRepository extends JpaRepository<LoanEvent, Long> {
+
+	/**
+	 * Grava um evento por emprestimo informado com um unico insert-select, na
+	 * transacao de quem alterou os emprestimos.
+	 */
+	@Modifying
+	@Query(value = "insert into loan_event (id, event_type, loan_id, book_id, customer_id, created_at, attempts) "
+			+ "select next value for loan_event_seq, :type, l.id, l.id_book, l.customer_id, :createdAt, 0 "
+			+ "from loan l where l.id in :loanIds", nativeQuery = true)
+	int insertEvents(@Param("type") String type, @Param("loanIds") Collection<Long> loanIds,
+			@Param("createdAt") LocalDateTime createdAt);
+
+	/**
+	 * Eventos pendentes prontos para entrega, em ordem de id. Um evento nao e
+	 * entregue enquanto um evento anterior do mesmo livro aguarda nova
+	 * tentativa, o que preserva a ordem por livro.
+	 */
+	@Query("select e from LoanEvent e where e.processedAt is null "
+			+ "and (e.nextAttemptAt is null or e.nextAttemptAt <= :now) "
+			+ "and not exists (select p.id from LoanEvent p where p.bookId = e.bookId and p.processedAt is null "
+			+ "and p.id < e.id and p.nextAttemptAt > :now) order by e.id")
+	List<LoanEvent> findReady(@Param("now") LocalDateTime now, Pageable pageable);
+
+	@Transactional
+	@Modifying
+	@Query("update LoanEvent e set e.processedAt = :processedAt where e.id in :ids")
+	int markProcessed(@Param("ids") Collection<Long> ids, @Param("processedAt") LocalDateTime processedAt);
+
+	@Transactional
+	@Modifying
+	@Query("update LoanEvent e set e.attempts = :attempts, e.nextAttemptAt = :nextAttemptAt, "
+			+ "e.processedAt = :processedAt, e.error = :error where e.id = :id")
+	int markFailed(@Param("id") Long id, @Param("attempts") int attempts,
+			@Param("nextAttemptAt") LocalDateTime nextAttemptAt, @Param("processedAt") LocalDateTime processedAt,
+			@Param("error") String error);
+
+	@Transactional
+	@Modifying
+	@Query("delete from LoanEvent e where e.processedAt < :processedAt")
+	int deleteProcessedBefore(@Param("processedAt") LocalDateTime processedAt);
+}
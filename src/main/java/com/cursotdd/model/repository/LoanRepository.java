@@ -1,14 +1,26 @@
 package com.cursotdd.model.repository;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
+
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
+import com.cursotdd.dto.LateLoanDto;
+import com.cursotdd.dto.LoanDto;
 import com.cursotdd.model.entity.Book;
 import com.cursotdd.model.entity.Loan;
 
@@ -18,13 +30,130 @@ public interface LoanRepository extends JpaRepository<Loan, Long> {
 			+ "from Loan l where l.book =:book and ( l.returned is null or l.returned is false)")
 	boolean existsByBookAndNotReturned(@Param("book") Book book);
 
-	@Query(value = "select l from Loan l join l.book b where b.isbn = :isbn or l.customer = :customer")
-	Page<Loan> findByBookIsbnOrCustomer(@Param("isbn") String isbn, @Param("customer") String customer,
+	@Query(value = "select new com.cursotdd.dto.LoanDto(l.id, b.isbn, c.email, c.name, b.id, b.title, b.author) "
+			+ "from Loan l join l.book b left join l.customer c where b.isbn = :isbn or c.name = :customer",
+			countQuery = "select count(l.id) from Loan l join l.book b left join l.customer c "
+					+ "where b.isbn = :isbn or c.name = :customer")
+	Page<LoanDto> findDtoByBookIsbnOrCustomer(@Param("isbn") String isbn, @Param("customer") String customer,
 			Pageable pageRequest);
 
-	Page<Loan> findByBook(Book book, Pageable pageable);
+	@Query("select new com.cursotdd.dto.LoanDto(l.id, b.isbn, c.email, c.name, b.id, b.title, b.author) "
+			+ "from Loan l join l.book b left join l.customer c where (b.isbn = :isbn or c.name = :customer) "
+			+ "and l.id > :afterId order by l.id")
+	Slice<LoanDto> findDtoSliceByBookIsbnOrCustomer(@Param("isbn") String isbn, @Param("customer") String customer,
+			@Param("afterId") Long afterId, Pageable pageable);
+
+	@Query(value = "select new com.cursotdd.dto.LoanDto(l.id, b.isbn, c.email, c.name, b.id, b.title, b.author) "
+			+ "from Loan l join l.book b left join l.customer c where b.id = :bookId",
+			countQuery = "select count(l.id) from Loan l where l.book.id = :bookId")
+	Page<LoanDto> findDtoByBookId(@Param("bookId") Long bookId, Pageable pageable);
+
+	/**
+	 * Historico do cliente pelo indice (customer_id, id), sem o OR entre
+	 * livro e cliente de findDtoByBookIsbnOrCustomer.
+	 */
+	@Query(value = "select new com.cursotdd.dto.LoanDto(l.id, b.isbn, c.email, c.name, b.id, b.title, b.author) "
+			+ "from Loan l join l.customer c join l.book b where c.id = :customerId",
+			countQuery = "select count(l.id) from Loan l where l.customer.id = :customerId")
+	Page<LoanDto> findDtoByCustomerId(@Param("customerId") Long customerId, Pageable pageable);
+
+	/**
+	 * Todos os emprestimos a partir de afterId em ordem de id, lidos com um
+	 * cursor forward-only; a projecao em LoanDto nao deixa entidades no
+	 * contexto de persistencia. Precisa de uma transacao aberta e o stream deve
+	 * ser fechado.
+	 */
+	@QueryHints(@QueryHint(name = org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE, value = "500"))
+	@Query("select new com.cursotdd.dto.LoanDto(l.id, b.isbn, c.email, c.name, b.id, b.title, b.author) "
+			+ "from Loan l join l.book b left join l.customer c where l.id > :afterId order by l.id")
+	Stream<LoanDto> streamDtoAfter(@Param("afterId") Long afterId);
 
 	@Query("select l from Loan l where l.loanDate <= :threeDaysAgo and ( l.returned is null or l.returned is false)")
 	List<Loan> findByLoanDateLessThanAndNotReturned(@Param("threeDaysAgo") LocalDate threeDaysAgo);
 
+	@Query("select count(l.id) from Loan l where l.dueDate <= :today and l.activeBookId is not null")
+	long countLateLoans(@Param("today") LocalDate today);
+
+	/**
+	 * Emprestimos em aberto e ainda nao avisados que vencem ate :today e vem
+	 * depois de (:afterDueDate, :afterId) na ordem do indice (due_date, id). O
+	 * job e dividido em :shards fatias pelo id do cliente, para que os
+	 * emprestimos de um cliente fiquem sempre na mesma fatia.
+	 */
+	@Query("select new com.cursotdd.dto.LateLoanDto(l.id, c.email, l.dueDate) from Loan l join l.customer c "
+			+ "where (l.dueDate > :afterDueDate or (l.dueDate = :afterDueDate and l.id > :afterId)) "
+			+ "and l.dueDate <= :today and l.activeBookId is not null and l.lateNotifiedAt is null "
+			+ "and mod(c.id, :shards) = :shard order by l.dueDate, l.id")
+	List<LateLoanDto> findNewlyLateLoans(@Param("afterDueDate") LocalDate afterDueDate, @Param("afterId") Long afterId,
+			@Param("today") LocalDate today, @Param("shard") int shard, @Param("shards") int shards,
+			Pageable pageable);
+
+	/**
+	 * Marca os emprestimos avisados apenas se o lease do job ainda pertence a
+	 * quem o informa, com o mesmo fencing token: um no que perdeu o lease nao
+	 * marca nada e, portanto, nao envia.
+	 */
+	@Modifying
+	@Query("update Loan l set l.lateNotifiedAt = :notifiedAt where l.id in :ids and l.lateNotifiedAt is null "
+			+ "and exists (select j.name from JobLock j where j.name = :jobName and j.owner = :owner "
+			+ "and j.fencingToken = :token and j.lockedUntil > :notifiedAt)")
+	int markLateNotified(@Param("ids") Collection<Long> ids, @Param("notifiedAt") LocalDateTime notifiedAt,
+			@Param("jobName") String jobName, @Param("owner") String owner, @Param("token") Long token);
+
+	@Query("select l.id from Loan l where l.id in :ids")
+	List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+	@Query("select l.book.id from Loan l where l.id in :ids")
+	List<Long> findBookIds(@Param("ids") Collection<Long> ids);
+
+	/**
+	 * Livros com emprestimo em aberto, em blocos pelo indice unico de
+	 * active_book_id.
+	 */
+	@Query("select l.activeBookId from Loan l where l.activeBookId > :after order by l.activeBookId")
+	List<Long> findActiveBookIds(@Param("after") Long after, Pageable pageable);
+
+	/**
+	 * Bloqueia os emprestimos em aberto ate o fim da transacao: uma devolucao
+	 * concorrente do mesmo emprestimo espera e ja o encontra devolvido.
+	 */
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select l.id from Loan l where l.id in :ids and ( l.returned is null or l.returned is false)")
+	List<Long> findOpenLoanIds(@Param("ids") Collection<Long> ids);
+
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select l.id from Loan l where l.id in :ids and l.returned = true")
+	List<Long> findReturnedLoanIds(@Param("ids") Collection<Long> ids);
+
+	/**
+	 * Bloqueia apenas as linhas de loan: o livro entra por subconsulta, e nao
+	 * por join, para que a trava nao se estenda a book.
+	 */
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select l.id from Loan l where l.activeBookId in (select b.id from Book b where b.isbn in :isbns) "
+			+ "and ( l.returned is null or l.returned is false)")
+	List<Long> findOpenLoanIdsByIsbns(@Param("isbns") Collection<String> isbns);
+
+	@Query("select new com.cursotdd.dto.LoanDto(l.id, b.isbn, c.email, c.name, b.id, b.title, b.author) "
+			+ "from Loan l join l.book b left join l.customer c where l.id in :ids")
+	List<LoanDto> findDtoByIds(@Param("ids") Collection<Long> ids);
+
+	/**
+	 * Devolucao em lote sem carregar as entidades; libera o livro para um novo
+	 * emprestimo limpando active_book_id.
+	 */
+	@Modifying
+	@Query("update Loan l set l.returned = true, l.activeBookId = null "
+			+ "where l.id in :ids and ( l.returned is null or l.returned is false)")
+	int markReturned(@Param("ids") Collection<Long> ids);
+
+	/**
+	 * Reabre o emprestimo com um novo vencimento e sem o aviso de atraso
+	 * anterior, para que o job volte a avisar quando o novo prazo vencer.
+	 */
+	@Modifying
+	@Query("update Loan l set l.returned = false, l.activeBookId = l.book.id, l.dueDate = :dueDate, "
+			+ "l.lateNotifiedAt = null where l.id = :id")
+	int markNotReturned(@Param("id") Long id, @Param("dueDate") LocalDate dueDate);
+
 }
@@ -0,0 +1,40 @@
+package com.cursotdd.model.repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.cursotdd.model.entity.PendingMail;
+
+public interface PendingMailRepository extends JpaRepository<PendingMail, Long> {
+
+	/**
+	 * E-mails cujo prazo venceu: a instancia que os enfileirou caiu ou parou
+	 * antes de envia-los.
+	 */
+	@Query("select m from PendingMail m where m.claimedUntil <= :now order by m.id")
+	List<PendingMail> findExpired(@Param("now") LocalDateTime now, Pageable pageable);
+
+	/**
+	 * Reclama um e-mail vencido; so uma instancia consegue reclama-lo.
+	 *
+	 * @return 1 se o e-mail foi reclamado
+	 */
+	@Transactional
+	@Modifying
+	@Query("update PendingMail m set m.claimedUntil = :claimedUntil where m.id = :id and m.claimedUntil <= :now")
+	int claim(@Param("id") Long id, @Param("now") LocalDateTime now,
+			@Param("claimedUntil") LocalDateTime claimedUntil);
+
+	@Transactional
+	@Modifying
+	@Query("delete from PendingMail m where m.id in :ids")
+	int deleteByIds(@Param("ids") Collection<Long> ids);
+}
@@ -1,15 +1,25 @@
 package com.cursotdd.resources;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
 
-import org.modelmapper.ModelMapper;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -17,20 +27,32 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
 
 import com.cursotdd.dto.BookDto;
+import com.cursotdd.dto.BookImportResultDto;
+import com.cursotdd.dto.BookImportResultDto.Status;
+import com.cursotdd.dto.BookSearchResultDto;
+import com.cursotdd.dto.CursorPageDto;
 import com.cursotdd.dto.LoanDto;
+import com.cursotdd.dto.mapper.BookMapper;
+import com.cursotdd.exception.BusinessException;
 import com.cursotdd.model.entity.Book;
-import com.cursotdd.model.entity.Loan;
+import com.cursotdd.service.BookAvailabilityService;
+import com.cursotdd.service.BookSearchService;
 import com.cursotdd.service.BookService;
+import com.cursotdd.service.CatalogVersionService;
 import com.cursotdd.service.LoanService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
 
 @RestController
 @RequestMapping("/api/books")
@@ -38,14 +60,35 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class BookController {
 
+	public static final String NDJSON_VALUE = "application/x-ndjson";
+	public static final String CSV_VALUE = "text/csv";
+
+	private static final int MAX_BATCH_SIZE = 1000;
+	private static final int IMPORT_CHUNK_SIZE = 500;
+	static final int MAX_CURSOR_PAGE_SIZE = 1000;
+
 	private BookService service;
-	private ModelMapper modelMapper;
 	private LoanService loanService;
+	private BookSearchService searchService;
+	private CatalogVersionService catalogVersionService;
+	private BookAvailabilityService availabilityService;
+	private ObjectMapper objectMapper;
+
+	@Value("${application.http.books.max-age-seconds:0}")
+	private long maxAgeSeconds;
 
-	public BookController(BookService service, ModelMapper modelMapper, LoanService loanService) {
+	@Value("${application.http.books.shared-max-age-seconds:60}")
+	private long sharedMaxAgeSeconds;
+
+	public BookController(BookService service, LoanService loanService, BookSearchService searchService,
+			CatalogVersionService catalogVersionService, BookAvailabilityService availabilityService,
+			ObjectMapper objectMapper) {
 		this.service = service;
-		this.modelMapper = modelMapper;
 		this.loanService = loanService;
+		this.searchService = searchService;
+		this.catalogVersionService = catalogVersionService;
+		this.availabilityService = availabilityService;
+		this.objectMapper = objectMapper;
 	}
 
 	@PostMapping
@@ -53,17 +96,121 @@ public class BookController {
 	@ApiOperation("CREATE A BOOK")
 	public BookDto create(@RequestBody @Valid BookDto dto) {
 		log.info("creating a book for isbn: {}", dto.getIsbn());
-		Book entity = modelMapper.map(dto, Book.class);
+		Book entity = BookMapper.toEntity(dto);
 		entity = service.save(entity);
-		return modelMapper.map(entity, BookDto.class);
+		return BookMapper.toDto(entity);
+	}
+
+	@PostMapping(value = "batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+	@ApiOperation("CREATE BOOKS IN BATCH")
+	public List<BookImportResultDto> createBatch(@RequestBody List<BookDto> dtos) {
+		log.info("creating {} books in batch", dtos.size());
+		if (dtos.size() > MAX_BATCH_SIZE) {
+			throw new BusinessException("o lote deve ter no maximo " + MAX_BATCH_SIZE + " livros");
+		}
+		List<Book> books = dtos.stream().map(BookMapper::toEntity).collect(Collectors.toList());
+		return service.saveAll(books);
+	}
+
+	@PostMapping(value = "batch", consumes = { NDJSON_VALUE, CSV_VALUE })
+	@ApiOperation("CREATE BOOKS FROM A NDJSON OR CSV STREAM")
+	public void createBatchStream(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		boolean csv = MediaType.parseMediaType(request.getContentType()).isCompatibleWith(MediaType.valueOf(CSV_VALUE));
+		log.info("importing books from {} stream", csv ? "csv" : "ndjson");
+
+		response.setStatus(HttpStatus.OK.value());
+		response.setContentType(NDJSON_VALUE);
+		response.setCharacterEncoding("UTF-8");
+
+		BufferedReader reader = request.getReader();
+		Writer writer = response.getWriter();
+		List<Book> chunk = new ArrayList<>(IMPORT_CHUNK_SIZE);
+		boolean firstLine = true;
+		String line;
+
+		while ((line = BookImportParser.readRecord(reader, csv)) != null) {
+			if (line.trim().isEmpty()) {
+				continue;
+			}
+			if (firstLine && csv && BookImportParser.isCsvHeader(line)) {
+				firstLine = false;
+				continue;
+			}
+			firstLine = false;
+
+			BookDto dto = csv ? BookImportParser.fromCsv(line) : BookImportParser.fromNdjson(objectMapper, line);
+			chunk.add(BookMapper.toEntity(dto));
+
+			if (chunk.size() == IMPORT_CHUNK_SIZE) {
+				writeResults(saveChunk(chunk), writer);
+				chunk = new ArrayList<>(IMPORT_CHUNK_SIZE);
+			}
+		}
+		if (!chunk.isEmpty()) {
+			writeResults(saveChunk(chunk), writer);
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Exporta o acervo em ordem de id, lendo o banco por um cursor somente de
+	 * avanco. O csv usa as mesmas colunas da importacao. Uma exportacao
+	 * interrompida pode ser retomada com afterId igual ao ultimo id recebido.
+	 */
+	@GetMapping("export")
+	@ApiOperation("EXPORTS ALL BOOKS AS A NDJSON OR CSV STREAM")
+	public void export(@RequestParam(value = "format", defaultValue = ExportWriter.NDJSON) String format,
+			@RequestParam(value = "afterId", defaultValue = "0") Long afterId, HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		log.info("exporting books after id {} as {}", afterId, format);
+		try (ExportWriter writer = ExportWriter.open(request, response, "books", format, objectMapper, "isbn",
+				"title", "author", "loanDays", "id")) {
+			long count = writer.run(() -> service.export(afterId, book -> writer.write(BookMapper.toDto(book),
+					book.getIsbn(), book.getTitle(), book.getAuthor(), book.getLoanDays(), book.getId())));
+			log.info("exported {} books", count);
+		}
+	}
+
+	/**
+	 * Um isbn gravado por outra requisicao entre a verificacao e o insert faz o
+	 * bloco inteiro voltar. Como o status 200 e os resultados dos blocos
+	 * anteriores ja foram enviados, o erro nao pode virar uma resposta 400: o
+	 * bloco e reprocessado uma vez, quando o isbn ja aparece como DUPLICATED, e
+	 * se falhar de novo cada livro dele e reportado como INVALID.
+	 */
+	private List<BookImportResultDto> saveChunk(List<Book> chunk) {
+		try {
+			return service.saveAll(chunk);
+		} catch (BusinessException e) {
+			log.warn("book import chunk rejected, retrying once: {}", e.getMessage());
+		}
+		try {
+			return service.saveAll(chunk);
+		} catch (BusinessException e) {
+			return chunk.stream().map(book -> BookImportResultDto.builder().isbn(book.getIsbn())
+					.status(Status.INVALID).message(e.getMessage()).build()).collect(Collectors.toList());
+		}
+	}
+
+	private void writeResults(List<BookImportResultDto> results, Writer writer) throws IOException {
+		for (BookImportResultDto result : results) {
+			writer.write(objectMapper.writeValueAsString(result));
+			writer.write('\n');
+		}
+		writer.flush();
 	}
 
 	@GetMapping("{id}")
 	@ApiOperation("OBTAINS A BOOK DETAILS BY ID")
-	public BookDto get(@PathVariable Long id) {
+	public ResponseEntity<BookDto> get(@PathVariable Long id, WebRequest request) {
 		log.info("getting a book for id: {}", id);
-		return service.getById(id).map(book -> modelMapper.map(book, BookDto.class))
-				.orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+		Book book = service.getById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+
+		String etag = "\"" + book.getId() + "-" + (book.getVersion() == null ? 0 : book.getVersion()) + "\"";
+		if (isNotModified(request, etag)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cacheControl()).build();
+		}
+		return ResponseEntity.ok().eTag(etag).cacheControl(cacheControl()).body(BookMapper.toDto(book));
 	}
 
 	@DeleteMapping("{id}")
@@ -75,27 +222,103 @@ public class BookController {
 		service.delete(book);
 	}
 
+	/**
+	 * O livro devolvido por getById e a instancia guardada no cache e
+	 * compartilhada entre requisicoes, entao as alteracoes vao para uma copia.
+	 */
 	@PutMapping("{id}")
 	@ApiOperation("UPDATE A BOOK INFOS")
 	public BookDto update(@PathVariable Long id, @RequestBody @Valid BookDto dto) {
 		log.info("updating a book for id: {}", id);
 		return service.getById(id).map(book -> {
-			book.setAuthor(dto.getAuthor());
-			book.setTitle(dto.getTitle());
-			book = service.update(book);
-			return modelMapper.map(book, BookDto.class);
+			Book changed = Book.builder().id(book.getId()).isbn(book.getIsbn()).version(book.getVersion())
+					.author(dto.getAuthor()).title(dto.getTitle()).loanDays(dto.getLoanDays()).build();
+			return BookMapper.toDto(service.update(changed));
 		}).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
 	}
 
+	/**
+	 * O ETag combina a versao do acervo com o resumo do mapa de livros
+	 * emprestados, ja que a pagina traz a disponibilidade de cada livro.
+	 */
 	@GetMapping
 	@ApiOperation("OBTAINS A BOOK BY FILTERS")
-	public Page<BookDto> find(BookDto dto, Pageable pageRequest) {
+	public ResponseEntity<Page<BookDto>> find(BookDto dto, Pageable pageRequest, WebRequest request) {
 		log.info("get book by filters");
-		Book filter = modelMapper.map(dto, Book.class);
-		Page<Book> result = service.find(filter, pageRequest);
-		List<BookDto> list = result.getContent().stream().map(entity -> modelMapper.map(entity, BookDto.class))
-				.collect(Collectors.toList());
-		return new PageImpl<BookDto>(list, pageRequest, result.getTotalElements());
+		String etag = "\"catalog-" + catalogVersionService.current() + "-"
+				+ Long.toHexString(availabilityService.checksum()) + "\"";
+		if (isNotModified(request, etag)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cacheControl()).build();
+		}
+
+		Book filter = BookMapper.toEntity(dto);
+		Page<BookDto> page = service.find(filter, pageRequest).map(this::toListedDto);
+		return ResponseEntity.ok().eTag(etag).cacheControl(cacheControl()).body(page);
+	}
+
+	@GetMapping(produces = { MediaType.APPLICATION_STREAM_JSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE })
+	@ApiOperation("STREAMS BOOKS BY FILTERS")
+	public Flux<BookDto> stream(BookDto dto) {
+		log.info("streaming books by filters");
+		return service.stream(BookMapper.toEntity(dto)).map(this::toListedDto);
+	}
+
+	/**
+	 * O cursor percorre o indice em ordem crescente; sort aceita a propriedade
+	 * com ou sem ",asc", e qualquer outra direcao e rejeitada em vez de
+	 * ignorada.
+	 */
+	@GetMapping(params = "cursor")
+	@ApiOperation("OBTAINS BOOKS BY FILTERS USING A CONTINUATION CURSOR")
+	public CursorPageDto<BookDto> findByCursor(BookDto dto, @RequestParam("cursor") String cursor,
+			@RequestParam(value = "size", defaultValue = "20") int size,
+			@RequestParam(value = "sort", defaultValue = "id") String sort) {
+		log.info("get book by filters using cursor");
+		Book filter = BookMapper.toEntity(dto);
+		String[] sortParts = sort.split(",");
+		if (sortParts.length > 2 || (sortParts.length == 2 && !"asc".equalsIgnoreCase(sortParts[1].trim()))) {
+			throw new BusinessException("a busca por cursor so suporta ordenacao crescente");
+		}
+		String sortProperty = sortParts[0].trim();
+		return service.findByCursor(filter, sortProperty, cursor, Math.min(size, MAX_CURSOR_PAGE_SIZE))
+				.map(this::toListedDto);
+	}
+
+	private BookDto toListedDto(Book book) {
+		BookDto dto = BookMapper.toDto(book);
+		dto.setAvailable(availabilityService.isAvailable(book.getId()));
+		return dto;
+	}
+
+	@GetMapping("search")
+	@ApiOperation("SEARCH BOOKS BY TITLE, AUTHOR OR ISBN ORDERED BY RELEVANCE")
+	public List<BookSearchResultDto> search(@RequestParam("q") String text,
+			@RequestParam(value = "size", defaultValue = "20") int size) {
+		log.info("searching books by text");
+		return searchService.search(text, size);
+	}
+
+	private CacheControl cacheControl() {
+		return CacheControl.maxAge(maxAgeSeconds, TimeUnit.SECONDS).sMaxAge(sharedMaxAgeSeconds, TimeUnit.SECONDS)
+				.cachePublic();
+	}
+
+	/**
+	 * If-None-Match usa comparacao fraca, entao o prefixo W/ que alguns CDNs
+	 * adicionam e ignorado.
+	 */
+	private boolean isNotModified(WebRequest request, String etag) {
+		String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String candidate : ifNoneMatch.split(",")) {
+			String value = candidate.trim();
+			if (value.equals("*") || value.equals(etag) || value.equals("W/" + etag)) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	@GetMapping("{id}/loans")
@@ -103,15 +326,6 @@ public class BookController {
 	public Page<LoanDto> loansByBook(@PathVariable Long id, Pageable pageable) {
 		log.info("getting loans from book id: {}", id);
 		Book book = service.getById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
-		Page<Loan> result = loanService.getLoansByBook(book, pageable);
-
-		List<LoanDto> list = result.getContent().stream().map(entity -> {
-			BookDto bookDto = modelMapper.map(entity.getBook(), BookDto.class);
-			LoanDto loanDto = modelMapper.map(entity, LoanDto.class);
-			loanDto.setBook(bookDto);
-			return loanDto;
-		}).collect(Collectors.toList());
-
-		return new PageImpl<LoanDto>(list, pageable, result.getTotalElements());
+		return loanService.getLoansByBook(book, pageable);
 	}
 }
@@ -0,0 +1,95 @@
+package com.cursotdd.resources;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cursotdd.dto.BookDto;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Converte as linhas recebidas na importacao em lote. Linhas mal formadas
+ * viram um livro vazio, que e reportado como INVALID no resultado.
+ */
+final class BookImportParser {
+
+	private BookImportParser() {
+	}
+
+	/**
+	 * Le o proximo registro. Em csv um campo entre aspas pode conter quebras de
+	 * linha (a exportacao gera esses campos), entao as linhas seguintes sao
+	 * juntadas enquanto houver aspas abertas.
+	 */
+	static String readRecord(BufferedReader reader, boolean csv) throws IOException {
+		String line = reader.readLine();
+		if (line == null || !csv) {
+			return line;
+		}
+		StringBuilder record = new StringBuilder(line);
+		boolean quoted = isQuoteOpen(line, false);
+		while (quoted && (line = reader.readLine()) != null) {
+			record.append('\n').append(line);
+			quoted = isQuoteOpen(line, true);
+		}
+		return record.toString();
+	}
+
+	static BookDto fromNdjson(ObjectMapper objectMapper, String line) {
+		try {
+			return objectMapper.readValue(line, BookDto.class);
+		} catch (IOException e) {
+			return new BookDto();
+		}
+	}
+
+	/**
+	 * Colunas na ordem isbn,title,author. Campos podem vir entre aspas duplas.
+	 */
+	static BookDto fromCsv(String line) {
+		List<String> columns = splitCsv(line);
+		if (columns.size() < 3) {
+			return new BookDto();
+		}
+		return BookDto.builder().isbn(columns.get(0)).title(columns.get(1)).author(columns.get(2)).build();
+	}
+
+	static boolean isCsvHeader(String line) {
+		return line.trim().toLowerCase().startsWith("isbn");
+	}
+
+	private static boolean isQuoteOpen(String line, boolean quoted) {
+		for (int i = 0; i < line.length(); i++) {
+			if (line.charAt(i) == '"') {
+				quoted = !quoted;
+			}
+		}
+		return quoted;
+	}
+
+	private static List<String> splitCsv(String line) {
+		List<String> columns = new ArrayList<>();
+		StringBuilder current = new StringBuilder();
+		boolean quoted = false;
+
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					current.append('"');
+					i++;
+				} else {
+					quoted = !quoted;
+				}
+			} else if (c == ',' && !quoted) {
+				columns.add(current.toString().trim());
+				current.setLength(0);
+			} else {
+				current.append(c);
+			}
+		}
+		columns.add(current.toString().trim());
+		return columns;
+	}
+}
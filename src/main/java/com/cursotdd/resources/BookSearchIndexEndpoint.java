@@ -0,0 +1,34 @@
+package com.cursotdd.resources;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import com.cursotdd.service.BookSearchService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reconstrucao do indice de busca a partir do banco:
+ * POST /actuator/booksearchindex
+ */
+@Component
+@Endpoint(id = "booksearchindex")
+@Slf4j
+public class BookSearchIndexEndpoint {
+
+	private BookSearchService searchService;
+
+	public BookSearchIndexEndpoint(BookSearchService searchService) {
+		this.searchService = searchService;
+	}
+
+	@WriteOperation
+	public Map<String, Long> rebuild() {
+		log.info("rebuilding book search index");
+		return Collections.singletonMap("indexed", searchService.rebuild());
+	}
+}
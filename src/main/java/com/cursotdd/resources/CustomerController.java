@@ -0,0 +1,65 @@
+package com.cursotdd.resources;
+
+import javax.validation.Valid;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import com.cursotdd.dto.CustomerDto;
+import com.cursotdd.dto.LoanDto;
+import com.cursotdd.dto.mapper.CustomerMapper;
+import com.cursotdd.model.entity.Customer;
+import com.cursotdd.service.CustomerService;
+import com.cursotdd.service.LoanService;
+
+import io.swagger.annotations.Api;
+import io.swagger.annotations.ApiOperation;
+
+@RestController
+@RequestMapping("/api/customers")
+@Api("Customer Api")
+public class CustomerController {
+
+	private final CustomerService service;
+	private final LoanService loanService;
+
+	public CustomerController(CustomerService service, LoanService loanService) {
+		this.service = service;
+		this.loanService = loanService;
+	}
+
+	@GetMapping("{id}/summary")
+	@ApiOperation("OBTAINS ACTIVE AND LATE LOAN COUNTS OF A CUSTOMER")
+	public CustomerDto summary(@PathVariable Long id) {
+		return CustomerMapper.toDto(getCustomer(id));
+	}
+
+	/**
+	 * Apenas o prazo de emprestimo e alteravel; nome e e-mail identificam o
+	 * cliente e os contadores sao mantidos pelos emprestimos.
+	 */
+	@PatchMapping("{id}")
+	@ApiOperation("UPDATES THE CUSTOMER LOAN DAYS")
+	public CustomerDto update(@PathVariable Long id, @RequestBody @Valid CustomerDto dto) {
+		return service.updateLoanDays(id, dto.getLoanDays()).map(CustomerMapper::toDto)
+				.orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+	}
+
+	@GetMapping("{id}/loans")
+	@ApiOperation("OBTAINS LOANS FROM CUSTOMER")
+	public Page<LoanDto> loansByCustomer(@PathVariable Long id, Pageable pageable) {
+		return loanService.getLoansByCustomer(getCustomer(id), pageable);
+	}
+
+	private Customer getCustomer(Long id) {
+		return service.getById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
+	}
+}
@@ -0,0 +1,146 @@
+package com.cursotdd.resources;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+
+import com.cursotdd.exception.BusinessException;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Escreve uma exportacao linha a linha direto no corpo da resposta, em csv ou
+ * ndjson, comprimida com gzip quando o cliente aceita. Nada e acumulado alem
+ * do buffer de escrita; se a exportacao for interrompida, o cliente retoma a
+ * partir do ultimo id recebido.
+ * <p>
+ * O status 200 ja foi enviado quando uma falha acontece no meio da leitura,
+ * entao o erro nao pode virar uma resposta de erro. Nesse caso o corpo nao e
+ * terminado (nem o trailer do gzip nem o ultimo chunk) e a falha sobe como
+ * IOException, que nenhum handler da aplicacao trata: o container fecha a
+ * conexao e o cliente ve a resposta truncada como erro, e nao como um arquivo
+ * completo.
+ */
+final class ExportWriter implements Closeable {
+
+	static final String CSV = "csv";
+	static final String NDJSON = "ndjson";
+
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Writer writer;
+	private final boolean csv;
+	private final ObjectMapper objectMapper;
+	private boolean complete;
+
+	private ExportWriter(Writer writer, boolean csv, ObjectMapper objectMapper) {
+		this.writer = writer;
+		this.csv = csv;
+		this.objectMapper = objectMapper;
+	}
+
+	static ExportWriter open(HttpServletRequest request, HttpServletResponse response, String name, String format,
+			ObjectMapper objectMapper, String... csvHeader) throws IOException {
+		if (!CSV.equalsIgnoreCase(format) && !NDJSON.equalsIgnoreCase(format)) {
+			throw new BusinessException("formato de exportacao invalido, use csv ou ndjson");
+		}
+		boolean csv = CSV.equalsIgnoreCase(format);
+		String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+		boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+
+		response.setStatus(HttpStatus.OK.value());
+		response.setContentType(csv ? BookController.CSV_VALUE : BookController.NDJSON_VALUE);
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+				"attachment; filename=\"" + name + "." + (csv ? CSV : NDJSON) + (gzip ? ".gz\"" : "\""));
+		response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+		OutputStream out = response.getOutputStream();
+		if (gzip) {
+			response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+			out = new GZIPOutputStream(out, BUFFER_SIZE);
+		}
+		ExportWriter exportWriter = new ExportWriter(
+				new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE), csv,
+				objectMapper);
+		if (csv) {
+			exportWriter.writeCsv((Object[]) csvHeader);
+		}
+		return exportWriter;
+	}
+
+	/**
+	 * Escreve uma linha: o objeto inteiro em ndjson ou as colunas em csv.
+	 */
+	void write(Object row, Object... csvColumns) {
+		try {
+			if (csv) {
+				writeCsv(csvColumns);
+			} else {
+				writer.write(toJson(row));
+				writer.write('\n');
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Executa a leitura que alimenta {@link #write}; so depois que ela termina
+	 * sem erro o {@link #close} fecha o corpo da resposta.
+	 */
+	<T> T run(Supplier<T> export) throws IOException {
+		try {
+			T result = export.get();
+			complete = true;
+			return result;
+		} catch (RuntimeException e) {
+			throw new IOException("exportacao interrompida", e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (complete) {
+			writer.close();
+		}
+	}
+
+	private String toJson(Object row) throws JsonProcessingException {
+		return objectMapper.writeValueAsString(row);
+	}
+
+	private void writeCsv(Object... columns) throws IOException {
+		for (int i = 0; i < columns.length; i++) {
+			if (i > 0) {
+				writer.write(',');
+			}
+			writer.write(escapeCsv(columns[i]));
+		}
+		writer.write('\n');
+	}
+
+	private static String escapeCsv(Object value) {
+		if (value == null) {
+			return "";
+		}
+		String text = value.toString();
+		if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+			return text;
+		}
+		return "\"" + text.replace("\"", "\"\"") + "\"";
+	}
+}
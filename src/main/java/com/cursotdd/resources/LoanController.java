@@ -1,47 +1,61 @@
 package com.cursotdd.resources;
 
+import java.io.IOException;
 import java.time.LocalDate;
 import java.util.List;
-import java.util.stream.Collectors;
 
-import org.modelmapper.ModelMapper;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.server.ResponseStatusException;
 
-import com.cursotdd.dto.BookDto;
+import com.cursotdd.dto.CursorPageDto;
 import com.cursotdd.dto.LoanDto;
 import com.cursotdd.dto.LoanFilterDto;
+import com.cursotdd.dto.LoanReturnRequestDto;
+import com.cursotdd.dto.LoanReturnResultDto;
 import com.cursotdd.dto.ReturnedLoanDto;
 import com.cursotdd.model.entity.Book;
+import com.cursotdd.model.entity.Customer;
 import com.cursotdd.model.entity.Loan;
 import com.cursotdd.service.BookService;
+import com.cursotdd.service.CustomerService;
 import com.cursotdd.service.LoanService;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import io.swagger.annotations.ApiOperation;
+import reactor.core.publisher.Flux;
 
 @RestController
 @RequestMapping("/api/loans")
 public class LoanController {
 
+	private static final int MAX_CURSOR_PAGE_SIZE = 1000;
+
 	private final LoanService service;
 	private final BookService bookService;
-	private ModelMapper modelMapper;
+	private final CustomerService customerService;
+	private final ObjectMapper objectMapper;
 
-	public LoanController(LoanService service, BookService bookService, ModelMapper modelMapper) {
+	public LoanController(LoanService service, BookService bookService, CustomerService customerService,
+			ObjectMapper objectMapper) {
 		this.service = service;
 		this.bookService = bookService;
-		this.modelMapper = modelMapper;
+		this.customerService = customerService;
+		this.objectMapper = objectMapper;
 	}
 
 	@PostMapping
@@ -51,7 +65,8 @@ public class LoanController {
 		Book book = bookService.getBookByIsbn(dto.getIsbn())
 				.orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST,
 						"livro nao encontrado para o isbn informado"));
-		Loan entity = Loan.builder().book(book).customer(dto.getCustomer()).loanDate(LocalDate.now()).build();
+		Customer customer = customerService.getOrCreate(dto.getCustomer(), dto.getCustomerEmail());
+		Loan entity = Loan.builder().book(book).customer(customer).loanDate(LocalDate.now()).build();
 
 		entity = service.save(entity);
 
@@ -60,25 +75,47 @@ public class LoanController {
 
 	@PatchMapping("{id}")
 	public void returnBook(@PathVariable("id") Long id, @RequestBody ReturnedLoanDto dto) {
-		Loan loan = service.getById(id).orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND));
-
-		loan.setReturned(dto.getReturned());
+		if (!service.markReturned(id, Boolean.TRUE.equals(dto.getReturned()))) {
+			throw new ResponseStatusException(HttpStatus.NOT_FOUND);
+		}
+	}
 
-		service.update(loan);
+	@PostMapping("returns")
+	@ApiOperation("RETURN LOANS IN BULK BY ID OR ISBN")
+	public List<LoanReturnResultDto> returnBooks(@RequestBody LoanReturnRequestDto dto) {
+		return service.returnAll(dto.getIds(), dto.getIsbns());
 	}
 
 	@GetMapping
 	public Page<LoanDto> filterLoan(LoanFilterDto dto, Pageable pageRequest) {
-		Page<Loan> result = service.find(dto, pageRequest);
+		return service.find(dto, pageRequest);
+	}
+
+	@GetMapping(produces = { MediaType.APPLICATION_STREAM_JSON_VALUE, MediaType.TEXT_EVENT_STREAM_VALUE })
+	public Flux<LoanDto> streamLoans(LoanFilterDto dto) {
+		return service.stream(dto);
+	}
 
-		List<LoanDto> loans = result.getContent().stream().map(entity -> {
-			Book book = entity.getBook();
-			BookDto bookDto = modelMapper.map(book, BookDto.class);
-			LoanDto loanDto = modelMapper.map(entity, LoanDto.class);
-			loanDto.setBook(bookDto);
-			return loanDto;
-		}).collect(Collectors.toList());
+	@GetMapping(params = "cursor")
+	public CursorPageDto<LoanDto> filterLoanByCursor(LoanFilterDto dto, @RequestParam("cursor") String cursor,
+			@RequestParam(value = "size", defaultValue = "20") int size) {
+		return service.findByCursor(dto, cursor, Math.min(size, MAX_CURSOR_PAGE_SIZE));
+	}
 
-		return new PageImpl<LoanDto>(loans, pageRequest, result.getTotalElements());
+	/**
+	 * Exporta os emprestimos em ordem de id por um cursor somente de avanco;
+	 * afterId retoma uma exportacao interrompida.
+	 */
+	@GetMapping("export")
+	@ApiOperation("EXPORTS ALL LOANS AS A NDJSON OR CSV STREAM")
+	public void export(@RequestParam(value = "format", defaultValue = ExportWriter.NDJSON) String format,
+			@RequestParam(value = "afterId", defaultValue = "0") Long afterId, HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		try (ExportWriter writer = ExportWriter.open(request, response, "loans", format, objectMapper, "id", "isbn",
+				"bookId", "title", "author", "customer", "customerEmail")) {
+			writer.run(() -> service.export(afterId, loan -> writer.write(loan, loan.getId(), loan.getIsbn(),
+					loan.getBook().getId(), loan.getBook().getTitle(), loan.getBook().getAuthor(), loan.getCustomer(),
+					loan.getCustomerEmail())));
+		}
 	}
 }
@@ -0,0 +1,37 @@
+package com.cursotdd.service;
+
+import java.util.Collection;
+
+public interface BookAvailabilityService {
+
+	/**
+	 * @return nulo enquanto o mapa ainda nao foi carregado
+	 */
+	Boolean isAvailable(Long bookId);
+
+	/**
+	 * Registra livros emprestados; dentro de uma transacao so vale depois do
+	 * commit.
+	 */
+	void loaned(Collection<Long> bookIds);
+
+	/**
+	 * Registra livros devolvidos; dentro de uma transacao so vale depois do
+	 * commit.
+	 */
+	void returned(Collection<Long> bookIds);
+
+	/**
+	 * Resumo do conjunto de livros emprestados, igual em instancias com o mesmo
+	 * estado; compoe o ETag das listagens de livros.
+	 */
+	long checksum();
+
+	/**
+	 * Recarrega o mapa a partir dos emprestimos em aberto no banco.
+	 *
+	 * @return quantidade de livros emprestados
+	 */
+	long reload();
+
+}
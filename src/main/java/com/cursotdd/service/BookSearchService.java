@@ -0,0 +1,18 @@
+package com.cursotdd.service;
+
+import java.util.Collection;
+import java.util.List;
+
+import com.cursotdd.dto.BookSearchResultDto;
+import com.cursotdd.model.entity.Book;
+
+public interface BookSearchService {
+
+	void index(Collection<Book> books);
+
+	void remove(Book book);
+
+	List<BookSearchResultDto> search(String text, int limit);
+
+	long rebuild();
+}
@@ -1,12 +1,18 @@
 package com.cursotdd.service;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
+import com.cursotdd.dto.BookImportResultDto;
+import com.cursotdd.dto.CursorPageDto;
 import com.cursotdd.model.entity.Book;
 
+import reactor.core.publisher.Flux;
+
 public interface BookService {
 
 	Book save(Book book);
@@ -20,4 +26,18 @@ public interface BookService {
 	Page<Book> find(Book filter, Pageable pageRequest);
 
 	Optional<Book> getBookByIsbn(String isbn);
+
+	List<BookImportResultDto> saveAll(List<Book> books);
+
+	CursorPageDto<Book> findByCursor(Book filter, String sort, String cursor, int size);
+
+	Flux<Book> stream(Book filter);
+
+	/**
+	 * Entrega ao consumer todos os livros com id maior que afterId, em ordem de
+	 * id, sem carregar o acervo em memoria.
+	 *
+	 * @return quantidade de livros exportados
+	 */
+	long export(Long afterId, Consumer<Book> consumer);
 }
@@ -0,0 +1,19 @@
+package com.cursotdd.service;
+
+import com.cursotdd.model.entity.Book;
+
+public interface CacheInvalidationService {
+
+	/**
+	 * Registra, na transacao corrente, que o livro mudou, para que as outras
+	 * instancias descartem a copia que tiverem em cache.
+	 */
+	void publish(Book book);
+
+	/**
+	 * Aplica aos caches locais as alteracoes registradas pelas outras
+	 * instancias desde a ultima leitura.
+	 */
+	void poll();
+
+}
@@ -0,0 +1,8 @@
+package com.cursotdd.service;
+
+public interface CatalogVersionService {
+
+	long current();
+
+	void increment();
+}
@@ -0,0 +1,24 @@
+package com.cursotdd.service;
+
+import java.util.Optional;
+
+import com.cursotdd.model.entity.Customer;
+
+public interface CustomerService {
+
+	Optional<Customer> getById(Long id);
+
+	/**
+	 * Busca o cliente pelo e-mail e o cria com os contadores zerados se ainda
+	 * nao existir.
+	 */
+	Customer getOrCreate(String name, String email);
+
+	/**
+	 * Altera o prazo de emprestimo proprio do cliente; nulo volta a usar o
+	 * prazo do livro. Vale para os proximos emprestimos. Retorna o cliente
+	 * relido do primario, ou vazio se ele nao existe.
+	 */
+	Optional<Customer> updateLoanDays(Long id, Integer loanDays);
+
+}
@@ -2,9 +2,16 @@ package com.cursotdd.service;
 
 import java.util.List;
 
-
+/**
+ * Envio assincrono de e-mails, uma mensagem por destinatario. Quando send()
+ * retorna as mensagens ja estao gravadas: serao entregues pelo menos uma vez
+ * ou, esgotadas as tentativas, gravadas em dead_letter_mail. Quem chama pode
+ * registrar o seu progresso logo depois.
+ */
 public interface EmailService {
 
 	void send(String message, List<String> mailsList);
 
+	void send(String subject, String message, List<String> mailsList);
+
 }
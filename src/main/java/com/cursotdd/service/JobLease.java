@@ -0,0 +1,19 @@
+package com.cursotdd.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Lease de um job obtido em {@link JobLockService}. O token e o fencing token
+ * da aquisicao: escritas do job feitas com um token antigo sao descartadas.
+ */
+@Data
+@AllArgsConstructor
+public class JobLease {
+
+	private String name;
+
+	private String owner;
+
+	private Long token;
+}
@@ -0,0 +1,23 @@
+package com.cursotdd.service;
+
+import java.util.Optional;
+
+public interface JobLockService {
+
+	/**
+	 * Obtem o lease do job se nenhum outro no o detem.
+	 *
+	 * @return vazio se outro no esta executando o job
+	 */
+	Optional<JobLease> tryAcquire(String name);
+
+	/**
+	 * Estende o lease por mais um ttl.
+	 *
+	 * @return falso se o lease expirou ou foi tomado por outro no
+	 */
+	boolean renew(JobLease lease);
+
+	void release(JobLease lease);
+
+}
@@ -0,0 +1,33 @@
+package com.cursotdd.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Gauge library.loans.late com o numero de emprestimos em atraso. O valor e
+ * recalculado em intervalos fixos, para que a leitura das metricas nao
+ * dispare uma consulta no banco.
+ */
+@Component
+public class LateLoanMetrics {
+
+	private final AtomicLong lateLoans = new AtomicLong();
+
+	private LoanService loanService;
+
+	public LateLoanMetrics(LoanService loanService, MeterRegistry registry) {
+		this.loanService = loanService;
+		Gauge.builder("library.loans.late", lateLoans, AtomicLong::get).description("emprestimos em atraso")
+				.register(registry);
+	}
+
+	@Scheduled(fixedDelayString = "${application.metrics.late-loans.refresh-ms:60000}")
+	public void refresh() {
+		lateLoans.set(loanService.countLateLoans());
+	}
+}
@@ -0,0 +1,23 @@
+package com.cursotdd.service;
+
+import com.cursotdd.model.entity.LoanEvent;
+
+/**
+ * Consumidor dos eventos da outbox de emprestimos, chamado pelo
+ * {@link LoanEventRelay}. A entrega e de pelo menos uma vez: um evento pode
+ * chegar de novo depois de uma falha deste ou de outro handler.
+ */
+public interface LoanEventHandler {
+
+	boolean supports(LoanEvent.Type type);
+
+	/**
+	 * Trata o evento; uma excecao faz o evento ser reentregue com backoff, sem
+	 * liberar os eventos seguintes do mesmo livro. O evento e marcado como
+	 * processado assim que o metodo retorna, entao o handler so deve retornar
+	 * depois que o efeito estiver concluido ou gravado de forma duravel; um
+	 * trabalho apenas enfileirado em memoria se perderia numa queda.
+	 */
+	void handle(LoanEvent event);
+
+}
@@ -0,0 +1,166 @@
+package com.cursotdd.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.cursotdd.model.entity.LoanEvent;
+import com.cursotdd.model.repository.LoanEventRepository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Entrega os eventos da outbox de emprestimos (loan_event) aos
+ * {@link LoanEventHandler}s. Le os pendentes em lotes, em ordem de id, e marca
+ * como processados os que todos os handlers aceitaram; um evento so e marcado
+ * depois que os handlers concluiram ou gravaram o seu efeito, entao uma queda
+ * no meio do lote repete a entrega (pelo menos uma vez). Uma falha adia o evento com backoff exponencial e segura os
+ * eventos seguintes do mesmo livro; esgotadas as tentativas o evento e
+ * descartado com o erro gravado.
+ *
+ * Todas as instancias agendam o relay, mas apenas a que obtiver o lease
+ * entrega os eventos.
+ */
+@Component
+@Slf4j
+public class LoanEventRelay {
+
+	static final String JOB = "loan-event-relay";
+
+	private static final long MAX_BACKOFF_MS = 600000;
+
+	private LoanEventRepository repository;
+	private List<LoanEventHandler> handlers;
+	private JobLockService jobLockService;
+	private MeterRegistry meterRegistry;
+
+	private final int batchSize;
+	private final int maxAttempts;
+	private final long initialBackoffMs;
+	private final long retentionMs;
+
+	private final Timer batchTimer;
+	private final Timer lagTimer;
+
+	public LoanEventRelay(LoanEventRepository repository, List<LoanEventHandler> handlers,
+			JobLockService jobLockService, MeterRegistry meterRegistry,
+			@Value("${application.outbox.relay.batch-size:100}") int batchSize,
+			@Value("${application.outbox.relay.max-attempts:10}") int maxAttempts,
+			@Value("${application.outbox.relay.initial-backoff-ms:1000}") long initialBackoffMs,
+			@Value("${application.outbox.retention-ms:86400000}") long retentionMs) {
+		this.repository = repository;
+		this.handlers = handlers;
+		this.jobLockService = jobLockService;
+		this.meterRegistry = meterRegistry;
+		this.batchSize = batchSize;
+		this.maxAttempts = maxAttempts;
+		this.initialBackoffMs = initialBackoffMs;
+		this.retentionMs = retentionMs;
+
+		this.batchTimer = Timer.builder("library.outbox.batch").description("entrega de um lote de eventos")
+				.register(meterRegistry);
+		this.lagTimer = Timer.builder("library.outbox.lag").description("tempo entre a gravacao e a entrega")
+				.publishPercentileHistogram().register(meterRegistry);
+	}
+
+	@Scheduled(fixedDelayString = "${application.outbox.relay.poll-ms:1000}")
+	public void relay() {
+		Optional<JobLease> lease = jobLockService.tryAcquire(JOB);
+		if (!lease.isPresent()) {
+			return;
+		}
+		try {
+			boolean full;
+			do {
+				full = drain() == batchSize;
+			} while (full && jobLockService.renew(lease.get()));
+		} finally {
+			jobLockService.release(lease.get());
+		}
+	}
+
+	/**
+	 * Entrega um lote de eventos prontos.
+	 *
+	 * @return quantidade de eventos lidos
+	 */
+	int drain() {
+		long start = System.nanoTime();
+		List<LoanEvent> events = repository.findReady(LocalDateTime.now(), PageRequest.of(0, batchSize));
+		if (events.isEmpty()) {
+			return 0;
+		}
+
+		Set<Long> blockedBooks = new HashSet<>();
+		List<Long> processed = new ArrayList<>(events.size());
+		for (LoanEvent event : events) {
+			if (event.getBookId() != null && blockedBooks.contains(event.getBookId())) {
+				continue;
+			}
+			try {
+				dispatch(event);
+				processed.add(event.getId());
+			} catch (RuntimeException e) {
+				if (event.getBookId() != null) {
+					blockedBooks.add(event.getBookId());
+				}
+				fail(event, e);
+			}
+		}
+
+		if (!processed.isEmpty()) {
+			repository.markProcessed(processed, LocalDateTime.now());
+		}
+		batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		return events.size();
+	}
+
+	@Scheduled(fixedDelayString = "${application.outbox.purge-ms:3600000}")
+	public void purge() {
+		int deleted = repository.deleteProcessedBefore(LocalDateTime.now().minus(retentionMs, ChronoUnit.MILLIS));
+		if (deleted > 0) {
+			log.info("purged {} loan events", deleted);
+		}
+	}
+
+	private void dispatch(LoanEvent event) {
+		for (LoanEventHandler handler : handlers) {
+			if (handler.supports(event.getType())) {
+				handler.handle(event);
+			}
+		}
+		meterRegistry.counter("library.outbox.dispatched", "type", event.getType().name()).increment();
+		lagTimer.record(Duration.between(event.getCreatedAt(), LocalDateTime.now()));
+	}
+
+	private void fail(LoanEvent event, RuntimeException e) {
+		meterRegistry.counter("library.outbox.failures", "type", event.getType().name()).increment();
+		int attempts = event.getAttempts() + 1;
+		String error = e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+		error = error.substring(0, Math.min(error.length(), 1000));
+
+		LocalDateTime now = LocalDateTime.now();
+		if (attempts >= maxAttempts) {
+			log.error("giving up loan event {} after {} attempts", event.getId(), attempts, e);
+			repository.markFailed(event.getId(), attempts, null, now, error);
+			return;
+		}
+		long backoff = Math.min(initialBackoffMs << Math.min(attempts - 1, 20), MAX_BACKOFF_MS);
+		log.warn("failed to dispatch loan event {} (attempt {}), retrying in {} ms", event.getId(), attempts, backoff,
+				e);
+		repository.markFailed(event.getId(), attempts, now.plus(backoff, ChronoUnit.MILLIS), null, error);
+	}
+}
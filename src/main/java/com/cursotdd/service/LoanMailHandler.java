@@ -0,0 +1,60 @@
+package com.cursotdd.service;
+
+import java.util.Collections;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.cursotdd.model.entity.Customer;
+import com.cursotdd.model.entity.LoanEvent;
+import com.cursotdd.model.entity.LoanEvent.Type;
+
+/**
+ * Avisa o cliente por e-mail quando um emprestimo e registrado ou devolvido.
+ * {@link EmailService#send} so retorna depois de gravar a mensagem em
+ * pending_mail, de onde ela e reenviada ate ser aceita pelo servidor SMTP;
+ * uma falha ao grava-la e propagada e o evento e reentregue.
+ */
+@Component
+public class LoanMailHandler implements LoanEventHandler {
+
+	private static final String CREATED_SUBJECT = "Emprestimo registrado";
+	private static final String RETURNED_SUBJECT = "Emprestimo devolvido";
+
+	@Value("${application.mail.loans.created.message}")
+	private String createdMessage;
+
+	@Value("${application.mail.loans.returned.message}")
+	private String returnedMessage;
+
+	private CustomerService customerService;
+	private EmailService emailService;
+
+	public LoanMailHandler(CustomerService customerService, EmailService emailService) {
+		this.customerService = customerService;
+		this.emailService = emailService;
+	}
+
+	@Override
+	public boolean supports(Type type) {
+		return type == Type.LOAN_CREATED || type == Type.LOAN_RETURNED;
+	}
+
+	@Override
+	public void handle(LoanEvent event) {
+		if (event.getCustomerId() == null) {
+			return;
+		}
+		Customer customer = customerService.getById(event.getCustomerId()).orElseThrow(
+				() -> new IllegalStateException("customer " + event.getCustomerId() + " not found"));
+		if (customer.getEmail() == null) {
+			return;
+		}
+
+		if (event.getType() == Type.LOAN_CREATED) {
+			emailService.send(CREATED_SUBJECT, createdMessage, Collections.singletonList(customer.getEmail()));
+		} else {
+			emailService.send(RETURNED_SUBJECT, returnedMessage, Collections.singletonList(customer.getEmail()));
+		}
+	}
+}
@@ -1,15 +1,25 @@
 package com.cursotdd.service;
 
+import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
+import com.cursotdd.dto.CursorPageDto;
+import com.cursotdd.dto.LateLoanDto;
+import com.cursotdd.dto.LoanDto;
 import com.cursotdd.dto.LoanFilterDto;
+import com.cursotdd.dto.LoanReturnResultDto;
 import com.cursotdd.model.entity.Book;
+import com.cursotdd.model.entity.Customer;
 import com.cursotdd.model.entity.Loan;
 
+import reactor.core.publisher.Flux;
+
 public interface LoanService {
 
 	Loan save(Loan loan);
@@ -18,10 +28,60 @@ public interface LoanService {
 
 	Loan update(Loan loan);
 
-	Page<Loan> find(LoanFilterDto filter, Pageable pageRequest);
+	/**
+	 * Marca o emprestimo como devolvido com um update direto, sem leitura
+	 * previa, ou o reabre com um novo prazo.
+	 *
+	 * @return falso se o emprestimo nao existe
+	 */
+	boolean markReturned(Long id, boolean returned);
+
+	/**
+	 * Devolve em lote os emprestimos informados por id e os emprestimos em
+	 * aberto dos isbns informados, com o resultado de cada item.
+	 */
+	List<LoanReturnResultDto> returnAll(Collection<Long> ids, Collection<String> isbns);
+
+	Page<LoanDto> find(LoanFilterDto filter, Pageable pageRequest);
+
+	CursorPageDto<LoanDto> findByCursor(LoanFilterDto filter, String cursor, int size);
+
+	Flux<LoanDto> stream(LoanFilterDto filter);
+
+	/**
+	 * Entrega ao consumer todos os emprestimos com id maior que afterId, em
+	 * ordem de id, sem carregar a tabela em memoria.
+	 *
+	 * @return quantidade de emprestimos exportados
+	 */
+	long export(Long afterId, Consumer<LoanDto> consumer);
+
+	Page<LoanDto> getLoansByBook(Book book, Pageable pageable);
+
+	Page<LoanDto> getLoansByCustomer(Customer customer, Pageable pageable);
+
+	/**
+	 * Emprestimos em aberto, ainda nao avisados, que venceram depois de after
+	 * e ate today, da fatia shard (de shards) dos clientes, em ordem de
+	 * vencimento e id. O proximo bloco comeca depois de last, o ultimo
+	 * emprestimo do bloco anterior (nulo no primeiro bloco).
+	 */
+	List<LateLoanDto> getNewlyLateLoans(LocalDate after, LateLoanDto last, LocalDate today, int shard, int shards,
+			int limit);
+
+	/**
+	 * Marca os emprestimos ainda nao avisados se o lease ainda for valido.
+	 *
+	 * @return quantidade de emprestimos marcados
+	 */
+	int markLateNotified(Collection<Long> ids, JobLease lease);
 
-	Page<Loan> getLoansByBook(Book book, Pageable pageable);
+	long countLateLoans();
 
-	List<Loan> getAllLateLoans();
+	/**
+	 * Recalcula os atrasos desnormalizados em customer, ja que um emprestimo
+	 * passa a estar atrasado apenas com a passagem do tempo.
+	 */
+	int refreshCustomerLateLoans();
 
 }
@@ -1,37 +1,176 @@
 package com.cursotdd.service;
 
+import java.time.LocalDate;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import com.cursotdd.model.entity.Loan;
+import com.cursotdd.dto.LateLoanDto;
+import com.cursotdd.model.entity.JobCheckpoint;
+import com.cursotdd.model.repository.JobCheckpointRepository;
+
+import lombok.extern.slf4j.Slf4j;
 
 @Service
+@Slf4j
 public class ScheduleService {
 
-	private static final String CRON_LATE_LOANS = "0 0 0 1/1 * ?";
+	private static final String CRON_LATE_LOANS = "0 0 * * * ?";
+	private static final String CRON_CUSTOMER_LATE_LOANS = "0 5 * * * ?";
+
+	static final String LATE_LOANS_JOB = "late-loans-mail";
+	static final String CUSTOMER_LATE_LOANS_JOB = "customer-late-loans";
 
 	@Value("${application.mail.late.loans.message}")
 	private String message;
 
+	@Value("${application.mail.late.loans.chunk-size:50}")
+	private int chunkSize;
+
+	@Value("${application.mail.late.loans.initial-lookback-days:30}")
+	private int initialLookbackDays;
+
+	@Value("${application.jobs.late-loans.shards:4}")
+	private int shards;
+
 	private LoanService loanService;
 	private EmailService emailService;
+	private JobCheckpointRepository checkpointRepository;
+	private JobLockService jobLockService;
+	private TransactionTemplate transactionTemplate;
 
-	public ScheduleService(LoanService loanService, EmailService emailService) {
+	public ScheduleService(LoanService loanService, EmailService emailService,
+			JobCheckpointRepository checkpointRepository, JobLockService jobLockService,
+			PlatformTransactionManager transactionManager) {
 		this.loanService = loanService;
 		this.emailService = emailService;
+		this.checkpointRepository = checkpointRepository;
+		this.jobLockService = jobLockService;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+	}
+
+	static String shardJob(int shard) {
+		return LATE_LOANS_JOB + "-" + shard;
 	}
 
+	/**
+	 * O job roda em todas as instancias, mas cada fatia dos clientes so e
+	 * processada por quem obtiver o seu lease. Cada no percorre as fatias a
+	 * partir de uma posicao aleatoria, entao as instancias dividem o trabalho
+	 * em vez de disputar a mesma fatia. O job roda de hora em hora: a primeira
+	 * execucao do dia faz o trabalho e as seguintes so retomam as fatias que
+	 * nao terminaram, como as de um no que caiu, cujo lease ja expirou; uma
+	 * fatia concluida no dia para logo no checkpoint.
+	 */
 	@Scheduled(cron = CRON_LATE_LOANS)
 	public void sendMailToLateLoans() {
-		List<Loan> allLateLoans = loanService.getAllLateLoans();
+		int first = ThreadLocalRandom.current().nextInt(shards);
+		for (int i = 0; i < shards; i++) {
+			int shard = (first + i) % shards;
+			Optional<JobLease> lease = jobLockService.tryAcquire(shardJob(shard));
+			if (!lease.isPresent()) {
+				log.info("late loans shard {} is running on another node", shard);
+				continue;
+			}
+			try {
+				sendMailToLateLoans(shard, lease.get());
+			} finally {
+				jobLockService.release(lease.get());
+			}
+		}
+	}
 
-		List<String> mailsList = allLateLoans.stream().map(loan -> loan.getCustomerEmail())
-				.collect(Collectors.toList());
+	/**
+	 * Avisa apenas os emprestimos da fatia que venceram desde a ultima
+	 * execucao: o checkpoint da fatia guarda em runDate a data ate a qual o job
+	 * ja passou (a marca d'agua), os blocos sao lidos em ordem de (due_date,
+	 * id) a partir do ultimo emprestimo do bloco anterior e cada bloco e
+	 * marcado em late_notified_at, com o fencing token do lease, na mesma
+	 * transacao que grava os e-mails em pending_mail, entao uma queda nunca
+	 * deixa um emprestimo marcado sem o e-mail.
+	 * O lease e renovado antes de cada bloco e a fatia para quando a renovacao
+	 * falha; como a marcacao tambem confere o token, um no que perdeu o lease
+	 * nao marca nada e nao envia, entao dois nos nunca avisam o mesmo
+	 * emprestimo. Um bloco sem nenhuma linha marcada ja tinha sido avisado e e
+	 * apenas pulado. Um cliente com varios atrasos na janela recebe um unico
+	 * e-mail.
+	 */
+	private void sendMailToLateLoans(int shard, JobLease lease) {
+		LocalDate today = LocalDate.now();
+		JobCheckpoint checkpoint = checkpointRepository.findById(lease.getName())
+				.orElseGet(() -> JobCheckpoint.builder().jobName(lease.getName())
+						.runDate(today.minusDays(initialLookbackDays)).position("").finished(true).build());
+
+		LocalDate watermark = checkpoint.getRunDate();
+		if (!today.isAfter(watermark)) {
+			log.info("late loans mail already sent for {} (shard {})", today, shard);
+			return;
+		}
+
+		Set<String> notified = new HashSet<>();
+		List<LateLoanDto> loans = loanService.getNewlyLateLoans(watermark, null, today, shard, shards, chunkSize);
+		while (!loans.isEmpty()) {
+			if (!jobLockService.renew(lease)) {
+				log.warn("late loans lease {} lost (token {}), stopping", lease.getName(), lease.getToken());
+				return;
+			}
+			List<LateLoanDto> chunk = loans;
+			boolean marked = transactionTemplate.execute(status -> notifyChunk(chunk, lease, notified));
+			if (!marked) {
+				log.info("late loans chunk already notified (shard {}), skipping", shard);
+			}
+
+			loans = loanService.getNewlyLateLoans(watermark, loans.get(loans.size() - 1), today, shard, shards,
+					chunkSize);
+		}
+
+		checkpoint.setRunDate(today);
+		checkpoint.setFinished(true);
+		checkpointRepository.save(checkpoint);
+		log.info("late loans mail sent to {} customers for loans due until {} (shard {})", notified.size(), today,
+				shard);
+	}
+
+	private boolean notifyChunk(List<LateLoanDto> loans, JobLease lease, Set<String> notified) {
+		if (loanService.markLateNotified(loans.stream().map(LateLoanDto::getId).collect(Collectors.toList()),
+				lease) == 0) {
+			return false;
+		}
+		List<String> mailsList = loans.stream().map(LateLoanDto::getCustomerEmail).filter(Objects::nonNull)
+				.filter(notified::add).collect(Collectors.toList());
+		if (!mailsList.isEmpty()) {
+			emailService.send(message, mailsList);
+		}
+		return true;
+	}
 
-		emailService.send(message, mailsList);
+	/**
+	 * A contagem de atrasos por cliente muda com a data, sem nenhuma escrita em
+	 * loan; o recalculo de hora em hora a mantem proxima do valor real. Com
+	 * varias instancias, apenas a que obtiver o lease recalcula.
+	 */
+	@Scheduled(cron = CRON_CUSTOMER_LATE_LOANS)
+	public void refreshCustomerLateLoans() {
+		Optional<JobLease> lease = jobLockService.tryAcquire(CUSTOMER_LATE_LOANS_JOB);
+		if (!lease.isPresent()) {
+			log.info("customer late loans refresh is running on another node");
+			return;
+		}
+		try {
+			int updated = loanService.refreshCustomerLateLoans();
+			log.info("late loans refreshed for {} customers", updated);
+		} finally {
+			jobLockService.release(lease.get());
+		}
 	}
 }
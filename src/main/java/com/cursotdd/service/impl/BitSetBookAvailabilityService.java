@@ -0,0 +1,224 @@
+package com.cursotdd.service.impl;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.cursotdd.model.repository.LoanRepository;
+import com.cursotdd.service.BookAvailabilityService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Mapa em memoria dos livros emprestados: um bit por id de livro, ligado
+ * enquanto existe emprestimo em aberto. Os ids vem de uma sequence, entao o
+ * BitSet fica denso e ocupa cerca de 1 MB a cada 8 milhoes de livros.
+ *
+ * O mapa e carregado na inicializacao, atualizado pelos emprestimos e
+ * devolucoes feitos nesta instancia e recarregado periodicamente do banco, o
+ * que traz as alteracoes feitas pelas outras instancias. E uma informacao de
+ * exibicao: a garantia de um emprestimo em aberto por livro continua sendo o
+ * indice unico uk_loan_active_book.
+ */
+@Service
+@Slf4j
+public class BitSetBookAvailabilityService implements BookAvailabilityService {
+
+	private static final int RELOAD_PAGE_SIZE = 10000;
+
+	private LoanRepository repository;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private BitSet onLoan = new BitSet();
+	private long checksum;
+	private boolean loaded;
+	private List<Long> pendingLoaned;
+	private List<Long> pendingReturned;
+
+	public BitSetBookAvailabilityService(LoanRepository repository) {
+		this.repository = repository;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void load() {
+		reload();
+	}
+
+	@Scheduled(fixedDelayString = "${application.books.availability.reconcile-ms:60000}",
+			initialDelayString = "${application.books.availability.reconcile-ms:60000}")
+	public void reconcile() {
+		reload();
+	}
+
+	@Override
+	public Boolean isAvailable(Long bookId) {
+		if (bookId == null || !fits(bookId)) {
+			return null;
+		}
+		lock.readLock().lock();
+		try {
+			return loaded ? !onLoan.get(bookId.intValue()) : null;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void loaned(Collection<Long> bookIds) {
+		afterCommit(() -> update(bookIds, true));
+	}
+
+	@Override
+	public void returned(Collection<Long> bookIds) {
+		afterCommit(() -> update(bookIds, false));
+	}
+
+	@Override
+	public long checksum() {
+		lock.readLock().lock();
+		try {
+			return checksum;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Le os livros emprestados fora do lock, em blocos ordenados pelo indice
+	 * de active_book_id, e troca o mapa no fim. As alteracoes locais feitas
+	 * durante a leitura sao reaplicadas sobre o mapa novo.
+	 */
+	@Override
+	public synchronized long reload() {
+		lock.writeLock().lock();
+		try {
+			pendingLoaned = new ArrayList<>();
+			pendingReturned = new ArrayList<>();
+		} finally {
+			lock.writeLock().unlock();
+		}
+
+		BitSet reloaded = new BitSet();
+		long count = 0;
+		try {
+			Long after = 0L;
+			List<Long> bookIds;
+			do {
+				bookIds = repository.findActiveBookIds(after, PageRequest.of(0, RELOAD_PAGE_SIZE));
+				for (Long bookId : bookIds) {
+					if (fits(bookId)) {
+						reloaded.set(bookId.intValue());
+					}
+				}
+				count += bookIds.size();
+				if (!bookIds.isEmpty()) {
+					after = bookIds.get(bookIds.size() - 1);
+				}
+			} while (bookIds.size() == RELOAD_PAGE_SIZE);
+		} catch (RuntimeException e) {
+			lock.writeLock().lock();
+			try {
+				pendingLoaned = null;
+				pendingReturned = null;
+			} finally {
+				lock.writeLock().unlock();
+			}
+			throw e;
+		}
+
+		lock.writeLock().lock();
+		try {
+			for (Long bookId : pendingReturned) {
+				reloaded.clear(bookId.intValue());
+			}
+			for (Long bookId : pendingLoaned) {
+				reloaded.set(bookId.intValue());
+			}
+			if (loaded) {
+				BitSet drift = (BitSet) onLoan.clone();
+				drift.xor(reloaded);
+				if (!drift.isEmpty()) {
+					log.info("book availability reconciled, {} books changed on other nodes", drift.cardinality());
+				}
+			}
+			onLoan = reloaded;
+			checksum = checksum(reloaded);
+			loaded = true;
+			pendingLoaned = null;
+			pendingReturned = null;
+		} finally {
+			lock.writeLock().unlock();
+		}
+		log.debug("book availability reloaded with {} books on loan", count);
+		return count;
+	}
+
+	private void update(Collection<Long> bookIds, boolean loan) {
+		lock.writeLock().lock();
+		try {
+			for (Long bookId : bookIds) {
+				if (bookId == null || !fits(bookId)) {
+					continue;
+				}
+				int index = bookId.intValue();
+				if (onLoan.get(index) != loan) {
+					onLoan.set(index, loan);
+					checksum ^= mix(index);
+				}
+				if (pendingLoaned != null) {
+					(loan ? pendingLoaned : pendingReturned).add(bookId);
+					(loan ? pendingReturned : pendingLoaned).remove(bookId);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void afterCommit(Runnable task) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					task.run();
+				}
+			});
+		} else {
+			task.run();
+		}
+	}
+
+	private static boolean fits(Long bookId) {
+		return bookId >= 0 && bookId <= Integer.MAX_VALUE;
+	}
+
+	private static long checksum(BitSet set) {
+		long sum = 0;
+		for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+			sum ^= mix(i);
+		}
+		return sum;
+	}
+
+	/**
+	 * Espalha os bits do id (finalizador do SplitMix64), para que o XOR dos
+	 * ids emprestados mude com qualquer emprestimo ou devolucao.
+	 */
+	private static long mix(long value) {
+		long z = value + 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
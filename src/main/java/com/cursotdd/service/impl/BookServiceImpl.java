@@ -1,60 +1,137 @@
 package com.cursotdd.service.impl;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
 
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Example;
 import org.springframework.data.domain.ExampleMatcher;
 import org.springframework.data.domain.ExampleMatcher.StringMatcher;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StringUtils;
 
+import com.cursotdd.config.CacheConfig;
+import com.cursotdd.dto.BookImportResultDto;
+import com.cursotdd.dto.BookImportResultDto.Status;
+import com.cursotdd.dto.CursorPageDto;
+import com.cursotdd.dto.KeysetCursor;
 import com.cursotdd.exception.BusinessException;
+import com.cursotdd.exception.ConstraintViolations;
 import com.cursotdd.model.entity.Book;
 import com.cursotdd.model.repository.BookRepository;
+import com.cursotdd.model.repository.BookRepositoryCustomImpl;
+import com.cursotdd.service.BookSearchService;
 import com.cursotdd.service.BookService;
+import com.cursotdd.service.CacheInvalidationService;
+import com.cursotdd.service.CatalogVersionService;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 @Service
 public class BookServiceImpl implements BookService {
 
+	private static final String ISBN_CONSTRAINT = "uk_book_isbn";
+
+	private static final int ISBN_LOOKUP_SIZE = 500;
+	private static final int STREAM_CHUNK_SIZE = 500;
+	private static final int EXPORT_FETCH_SIZE = 500;
+
 	private BookRepository repository;
+	private BookSearchService searchService;
+	private CatalogVersionService catalogVersionService;
+	private CacheInvalidationService cacheInvalidationService;
 
-	public BookServiceImpl(BookRepository repository) {
+	public BookServiceImpl(BookRepository repository, BookSearchService searchService,
+			CatalogVersionService catalogVersionService, CacheInvalidationService cacheInvalidationService) {
 		super();
 		this.repository = repository;
+		this.searchService = searchService;
+		this.catalogVersionService = catalogVersionService;
+		this.cacheInvalidationService = cacheInvalidationService;
 	}
 
 	@Override
+	@Transactional
+	@CacheEvict(cacheNames = CacheConfig.BOOKS_BY_ISBN, key = "#book.isbn", condition = "#book.isbn != null")
 	public Book save(Book book) {
-		if (repository.existsByIsbn(book.getIsbn())) {
-			throw new BusinessException("isbn ja cadastrado");
+		Book savedBook;
+		try {
+			savedBook = repository.saveAndFlush(book);
+		} catch (DataIntegrityViolationException e) {
+			if (ConstraintViolations.isViolationOf(e, ISBN_CONSTRAINT)) {
+				throw new BusinessException("isbn ja cadastrado");
+			}
+			throw e;
 		}
-
-		return repository.save(book);
+		catalogVersionService.increment();
+		searchService.index(Collections.singletonList(savedBook));
+		return savedBook;
 	}
 
+	/**
+	 * O resultado fica no cache por ate 10 minutos, entao a leitura nao pode
+	 * vir de uma replica atrasada, que devolveria a versao anterior a uma
+	 * alteracao recem invalidada. A transacao de escrita manda a consulta para
+	 * o primario (e prende nele o resto da requisicao); um acerto no cache nem
+	 * chega a abrir transacao.
+	 */
 	@Override
+	@Transactional
+	@Cacheable(cacheNames = CacheConfig.BOOKS_BY_ID, key = "#id", unless = "#result == null")
 	public Optional<Book> getById(Long id) {
 		return repository.findById(id);
 	}
 
 	@Override
+	@Transactional
+	@Caching(evict = { @CacheEvict(cacheNames = CacheConfig.BOOKS_BY_ID, key = "#book.id"),
+			@CacheEvict(cacheNames = CacheConfig.BOOKS_BY_ISBN, key = "#book.isbn",
+					condition = "#book.isbn != null") })
 	public void delete(Book book) {
 		if (book == null || book.getId() == null)
 			throw new IllegalArgumentException("Book id cant be null");
 
 		this.repository.delete(book);
+		catalogVersionService.increment();
+		cacheInvalidationService.publish(book);
+		searchService.remove(book);
 	}
 
+	/**
+	 * O isbn pode mudar e o anterior nao e conhecido aqui, entao o cache por
+	 * isbn e descartado inteiro, como na invalidacao vinda de outra instancia.
+	 */
 	@Override
+	@Transactional
+	@Caching(evict = { @CacheEvict(cacheNames = CacheConfig.BOOKS_BY_ID, key = "#book.id"),
+			@CacheEvict(cacheNames = CacheConfig.BOOKS_BY_ISBN, allEntries = true) })
 	public Book update(Book book) {
 		if (book == null || book.getId() == null)
 			throw new IllegalArgumentException("Book id cant be null");
 
-		return this.repository.save(book);
+		Book updatedBook = this.repository.save(book);
+		catalogVersionService.increment();
+		cacheInvalidationService.publish(updatedBook);
+		searchService.index(Collections.singletonList(updatedBook));
+		return updatedBook;
 	}
 
 	@Override
+	@Transactional(readOnly = true)
 	public Page<Book> find(Book filter, Pageable pageRequest) {
 		Example<Book> example = Example.of(filter, ExampleMatcher.matching().withIgnoreCase().withIgnoreNullValues()
 				.withStringMatcher(StringMatcher.CONTAINING));
@@ -62,9 +139,126 @@ public class BookServiceImpl implements BookService {
 		return repository.findAll(example, pageRequest);
 	}
 
+	/**
+	 * Le do primario pelo mesmo motivo de {@link #getById(Long)}.
+	 */
 	@Override
+	@Transactional
+	@Cacheable(cacheNames = CacheConfig.BOOKS_BY_ISBN, key = "#isbn", unless = "#result == null")
 	public Optional<Book> getBookByIsbn(String isbn) {
 		return repository.findByIsbn(isbn);
 	}
 
+	@Override
+	@Transactional
+	public List<BookImportResultDto> saveAll(List<Book> books) {
+		Set<String> existingIsbns = findExistingIsbns(books);
+		Set<String> batchIsbns = new HashSet<>();
+
+		List<BookImportResultDto> results = new ArrayList<>(books.size());
+		List<BookImportResultDto> created = new ArrayList<>();
+		List<Book> booksToSave = new ArrayList<>();
+
+		for (Book book : books) {
+			if (!isValid(book)) {
+				results.add(result(book, Status.INVALID, "titulo, autor e isbn sao obrigatorios"));
+			} else if (existingIsbns.contains(book.getIsbn()) || !batchIsbns.add(book.getIsbn())) {
+				results.add(result(book, Status.DUPLICATED, "isbn ja cadastrado"));
+			} else {
+				BookImportResultDto result = result(book, Status.CREATED, null);
+				results.add(result);
+				created.add(result);
+				book.setId(null);
+				booksToSave.add(book);
+			}
+		}
+
+		List<Book> savedBooks;
+		try {
+			savedBooks = repository.saveAll(booksToSave);
+			repository.flush();
+		} catch (DataIntegrityViolationException e) {
+			if (ConstraintViolations.isViolationOf(e, ISBN_CONSTRAINT)) {
+				throw new BusinessException("isbn ja cadastrado");
+			}
+			throw e;
+		}
+
+		for (int i = 0; i < savedBooks.size(); i++) {
+			created.get(i).setId(savedBooks.get(i).getId());
+		}
+		if (!savedBooks.isEmpty()) {
+			catalogVersionService.increment();
+		}
+		searchService.index(savedBooks);
+
+		return results;
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public CursorPageDto<Book> findByCursor(Book filter, String sort, String cursor, int size) {
+		if (!"id".equals(sort) && !BookRepositoryCustomImpl.SORT_BY_TITLE.equals(sort)) {
+			throw new BusinessException("ordenacao nao suportada no modo cursor: " + sort);
+		}
+
+		Slice<Book> slice = repository.findSlice(filter, sort, KeysetCursor.decode(cursor), size);
+		List<Book> content = slice.getContent();
+
+		String nextCursor = null;
+		if (slice.hasNext()) {
+			Book last = content.get(content.size() - 1);
+			String sortValue = BookRepositoryCustomImpl.SORT_BY_TITLE.equals(sort) ? last.getTitle() : null;
+			nextCursor = new KeysetCursor(last.getId(), sortValue).encode();
+		}
+		return new CursorPageDto<Book>(content, nextCursor, slice.hasNext());
+	}
+
+	/**
+	 * Le o resultado em blocos por keyset conforme o cliente consome, sem
+	 * manter conexao ou transacao aberta entre um bloco e outro.
+	 */
+	@Override
+	public Flux<Book> stream(Book filter) {
+		return fetchSlice(filter, null).expand(slice -> {
+			if (!slice.hasNext()) {
+				return Mono.empty();
+			}
+			Book last = slice.getContent().get(slice.getNumberOfElements() - 1);
+			return fetchSlice(filter, new KeysetCursor(last.getId(), null));
+		}).concatMapIterable(Slice::getContent, 1);
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public long export(Long afterId, Consumer<Book> consumer) {
+		return repository.forEachAfter(afterId == null ? 0L : afterId, EXPORT_FETCH_SIZE, consumer);
+	}
+
+	private Mono<Slice<Book>> fetchSlice(Book filter, KeysetCursor after) {
+		return Mono.fromCallable(() -> repository.findSlice(filter, "id", after, STREAM_CHUNK_SIZE))
+				.subscribeOn(Schedulers.boundedElastic());
+	}
+
+	private Set<String> findExistingIsbns(List<Book> books) {
+		List<String> isbns = new ArrayList<>();
+		books.stream().map(Book::getIsbn).filter(StringUtils::hasText).distinct().forEach(isbns::add);
+
+		Set<String> existing = new HashSet<>();
+		for (int i = 0; i < isbns.size(); i += ISBN_LOOKUP_SIZE) {
+			List<String> chunk = isbns.subList(i, Math.min(i + ISBN_LOOKUP_SIZE, isbns.size()));
+			existing.addAll(repository.findExistingIsbns(chunk));
+		}
+		return existing;
+	}
+
+	private boolean isValid(Book book) {
+		return StringUtils.hasText(book.getIsbn()) && StringUtils.hasText(book.getTitle())
+				&& StringUtils.hasText(book.getAuthor());
+	}
+
+	private BookImportResultDto result(Book book, Status status, String message) {
+		return BookImportResultDto.builder().isbn(book.getIsbn()).status(status).message(message).build();
+	}
+
 }
@@ -0,0 +1,125 @@
+package com.cursotdd.service.impl;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.cursotdd.config.CacheConfig;
+import com.cursotdd.model.entity.Book;
+import com.cursotdd.model.entity.CacheInvalidation;
+import com.cursotdd.model.repository.CacheInvalidationRepository;
+import com.cursotdd.service.CacheInvalidationService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Invalidacao dos caches locais (segundo nivel do Hibernate e caches do
+ * Spring) entre instancias. Cada alteracao de livro grava uma linha em
+ * cache_invalidation na mesma transacao da alteracao; cada instancia le
+ * periodicamente as linhas das outras e descarta as entradas afetadas.
+ *
+ * Os ids vem de uma sequence com pool, entao nao seguem a ordem de commit: a
+ * leitura e por created_at, voltando application.cache.invalidation.lookback-ms
+ * para cobrir transacoes curtas e diferenca de relogio entre as maquinas. Uma
+ * transacao que demora mais que isso para fazer commit grava uma linha que a
+ * leitura seguinte ja nao alcanca; por isso, a cada
+ * application.cache.invalidation.sweep-ms, a leitura cobre toda a retencao da
+ * tabela, ignorando as linhas ja aplicadas.
+ */
+@Service
+@Slf4j
+public class CacheInvalidationServiceImpl implements CacheInvalidationService {
+
+	static final String BOOK = "Book";
+
+	private final String origin = UUID.randomUUID().toString();
+
+	private CacheInvalidationRepository repository;
+	private EntityManagerFactory entityManagerFactory;
+	private CacheManager cacheManager;
+
+	private final long lookbackMs;
+	private final long retentionMs;
+	private final long sweepMs;
+
+	private final Map<Long, LocalDateTime> applied = new ConcurrentHashMap<>();
+	private volatile LocalDateTime lastPoll = LocalDateTime.now();
+	private volatile LocalDateTime lastSweep = LocalDateTime.now();
+
+	public CacheInvalidationServiceImpl(CacheInvalidationRepository repository,
+			EntityManagerFactory entityManagerFactory, CacheManager cacheManager,
+			@Value("${application.cache.invalidation.lookback-ms:10000}") long lookbackMs,
+			@Value("${application.cache.invalidation.retention-ms:3600000}") long retentionMs,
+			@Value("${application.cache.invalidation.sweep-ms:60000}") long sweepMs) {
+		this.repository = repository;
+		this.entityManagerFactory = entityManagerFactory;
+		this.cacheManager = cacheManager;
+		this.lookbackMs = lookbackMs;
+		this.retentionMs = retentionMs;
+		this.sweepMs = sweepMs;
+	}
+
+	@Override
+	public void publish(Book book) {
+		repository.save(CacheInvalidation.builder().entityName(BOOK).entityId(book.getId()).origin(origin)
+				.createdAt(LocalDateTime.now()).build());
+	}
+
+	@Override
+	@Scheduled(fixedDelayString = "${application.cache.invalidation.poll-ms:1000}")
+	public synchronized void poll() {
+		LocalDateTime now = LocalDateTime.now();
+		LocalDateTime retained = now.minus(retentionMs, ChronoUnit.MILLIS);
+		boolean sweep = !now.isBefore(lastSweep.plus(sweepMs, ChronoUnit.MILLIS));
+		LocalDateTime since = sweep ? retained : lastPoll.minus(lookbackMs, ChronoUnit.MILLIS);
+
+		List<CacheInvalidation> invalidations = repository.findByEntityNameAndCreatedAtAfterAndOriginNot(BOOK, since,
+				origin);
+		for (CacheInvalidation invalidation : invalidations) {
+			if (applied.putIfAbsent(invalidation.getId(), invalidation.getCreatedAt()) == null) {
+				evictBook(invalidation.getEntityId());
+			}
+		}
+		applied.values().removeIf(createdAt -> createdAt.isBefore(retained));
+		lastPoll = now;
+		if (sweep) {
+			lastSweep = now;
+		}
+	}
+
+	@Scheduled(fixedDelayString = "${application.cache.invalidation.purge-ms:600000}")
+	public void purge() {
+		int deleted = repository.deleteCreatedBefore(LocalDateTime.now().minus(retentionMs, ChronoUnit.MILLIS));
+		if (deleted > 0) {
+			log.info("purged {} cache invalidations", deleted);
+		}
+	}
+
+	private void evictBook(Long id) {
+		entityManagerFactory.getCache().evict(Book.class, id);
+		// o isbn antigo nao e conhecido aqui, entao a regiao de natural id inteira e descartada
+		entityManagerFactory.unwrap(SessionFactory.class).getCache().evictNaturalIdData(Book.class);
+
+		Cache byId = cacheManager.getCache(CacheConfig.BOOKS_BY_ID);
+		if (byId != null) {
+			byId.evict(id);
+		}
+		Cache byIsbn = cacheManager.getCache(CacheConfig.BOOKS_BY_ISBN);
+		if (byIsbn != null) {
+			byIsbn.clear();
+		}
+		log.debug("evicted book {} changed by another instance", id);
+	}
+}
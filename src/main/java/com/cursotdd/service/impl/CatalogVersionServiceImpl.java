@@ -0,0 +1,72 @@
+package com.cursotdd.service.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.cursotdd.model.repository.CatalogVersionRepository;
+import com.cursotdd.service.CatalogVersionService;
+
+/**
+ * Versao do acervo lida do banco e mantida em memoria por
+ * application.catalog.version-ttl-ms, para que um 304 nas listagens nao
+ * precise de consulta. Alteracoes feitas por esta instancia descartam o valor
+ * em memoria na hora; as de outras instancias aparecem depois do ttl.
+ */
+@Service
+public class CatalogVersionServiceImpl implements CatalogVersionService {
+
+	static final Integer CATALOG = 1;
+
+	private CatalogVersionRepository repository;
+
+	private final long ttlNanos;
+
+	private volatile Snapshot snapshot;
+
+	public CatalogVersionServiceImpl(CatalogVersionRepository repository,
+			@Value("${application.catalog.version-ttl-ms:1000}") long ttlMs) {
+		this.repository = repository;
+		this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+	}
+
+	@Override
+	public long current() {
+		Snapshot current = snapshot;
+		long now = System.nanoTime();
+		if (current == null || now - current.readAt > ttlNanos) {
+			Long version = repository.findVersion(CATALOG);
+			current = new Snapshot(version == null ? 0 : version, now);
+			snapshot = current;
+		}
+		return current.version;
+	}
+
+	@Override
+	public void increment() {
+		repository.increment(CATALOG);
+		snapshot = null;
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					snapshot = null;
+				}
+			});
+		}
+	}
+
+	private static class Snapshot {
+
+		private final long version;
+		private final long readAt;
+
+		Snapshot(long version, long readAt) {
+			this.version = version;
+			this.readAt = readAt;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.cursotdd.service.impl;
+
+import java.util.Locale;
+import java.util.Optional;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StringUtils;
+
+import com.cursotdd.exception.BusinessException;
+import com.cursotdd.model.entity.Customer;
+import com.cursotdd.model.repository.CustomerRepository;
+import com.cursotdd.service.CustomerService;
+
+@Service
+public class CustomerServiceImpl implements CustomerService {
+
+	private CustomerRepository repository;
+
+	public CustomerServiceImpl(CustomerRepository repository) {
+		this.repository = repository;
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public Optional<Customer> getById(Long id) {
+		return repository.findById(id);
+	}
+
+	/**
+	 * Sem transacao propria: se outra requisicao criar o mesmo cliente entre a
+	 * busca e o insert, o indice unico de e-mail recusa o segundo insert e o
+	 * cliente ja gravado e relido.
+	 */
+	@Override
+	public Customer getOrCreate(String name, String email) {
+		if (!StringUtils.hasText(email)) {
+			throw new BusinessException("e-mail do cliente nao informado");
+		}
+		String normalizedEmail = email.trim().toLowerCase(Locale.ROOT);
+
+		Optional<Customer> customer = repository.findByEmail(normalizedEmail);
+		if (customer.isPresent()) {
+			return customer.get();
+		}
+
+		try {
+			return repository.saveAndFlush(Customer.builder().name(name).email(normalizedEmail).activeLoans(0)
+					.lateLoans(0).build());
+		} catch (DataIntegrityViolationException e) {
+			return repository.findByEmail(normalizedEmail).orElseThrow(() -> e);
+		}
+	}
+
+	/**
+	 * Update pontual em vez de save: o cliente nao tem versao, e regravar a
+	 * linha inteira sobrescreveria active_loans e late_loans alterados por
+	 * emprestimos concorrentes.
+	 */
+	@Override
+	@Transactional
+	public Optional<Customer> updateLoanDays(Long id, Integer loanDays) {
+		if (id == null) {
+			throw new IllegalArgumentException("Customer id cant be null");
+		}
+		if (loanDays != null && loanDays <= 0) {
+			throw new BusinessException("prazo de emprestimo deve ser positivo");
+		}
+		if (repository.updateLoanDays(id, loanDays) == 0) {
+			return Optional.empty();
+		}
+		return repository.findById(id);
+	}
+
+}
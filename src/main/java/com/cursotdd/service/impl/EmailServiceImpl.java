@@ -1,39 +1,346 @@
 package com.cursotdd.service.impl;
 
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import com.cursotdd.model.entity.DeadLetterMail;
+import com.cursotdd.model.entity.PendingMail;
+import com.cursotdd.model.repository.DeadLetterMailRepository;
+import com.cursotdd.model.repository.PendingMailRepository;
 import com.cursotdd.service.EmailService;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Envio assincrono de e-mails. Cada mensagem e gravada em pending_mail antes
+ * de send() retornar e so e apagada depois de aceita pelo servidor SMTP, entao
+ * quem registra progresso depois de send() nao perde e-mails se a instancia
+ * cair. As mensagens gravadas entram em uma fila limitada e sao consumidas por
+ * um pool de workers, que enviam varias mensagens por conexao SMTP. Falhas sao
+ * reenviadas com backoff exponencial e, esgotadas as tentativas, gravadas em
+ * dead_letter_mail. Mensagens que ficaram na tabela (queda, parada ou fila
+ * cheia) sao reenfileiradas por qualquer instancia quando o prazo
+ * claimed_until vence; a entrega e de pelo menos uma vez.
+ */
 @Service
+@Slf4j
 public class EmailServiceImpl implements EmailService {
 
+	private static final String SUBJECT = "Livro com empréstimo atrasado";
+	private static final long MAX_BACKOFF_MS = 60000;
+
 	@Value("${application.mail.default-remetent}")
 	private String remetent;
 
 	private JavaMailSender javaMailSender;
+	private DeadLetterMailRepository deadLetterRepository;
+	private PendingMailRepository pendingRepository;
+
+	private final BlockingQueue<PendingMail> queue;
+	private final int workers;
+	private final int batchSize;
+	private final int maxAttempts;
+	private final long initialBackoffMs;
+	private final long offerTimeoutMs;
+	private final long claimTimeoutMs;
 
-	public EmailServiceImpl(JavaMailSender javaMailSender) {
-		super();
+	private final Timer sendTimer;
+	private final Counter failureCounter;
+	private final Counter deadLetterCounter;
+
+	private ExecutorService executor;
+	private volatile boolean running;
+
+	/**
+	 * @param workers        threads de envio; zero desliga o envio e as
+	 *                       mensagens ficam em pending_mail
+	 * @param claimTimeoutMs prazo de uma instancia para enviar as mensagens que
+	 *                       enfileirou; deve cobrir todas as tentativas de um
+	 *                       lote, ou outra instancia reenvia a mensagem
+	 */
+	public EmailServiceImpl(JavaMailSender javaMailSender, DeadLetterMailRepository deadLetterRepository,
+			PendingMailRepository pendingRepository, MeterRegistry meterRegistry,
+			@Value("${application.mail.dispatcher.queue-capacity:10000}") int queueCapacity,
+			@Value("${application.mail.dispatcher.workers:2}") int workers,
+			@Value("${application.mail.dispatcher.batch-size:50}") int batchSize,
+			@Value("${application.mail.dispatcher.max-attempts:5}") int maxAttempts,
+			@Value("${application.mail.dispatcher.initial-backoff-ms:1000}") long initialBackoffMs,
+			@Value("${application.mail.dispatcher.offer-timeout-ms:5000}") long offerTimeoutMs,
+			@Value("${application.mail.dispatcher.claim-timeout-ms:600000}") long claimTimeoutMs) {
 		this.javaMailSender = javaMailSender;
+		this.deadLetterRepository = deadLetterRepository;
+		this.pendingRepository = pendingRepository;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.workers = workers;
+		this.batchSize = batchSize;
+		this.maxAttempts = maxAttempts;
+		this.initialBackoffMs = initialBackoffMs;
+		this.offerTimeoutMs = offerTimeoutMs;
+		this.claimTimeoutMs = claimTimeoutMs;
+
+		Gauge.builder("library.mail.queue.size", queue, BlockingQueue::size).register(meterRegistry);
+		this.sendTimer = Timer.builder("library.mail.send").description("envio de um lote de e-mails por conexao")
+				.publishPercentileHistogram().register(meterRegistry);
+		this.failureCounter = Counter.builder("library.mail.failures").register(meterRegistry);
+		this.deadLetterCounter = Counter.builder("library.mail.dead.letters").register(meterRegistry);
+	}
+
+	@PostConstruct
+	public void start() {
+		if (workers == 0) {
+			log.info("mail dispatcher disabled, messages stay in pending_mail");
+			return;
+		}
+		running = true;
+		executor = Executors.newFixedThreadPool(workers, new CustomizableThreadFactory("mail-dispatcher-"));
+		for (int i = 0; i < workers; i++) {
+			executor.execute(this::work);
+		}
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		if (executor == null) {
+			return;
+		}
+		running = false;
+		executor.shutdown();
+		if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+			log.warn("mail dispatcher stopped with {} messages in queue, they stay in pending_mail", queue.size());
+			executor.shutdownNow();
+		}
 	}
 
 	@Override
 	public void send(String message, List<String> mailsList) {
+		send(SUBJECT, message, mailsList);
+	}
 
-		String[] mails = mailsList.toArray(new String[mailsList.size()]);
+	/**
+	 * Grava as mensagens em pending_mail e as enfileira depois do commit. Uma
+	 * falha ao gravar e lancada para quem chamou; depois do retorno a
+	 * mensagem ja nao se perde.
+	 */
+	@Override
+	public void send(String subject, String message, List<String> mailsList) {
+		LocalDateTime now = LocalDateTime.now();
+		List<PendingMail> mails = new ArrayList<>(mailsList.size());
+		for (String mail : mailsList) {
+			mails.add(PendingMail.builder().recipient(mail).subject(subject).body(message).createdAt(now)
+					.claimedUntil(now.plus(claimTimeoutMs, ChronoUnit.MILLIS)).build());
+		}
+		List<PendingMail> saved = pendingRepository.saveAll(mails);
+		if (workers > 0) {
+			afterCommit(() -> enqueue(saved));
+		}
+	}
+
+	/**
+	 * Reenfileira as mensagens cujo prazo venceu, deixadas em pending_mail por
+	 * uma instancia que caiu ou parou, ou que nao couberam na fila.
+	 */
+	@Scheduled(fixedDelayString = "${application.mail.dispatcher.recover-ms:60000}")
+	public void recover() {
+		int capacity = queue.remainingCapacity();
+		if (workers == 0 || capacity == 0) {
+			return;
+		}
+		LocalDateTime now = LocalDateTime.now();
+		List<PendingMail> claimed = new ArrayList<>();
+		for (PendingMail mail : pendingRepository.findExpired(now, PageRequest.of(0, capacity))) {
+			if (pendingRepository.claim(mail.getId(), now, now.plus(claimTimeoutMs, ChronoUnit.MILLIS)) == 1) {
+				claimed.add(mail);
+			}
+		}
+		int recovered = enqueue(claimed);
+		if (recovered > 0) {
+			log.info("recovered {} pending mails", recovered);
+		}
+	}
 
+	/**
+	 * Espera no maximo offerTimeoutMs uma vez por lote: roda no commit de quem
+	 * chamou send(), entao a primeira mensagem que nao cabe encerra o lote, e
+	 * as restantes ficam em pending_mail para o {@link #recover}.
+	 */
+	private int enqueue(List<PendingMail> mails) {
+		for (int i = 0; i < mails.size(); i++) {
+			boolean offered;
+			try {
+				offered = queue.offer(mails.get(i), offerTimeoutMs, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				offered = false;
+			}
+			if (!offered) {
+				log.warn("mail queue is full, {} messages stay in pending_mail", mails.size() - i);
+				return i;
+			}
+		}
+		return mails.size();
+	}
+
+	private void afterCommit(Runnable task) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					task.run();
+				}
+			});
+		} else {
+			task.run();
+		}
+	}
+
+	private void work() {
+		List<PendingMail> batch = new ArrayList<>(batchSize);
+		while (running || !queue.isEmpty()) {
+			try {
+				PendingMail first = queue.poll(1, TimeUnit.SECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, batchSize - 1);
+				dispatch(batch);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (RuntimeException e) {
+				log.error("unexpected error dispatching mails", e);
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Envia o lote e apaga de pending_mail as mensagens aceitas pelo servidor
+	 * SMTP; as que falharam continuam gravadas ate serem reenviadas ou irem
+	 * para dead_letter_mail.
+	 */
+	private void dispatch(List<PendingMail> batch) throws InterruptedException {
+		Map<SimpleMailMessage, PendingMail> messages = new IdentityHashMap<>();
+		for (PendingMail mail : batch) {
+			messages.put(toMessage(mail), mail);
+		}
+		List<SimpleMailMessage> pending = new ArrayList<>(messages.keySet());
+		long backoff = initialBackoffMs;
+
+		for (int attempt = 1;; attempt++) {
+			long start = System.nanoTime();
+			try {
+				javaMailSender.send(pending.toArray(new SimpleMailMessage[pending.size()]));
+				sendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+				delete(pending, messages);
+				return;
+			} catch (MailException e) {
+				sendTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+				List<SimpleMailMessage> failed = failedMessages(e, pending);
+				if (failed.size() < pending.size()) {
+					Set<SimpleMailMessage> failedSet = Collections.newSetFromMap(new IdentityHashMap<>());
+					failedSet.addAll(failed);
+					delete(pending.stream().filter(message -> !failedSet.contains(message))
+							.collect(Collectors.toList()), messages);
+				}
+				pending = failed;
+				failureCounter.increment(pending.size());
+
+				if (attempt >= maxAttempts) {
+					log.error("giving up {} mails after {} attempts", pending.size(), attempt, e);
+					delete(deadLetter(pending, e.getMessage(), attempt), messages);
+					return;
+				}
+				log.warn("failed to send {} mails (attempt {}), retrying in {} ms", pending.size(), attempt, backoff);
+				Thread.sleep(backoff);
+				backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+			}
+		}
+	}
+
+	private List<SimpleMailMessage> failedMessages(MailException e, List<SimpleMailMessage> pending) {
+		if (e instanceof MailSendException) {
+			Map<Object, Exception> failed = ((MailSendException) e).getFailedMessages();
+			if (!failed.isEmpty()) {
+				return pending.stream().filter(failed::containsKey).collect(Collectors.toList());
+			}
+		}
+		return pending;
+	}
+
+	private SimpleMailMessage toMessage(PendingMail mail) {
 		SimpleMailMessage mailMessage = new SimpleMailMessage();
 		mailMessage.setFrom(remetent);
-		mailMessage.setSubject("Livro com empréstimo atrasado");
-		mailMessage.setText(message);
-		mailMessage.setTo(mails);
+		mailMessage.setSubject(mail.getSubject());
+		mailMessage.setText(mail.getBody());
+		mailMessage.setTo(mail.getRecipient());
+		return mailMessage;
+	}
+
+	/**
+	 * Se a exclusao falhar a mensagem e reenviada quando o prazo vencer.
+	 */
+	private void delete(List<SimpleMailMessage> sent, Map<SimpleMailMessage, PendingMail> messages) {
+		List<Long> ids = sent.stream().map(message -> messages.get(message).getId()).collect(Collectors.toList());
+		try {
+			pendingRepository.deleteByIds(ids);
+		} catch (RuntimeException e) {
+			log.error("could not delete {} sent mails from pending_mail, they will be sent again", ids.size(), e);
+		}
+	}
 
-		javaMailSender.send(mailMessage);
+	/**
+	 * @return as mensagens gravadas em dead_letter_mail; as demais continuam em
+	 *         pending_mail
+	 */
+	private List<SimpleMailMessage> deadLetter(List<SimpleMailMessage> messages, String error, int attempts) {
+		List<SimpleMailMessage> stored = new ArrayList<>(messages.size());
+		for (SimpleMailMessage message : messages) {
+			DeadLetterMail deadLetter = DeadLetterMail.builder().recipients(String.join(",", message.getTo()))
+					.subject(message.getSubject()).body(message.getText())
+					.error(error == null ? null : error.substring(0, Math.min(error.length(), 1000)))
+					.attempts(attempts).createdAt(LocalDateTime.now()).build();
+			try {
+				deadLetterRepository.save(deadLetter);
+				deadLetterCounter.increment();
+				stored.add(message);
+			} catch (RuntimeException e) {
+				log.error("could not store dead letter mail for {}", deadLetter.getRecipients(), e);
+			}
+		}
+		return stored;
 	}
 
 }
@@ -0,0 +1,75 @@
+package com.cursotdd.service.impl;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import com.cursotdd.model.repository.JobLockRepository;
+import com.cursotdd.service.JobLease;
+import com.cursotdd.service.JobLockService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Leases de jobs guardados em job_lock, para que um unico no execute cada job
+ * agendado. A aquisicao e um update condicional (lease expirado), entao dois
+ * nos nunca obtem o mesmo lease, e cada aquisicao incrementa o fencing token.
+ *
+ * Os prazos usam o relogio do no: o ttl deve ser bem maior que a diferenca de
+ * relogio entre as maquinas e que a duracao de um bloco de trabalho entre duas
+ * renovacoes. Se mesmo assim o lease expirar, o token antigo deixa de valer
+ * nas escritas protegidas por ele.
+ */
+@Service
+@Slf4j
+public class JobLockServiceImpl implements JobLockService {
+
+	private final String owner = UUID.randomUUID().toString();
+
+	private JobLockRepository repository;
+
+	private final long ttlSeconds;
+
+	public JobLockServiceImpl(JobLockRepository repository,
+			@Value("${application.jobs.lock.ttl-seconds:300}") long ttlSeconds) {
+		this.repository = repository;
+		this.ttlSeconds = ttlSeconds;
+	}
+
+	@Override
+	public Optional<JobLease> tryAcquire(String name) {
+		LocalDateTime now = LocalDateTime.now();
+		int acquired = repository.acquire(name, owner, now, now.plusSeconds(ttlSeconds));
+		if (acquired == 0 && !repository.existsById(name)) {
+			try {
+				repository.create(name, now.minusSeconds(1));
+			} catch (DataIntegrityViolationException e) {
+				log.debug("job lock {} created by another node", name);
+			}
+			acquired = repository.acquire(name, owner, now, now.plusSeconds(ttlSeconds));
+		}
+		if (acquired == 0) {
+			return Optional.empty();
+		}
+		return repository.findById(name).filter(lock -> owner.equals(lock.getOwner()))
+				.map(lock -> new JobLease(name, owner, lock.getFencingToken()));
+	}
+
+	@Override
+	public boolean renew(JobLease lease) {
+		LocalDateTime now = LocalDateTime.now();
+		return repository.renew(lease.getName(), lease.getOwner(), lease.getToken(), now,
+				now.plusSeconds(ttlSeconds)) > 0;
+	}
+
+	@Override
+	public void release(JobLease lease) {
+		if (repository.release(lease.getName(), lease.getOwner(), lease.getToken(), LocalDateTime.now()) == 0) {
+			log.warn("job lock {} was lost before release (token {})", lease.getName(), lease.getToken());
+		}
+	}
+}
@@ -1,36 +1,109 @@
 package com.cursotdd.service.impl;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import com.cursotdd.dto.CursorPageDto;
+import com.cursotdd.dto.KeysetCursor;
+import com.cursotdd.dto.LateLoanDto;
+import com.cursotdd.dto.LoanDto;
 import com.cursotdd.dto.LoanFilterDto;
+import com.cursotdd.dto.LoanReturnResultDto;
+import com.cursotdd.dto.LoanReturnResultDto.Status;
 import com.cursotdd.exception.BusinessException;
+import com.cursotdd.exception.ConstraintViolations;
 import com.cursotdd.model.entity.Book;
+import com.cursotdd.model.entity.Customer;
 import com.cursotdd.model.entity.Loan;
+import com.cursotdd.model.entity.LoanEvent.Type;
+import com.cursotdd.model.repository.CustomerRepository;
+import com.cursotdd.model.repository.LoanEventRepository;
 import com.cursotdd.model.repository.LoanRepository;
+import com.cursotdd.service.BookAvailabilityService;
+import com.cursotdd.service.JobLease;
 import com.cursotdd.service.LoanService;
 
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
 @Service
 public class LoanServiceImpl implements LoanService {
 
+	private static final String ACTIVE_BOOK_CONSTRAINT = "uk_loan_active_book";
+
+	private static final int STREAM_CHUNK_SIZE = 500;
+	private static final int RETURN_CHUNK_SIZE = 500;
+	private static final int MAX_RETURNS = 10000;
+
 	private LoanRepository repository;
+	private CustomerRepository customerRepository;
+	private LoanEventRepository eventRepository;
+	private BookAvailabilityService availabilityService;
 
-	public LoanServiceImpl(LoanRepository repository) {
+	private final int defaultLoanDays;
+
+	public LoanServiceImpl(LoanRepository repository, CustomerRepository customerRepository,
+			LoanEventRepository eventRepository, BookAvailabilityService availabilityService,
+			@Value("${application.loans.default-days:4}") int defaultLoanDays) {
 		this.repository = repository;
+		this.customerRepository = customerRepository;
+		this.eventRepository = eventRepository;
+		this.availabilityService = availabilityService;
+		this.defaultLoanDays = defaultLoanDays;
 	}
 
+	/**
+	 * O emprestimo, o contador de emprestimos ativos do cliente e o evento da
+	 * outbox sao gravados na mesma transacao. O vencimento usa o prazo do cliente, depois o do
+	 * livro e por fim o padrao.
+	 */
 	@Override
+	@Transactional
 	public Loan save(Loan loan) {
-		if (repository.existsByBookAndNotReturned(loan.getBook())) {
-			throw new BusinessException("livro ja emprestado");
+		if (loan.getDueDate() == null && loan.getLoanDate() != null) {
+			loan.setDueDate(loan.getLoanDate().plusDays(loanDays(loan)));
 		}
 
-		return repository.save(loan);
+		Loan saved;
+		try {
+			saved = repository.saveAndFlush(loan);
+		} catch (DataIntegrityViolationException e) {
+			if (ConstraintViolations.isViolationOf(e, ACTIVE_BOOK_CONSTRAINT)) {
+				throw new BusinessException("livro ja emprestado");
+			}
+			throw e;
+		}
+		List<Long> ids = Collections.singletonList(saved.getId());
+		updateCustomerCounts(ids, 1);
+		publish(Type.LOAN_CREATED, ids);
+		if (saved.getBook() != null) {
+			availabilityService.loaned(Collections.singletonList(saved.getBook().getId()));
+		}
+		return saved;
 	}
 
 	@Override
@@ -43,22 +116,252 @@ public class LoanServiceImpl implements LoanService {
 		return repository.save(loan);
 	}
 
+	/**
+	 * Reabrir um emprestimo devolvido conta como um novo prazo: o vencimento
+	 * passa a ser hoje mais o prazo do cliente ou do livro e o aviso de atraso
+	 * e limpo. Mantido o vencimento antigo, um emprestimo ja vencido ficaria
+	 * antes da marca d'agua do job de atrasos e nunca seria avisado.
+	 */
+	@Override
+	@Transactional
+	public boolean markReturned(Long id, boolean returned) {
+		List<Long> ids = Collections.singletonList(id);
+		List<Long> changed = returned ? repository.findOpenLoanIds(ids) : repository.findReturnedLoanIds(ids);
+		if (changed.isEmpty()) {
+			return repository.existsById(id);
+		}
+
+		try {
+			if (returned) {
+				updateCustomerCounts(changed, -1);
+				repository.markReturned(changed);
+				publish(Type.LOAN_RETURNED, changed);
+				availabilityService.returned(repository.findBookIds(changed));
+			} else {
+				int days = repository.findById(id).map(this::loanDays).orElse(defaultLoanDays);
+				repository.markNotReturned(id, LocalDate.now().plusDays(days));
+				updateCustomerCounts(changed, 1);
+				publish(Type.LOAN_REOPENED, changed);
+				availabilityService.loaned(repository.findBookIds(changed));
+			}
+		} catch (DataIntegrityViolationException e) {
+			if (ConstraintViolations.isViolationOf(e, ACTIVE_BOOK_CONSTRAINT)) {
+				throw new BusinessException("livro ja emprestado");
+			}
+			throw e;
+		}
+		return true;
+	}
+
+	/**
+	 * Processa os itens em blocos de RETURN_CHUNK_SIZE: um select para separar
+	 * e bloquear os emprestimos em aberto, um update dos contadores dos clientes,
+	 * um update dos emprestimos e um insert dos eventos por bloco. Nos blocos
+	 * por isbn, um segundo select, sem trava, busca o livro de cada emprestimo
+	 * bloqueado.
+	 */
+	@Override
+	@Transactional
+	public List<LoanReturnResultDto> returnAll(Collection<Long> ids, Collection<String> isbns) {
+		Set<Long> uniqueIds = distinct(ids);
+		Set<String> uniqueIsbns = distinct(isbns);
+		if (uniqueIds.size() + uniqueIsbns.size() > MAX_RETURNS) {
+			throw new BusinessException("no maximo " + MAX_RETURNS + " devolucoes por requisicao");
+		}
+
+		List<LoanReturnResultDto> results = new ArrayList<>(uniqueIds.size() + uniqueIsbns.size());
+		for (List<Long> chunk : chunks(new ArrayList<>(uniqueIds))) {
+			Set<Long> open = new HashSet<>(repository.findOpenLoanIds(chunk));
+			if (!open.isEmpty()) {
+				updateCustomerCounts(open, -1);
+				repository.markReturned(open);
+				publish(Type.LOAN_RETURNED, open);
+				availabilityService.returned(repository.findBookIds(open));
+			}
+
+			List<Long> notOpen = new ArrayList<>(chunk);
+			notOpen.removeAll(open);
+			Set<Long> existing = notOpen.isEmpty() ? Collections.emptySet()
+					: new HashSet<>(repository.findExistingIds(notOpen));
+
+			for (Long id : chunk) {
+				if (open.contains(id)) {
+					results.add(returnResult(id, null, Status.RETURNED, null));
+				} else if (existing.contains(id)) {
+					results.add(returnResult(id, null, Status.ALREADY_RETURNED, "emprestimo ja devolvido"));
+				} else {
+					results.add(returnResult(id, null, Status.NOT_FOUND, "emprestimo nao encontrado"));
+				}
+			}
+		}
+
+		for (List<String> chunk : chunks(new ArrayList<>(uniqueIsbns))) {
+			Map<String, Long> openByIsbn = new HashMap<>();
+			List<Long> bookIds = new ArrayList<>();
+			List<Long> locked = repository.findOpenLoanIdsByIsbns(chunk);
+			List<LoanDto> loans = locked.isEmpty() ? Collections.emptyList() : repository.findDtoByIds(locked);
+			for (LoanDto loan : loans) {
+				openByIsbn.put(loan.getIsbn(), loan.getId());
+				if (loan.getBook() != null) {
+					bookIds.add(loan.getBook().getId());
+				}
+			}
+			if (!openByIsbn.isEmpty()) {
+				List<Long> open = new ArrayList<>(openByIsbn.values());
+				updateCustomerCounts(open, -1);
+				repository.markReturned(open);
+				publish(Type.LOAN_RETURNED, open);
+				availabilityService.returned(bookIds);
+			}
+
+			for (String isbn : chunk) {
+				Long id = openByIsbn.get(isbn);
+				if (id != null) {
+					results.add(returnResult(id, isbn, Status.RETURNED, null));
+				} else {
+					results.add(returnResult(null, isbn, Status.NOT_FOUND, "nenhum emprestimo em aberto para o isbn"));
+				}
+			}
+		}
+		return results;
+	}
+
+	private int loanDays(Loan loan) {
+		Customer customer = loan.getCustomer();
+		if (customer != null && customer.getLoanDays() != null) {
+			return customer.getLoanDays();
+		}
+		Book book = loan.getBook();
+		if (book != null && book.getLoanDays() != null) {
+			return book.getLoanDays();
+		}
+		return defaultLoanDays;
+	}
+
+	private void updateCustomerCounts(Collection<Long> loanIds, int delta) {
+		customerRepository.updateLoanCounts(loanIds, LocalDate.now(), delta);
+	}
+
+	private void publish(Type type, Collection<Long> loanIds) {
+		eventRepository.insertEvents(type.name(), loanIds, LocalDateTime.now());
+	}
+
+	private <T> Set<T> distinct(Collection<T> values) {
+		Set<T> distinct = new LinkedHashSet<>();
+		if (values != null) {
+			values.stream().filter(Objects::nonNull).forEach(distinct::add);
+		}
+		return distinct;
+	}
+
+	private <T> List<List<T>> chunks(List<T> values) {
+		List<List<T>> chunks = new ArrayList<>();
+		for (int i = 0; i < values.size(); i += RETURN_CHUNK_SIZE) {
+			chunks.add(values.subList(i, Math.min(i + RETURN_CHUNK_SIZE, values.size())));
+		}
+		return chunks;
+	}
+
+	private LoanReturnResultDto returnResult(Long id, String isbn, Status status, String message) {
+		return LoanReturnResultDto.builder().id(id).isbn(isbn).status(status).message(message).build();
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public Page<LoanDto> find(LoanFilterDto filter, Pageable pageRequest) {
+		return repository.findDtoByBookIsbnOrCustomer(filter.getIsbn(), filter.getCustomer(), pageRequest);
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public CursorPageDto<LoanDto> findByCursor(LoanFilterDto filter, String cursor, int size) {
+		KeysetCursor after = KeysetCursor.decode(cursor);
+		Long afterId = after == null ? 0L : after.getId();
+
+		Slice<LoanDto> slice = repository.findDtoSliceByBookIsbnOrCustomer(filter.getIsbn(), filter.getCustomer(),
+				afterId, PageRequest.of(0, size));
+		List<LoanDto> content = slice.getContent();
+
+		String nextCursor = null;
+		if (slice.hasNext()) {
+			nextCursor = new KeysetCursor(content.get(content.size() - 1).getId(), null).encode();
+		}
+		return new CursorPageDto<LoanDto>(content, nextCursor, slice.hasNext());
+	}
+
+	@Override
+	public Flux<LoanDto> stream(LoanFilterDto filter) {
+		return fetchSlice(filter, 0L).expand(slice -> {
+			if (!slice.hasNext()) {
+				return Mono.empty();
+			}
+			return fetchSlice(filter, slice.getContent().get(slice.getNumberOfElements() - 1).getId());
+		}).concatMapIterable(Slice::getContent, 1);
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public long export(Long afterId, Consumer<LoanDto> consumer) {
+		long count = 0;
+		try (Stream<LoanDto> loans = repository.streamDtoAfter(afterId == null ? 0L : afterId)) {
+			Iterator<LoanDto> iterator = loans.iterator();
+			while (iterator.hasNext()) {
+				consumer.accept(iterator.next());
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private Mono<Slice<LoanDto>> fetchSlice(LoanFilterDto filter, Long afterId) {
+		return Mono.fromCallable(() -> repository.findDtoSliceByBookIsbnOrCustomer(filter.getIsbn(),
+				filter.getCustomer(), afterId, PageRequest.of(0, STREAM_CHUNK_SIZE)))
+				.subscribeOn(Schedulers.boundedElastic());
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public Page<LoanDto> getLoansByBook(Book book, Pageable pageable) {
+		return repository.findDtoByBookId(book.getId(), pageable);
+	}
+
+	@Override
+	@Transactional(readOnly = true)
+	public Page<LoanDto> getLoansByCustomer(Customer customer, Pageable pageable) {
+		return repository.findDtoByCustomerId(customer.getId(), pageable);
+	}
+
+	/**
+	 * Le do primario, e nao da replica: o job marca cada bloco em
+	 * late_notified_at logo antes de pedir o proximo, e uma replica atrasada
+	 * ainda o devolveria como nao avisado.
+	 */
+	@Override
+	@Transactional
+	public List<LateLoanDto> getNewlyLateLoans(LocalDate after, LateLoanDto last, LocalDate today, int shard,
+			int shards, int limit) {
+		LocalDate afterDueDate = last == null ? after : last.getDueDate();
+		Long afterId = last == null ? Long.MAX_VALUE : last.getId();
+		return repository.findNewlyLateLoans(afterDueDate, afterId, today, shard, shards, PageRequest.of(0, limit));
+	}
+
 	@Override
-	public Page<Loan> find(LoanFilterDto filter, Pageable pageRequest) {
-		return repository.findByBookIsbnOrCustomer(filter.getIsbn(), filter.getCustomer(), pageRequest);
+	@Transactional
+	public int markLateNotified(Collection<Long> ids, JobLease lease) {
+		return repository.markLateNotified(ids, LocalDateTime.now(), lease.getName(), lease.getOwner(),
+				lease.getToken());
 	}
 
 	@Override
-	public Page<Loan> getLoansByBook(Book book, Pageable pageable) {
-		return repository.findByBook(book, pageable);
+	@Transactional(readOnly = true)
+	public long countLateLoans() {
+		return repository.countLateLoans(LocalDate.now());
 	}
 
 	@Override
-	public List<Loan> getAllLateLoans() {
-		final Integer loanDays = 4;
-		LocalDate threeDaysAgo = LocalDate.now().minusDays(loanDays);
-		
-		return repository.findByLoanDateLessThanAndNotReturned(threeDaysAgo);
+	@Transactional
+	public int refreshCustomerLateLoans() {
+		return customerRepository.refreshLateLoans(LocalDate.now());
 	}
 
 }
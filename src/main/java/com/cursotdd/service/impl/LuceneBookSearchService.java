@@ -0,0 +1,344 @@
+package com.cursotdd.service.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.miscellaneous.ASCIIFoldingFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.BoostQuery;
+import org.apache.lucene.search.FuzzyQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Slice;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.StringUtils;
+
+import com.cursotdd.dto.BookSearchResultDto;
+import com.cursotdd.dto.KeysetCursor;
+import com.cursotdd.model.entity.Book;
+import com.cursotdd.model.repository.BookRepository;
+import com.cursotdd.service.BookSearchService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Indice invertido do catalogo (titulo, autor e isbn) mantido em processo com
+ * Lucene. Sem application.search.books.index-dir o indice fica em memoria e e
+ * reconstruido a partir do banco na inicializacao. Alteracoes feitas dentro de
+ * uma transacao so sao aplicadas ao indice depois do commit.
+ * <p>
+ * Alteracoes e reconstrucao podem rodar juntas: cada documento leva a geracao
+ * em que foi escrito, a reconstrucao nao sobrescreve livros alterados depois
+ * que ela comecou e, ao final, remove os documentos de geracoes anteriores.
+ */
+@Service
+@Slf4j
+public class LuceneBookSearchService implements BookSearchService {
+
+	static final String ID = "id";
+	static final String TITLE = "title";
+	static final String AUTHOR = "author";
+	static final String ISBN = "isbn";
+	static final String GENERATION = "generation";
+
+	private static final int REBUILD_PAGE_SIZE = 1000;
+	private static final int FUZZY_MIN_LENGTH = 4;
+
+	private BookRepository repository;
+
+	private final int maxResults;
+	private final Analyzer analyzer;
+	private final Directory directory;
+	private final IndexWriter writer;
+	private final SearcherManager searcherManager;
+
+	private final Object lock = new Object();
+	private String generation = Long.toString(System.currentTimeMillis());
+	private Set<String> touched;
+	private volatile boolean rebuilding;
+
+	public LuceneBookSearchService(BookRepository repository,
+			@Value("${application.search.books.index-dir:}") String indexDir,
+			@Value("${application.search.books.max-results:100}") int maxResults) throws IOException {
+		this.repository = repository;
+		this.maxResults = maxResults;
+		this.analyzer = createAnalyzer();
+		this.directory = StringUtils.hasText(indexDir) ? FSDirectory.open(Paths.get(indexDir))
+				: new ByteBuffersDirectory();
+		this.writer = new IndexWriter(directory,
+				new IndexWriterConfig(analyzer).setOpenMode(OpenMode.CREATE_OR_APPEND));
+		this.searcherManager = new SearcherManager(writer, null);
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void rebuildIfEmpty() {
+		if (writer.getDocStats().numDocs == 0) {
+			rebuild();
+		}
+	}
+
+	@Override
+	public void index(Collection<Book> books) {
+		afterCommit(() -> {
+			for (Book book : books) {
+				if (book.getId() != null) {
+					String id = touch(book.getId());
+					writer.updateDocument(new Term(ID, id), document(book));
+				}
+			}
+		});
+	}
+
+	@Override
+	public void remove(Book book) {
+		afterCommit(() -> writer.deleteDocuments(new Term(ID, touch(book.getId()))));
+	}
+
+	@Override
+	public List<BookSearchResultDto> search(String text, int limit) {
+		if (!StringUtils.hasText(text)) {
+			return Collections.emptyList();
+		}
+
+		try {
+			Query query = buildQuery(text);
+			IndexSearcher searcher = searcherManager.acquire();
+			try {
+				TopDocs topDocs = searcher.search(query, Math.max(1, Math.min(limit, maxResults)));
+				List<BookSearchResultDto> results = new ArrayList<>(topDocs.scoreDocs.length);
+				for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+					Document doc = searcher.doc(scoreDoc.doc);
+					results.add(BookSearchResultDto.builder().id(Long.valueOf(doc.get(ID))).title(doc.get(TITLE))
+							.author(doc.get(AUTHOR)).isbn(doc.get(ISBN)).score(scoreDoc.score).build());
+				}
+				return results;
+			} finally {
+				searcherManager.release(searcher);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Recria o indice lendo o catalogo em blocos ordenados por id (keyset), sem
+	 * carregar a tabela inteira em memoria. Os documentos sao substituidos um a
+	 * um, entao as buscas continuam respondendo durante a reconstrucao; um livro
+	 * alterado ou removido depois do inicio ja foi aplicado por
+	 * {@link #index}/{@link #remove} e a versao lida aqui, possivelmente mais
+	 * antiga, e descartada.
+	 */
+	@Override
+	public synchronized long rebuild() {
+		long count = 0;
+		rebuilding = true;
+		try {
+			synchronized (lock) {
+				generation = Long.toString(Math.max(System.currentTimeMillis(), Long.parseLong(generation) + 1));
+				touched = new HashSet<>();
+			}
+			KeysetCursor after = null;
+			Slice<Book> slice;
+			do {
+				slice = repository.findSlice(new Book(), ID, after, REBUILD_PAGE_SIZE);
+				synchronized (lock) {
+					for (Book book : slice) {
+						String id = book.getId().toString();
+						if (!touched.contains(id)) {
+							writer.updateDocument(new Term(ID, id), document(book));
+						}
+					}
+				}
+				count += slice.getNumberOfElements();
+				if (slice.hasContent()) {
+					after = new KeysetCursor(slice.getContent().get(slice.getNumberOfElements() - 1).getId(), null);
+				}
+			} while (slice.hasNext());
+
+			synchronized (lock) {
+				BooleanQuery.Builder stale = new BooleanQuery.Builder();
+				stale.add(new MatchAllDocsQuery(), Occur.MUST);
+				stale.add(new TermQuery(new Term(GENERATION, generation)), Occur.MUST_NOT);
+				writer.deleteDocuments(stale.build());
+			}
+			writer.commit();
+			searcherManager.maybeRefresh();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			synchronized (lock) {
+				touched = null;
+			}
+			rebuilding = false;
+		}
+		log.info("book search index rebuilt with {} books", count);
+		return count;
+	}
+
+	/**
+	 * Nao faz commit durante uma reconstrucao, para que uma queda no meio dela
+	 * nao deixe gravado um indice com parte dos livros desatualizada; a propria
+	 * reconstrucao faz o commit ao terminar.
+	 */
+	@Scheduled(fixedDelayString = "${application.search.books.commit-interval-ms:5000}")
+	public void commit() {
+		if (!rebuilding && writer.hasUncommittedChanges()) {
+			try {
+				writer.commit();
+			} catch (IOException e) {
+				log.error("could not commit book search index", e);
+			}
+		}
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+		searcherManager.close();
+		writer.close();
+		directory.close();
+	}
+
+	private Query buildQuery(String text) throws IOException {
+		BooleanQuery.Builder allTerms = new BooleanQuery.Builder();
+		List<String> terms = analyze(text);
+		for (String term : terms) {
+			BooleanQuery.Builder anyField = new BooleanQuery.Builder();
+			addTermQueries(anyField, TITLE, term, 2f);
+			addTermQueries(anyField, AUTHOR, term, 1f);
+			allTerms.add(anyField.build(), Occur.MUST);
+		}
+
+		BooleanQuery.Builder query = new BooleanQuery.Builder();
+		query.add(new BoostQuery(new TermQuery(new Term(ISBN, text.trim())), 10f), Occur.SHOULD);
+		if (!terms.isEmpty()) {
+			query.add(allTerms.build(), Occur.SHOULD);
+		}
+		return query.build();
+	}
+
+	private void addTermQueries(BooleanQuery.Builder builder, String field, String term, float boost) {
+		builder.add(new BoostQuery(new TermQuery(new Term(field, term)), 3f * boost), Occur.SHOULD);
+		builder.add(new BoostQuery(new PrefixQuery(new Term(field, term)), 1.5f * boost), Occur.SHOULD);
+		if (term.length() >= FUZZY_MIN_LENGTH) {
+			builder.add(new BoostQuery(new FuzzyQuery(new Term(field, term), 1), boost), Occur.SHOULD);
+		}
+	}
+
+	private List<String> analyze(String text) throws IOException {
+		List<String> terms = new ArrayList<>();
+		try (TokenStream stream = analyzer.tokenStream(TITLE, text)) {
+			CharTermAttribute attribute = stream.addAttribute(CharTermAttribute.class);
+			stream.reset();
+			while (stream.incrementToken()) {
+				terms.add(attribute.toString());
+			}
+			stream.end();
+		}
+		return terms;
+	}
+
+	private Document document(Book book) {
+		Document doc = new Document();
+		doc.add(new StringField(ID, book.getId().toString(), Field.Store.YES));
+		doc.add(new StringField(ISBN, nullToEmpty(book.getIsbn()), Field.Store.YES));
+		doc.add(new TextField(TITLE, nullToEmpty(book.getTitle()), Field.Store.YES));
+		doc.add(new TextField(AUTHOR, nullToEmpty(book.getAuthor()), Field.Store.YES));
+		doc.add(new StringField(GENERATION, generation, Field.Store.NO));
+		return doc;
+	}
+
+	/**
+	 * Chamado com o lock; durante uma reconstrucao marca o livro para que ela
+	 * nao sobrescreva esta versao com a que leu antes.
+	 */
+	private String touch(Long id) {
+		String value = id.toString();
+		if (touched != null) {
+			touched.add(value);
+		}
+		return value;
+	}
+
+	private String nullToEmpty(String value) {
+		return value == null ? "" : value;
+	}
+
+	private void afterCommit(IndexTask task) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					apply(task);
+				}
+			});
+		} else {
+			apply(task);
+		}
+	}
+
+	private void apply(IndexTask task) {
+		try {
+			synchronized (lock) {
+				task.run();
+			}
+			searcherManager.maybeRefresh();
+		} catch (IOException e) {
+			log.error("could not update book search index, a rebuild is required", e);
+		}
+	}
+
+	private static Analyzer createAnalyzer() {
+		return new Analyzer() {
+			@Override
+			protected TokenStreamComponents createComponents(String fieldName) {
+				Tokenizer tokenizer = new StandardTokenizer();
+				TokenStream stream = new ASCIIFoldingFilter(new LowerCaseFilter(tokenizer));
+				return new TokenStreamComponents(tokenizer, stream);
+			}
+		};
+	}
+
+	@FunctionalInterface
+	private interface IndexTask {
+		void run() throws IOException;
+	}
+}
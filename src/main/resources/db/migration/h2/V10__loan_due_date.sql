@@ -0,0 +1,14 @@
+-- Prazo de devolucao gravado no emprestimo. O prazo pode ser definido por
+-- livro ou por cliente; emprestimos existentes recebem o prazo fixo anterior
+-- de 4 dias.
+ALTER TABLE book ADD COLUMN loan_days INT;
+ALTER TABLE customer ADD COLUMN loan_days INT;
+
+ALTER TABLE loan ADD COLUMN due_date DATE;
+ALTER TABLE loan ADD COLUMN late_notified_at TIMESTAMP;
+
+UPDATE loan SET due_date = DATEADD(DAY, 4, loan_date);
+
+-- O H2 nao tem indice filtrado; no SQL Server o indice cobre so os
+-- emprestimos em aberto.
+CREATE INDEX ix_loan_active_due_date ON loan (due_date, id);
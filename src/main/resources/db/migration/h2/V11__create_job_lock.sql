@@ -0,0 +1,10 @@
+-- Lease dos jobs agendados: um unico no executa cada job (ou fatia de job)
+-- ate locked_until. fencing_token aumenta a cada nova aquisicao e as escritas
+-- do job conferem o token, entao um no que perdeu o lease nao grava mais.
+CREATE TABLE job_lock (
+    name VARCHAR(100) NOT NULL,
+    owner VARCHAR(36),
+    locked_until TIMESTAMP NOT NULL,
+    fencing_token BIGINT NOT NULL,
+    CONSTRAINT pk_job_lock PRIMARY KEY (name)
+);
@@ -0,0 +1,22 @@
+-- Outbox dos emprestimos: cada alteracao de emprestimo grava um evento na
+-- mesma transacao e o relay da aplicacao os entrega aos handlers. A sequence
+-- nao usa pool, para que os eventos de um mesmo livro, gravados em transacoes
+-- que ja disputam a linha do emprestimo, recebam ids na ordem de commit.
+CREATE SEQUENCE loan_event_seq START WITH 1 INCREMENT BY 1;
+
+CREATE TABLE loan_event (
+    id BIGINT NOT NULL,
+    event_type VARCHAR(20) NOT NULL,
+    loan_id BIGINT NOT NULL,
+    book_id BIGINT,
+    customer_id BIGINT,
+    created_at TIMESTAMP NOT NULL,
+    attempts INT NOT NULL,
+    next_attempt_at TIMESTAMP,
+    processed_at TIMESTAMP,
+    error VARCHAR(1000),
+    CONSTRAINT pk_loan_event PRIMARY KEY (id)
+);
+
+CREATE INDEX ix_loan_event_pending ON loan_event (processed_at, id);
+CREATE INDEX ix_loan_event_book ON loan_event (book_id, id);
@@ -0,0 +1,18 @@
+CREATE TABLE book (
+    id BIGINT AUTO_INCREMENT NOT NULL,
+    author VARCHAR(255),
+    isbn VARCHAR(255),
+    title VARCHAR(255),
+    CONSTRAINT pk_book PRIMARY KEY (id)
+);
+
+CREATE TABLE loan (
+    id BIGINT AUTO_INCREMENT NOT NULL,
+    customer VARCHAR(255),
+    customer_email VARCHAR(255),
+    loan_date DATE,
+    returned BOOLEAN,
+    id_book BIGINT,
+    CONSTRAINT pk_loan PRIMARY KEY (id),
+    CONSTRAINT fk_loan_book FOREIGN KEY (id_book) REFERENCES book (id)
+);
@@ -0,0 +1,5 @@
+ALTER TABLE book ADD CONSTRAINT uk_book_isbn UNIQUE (isbn);
+
+CREATE INDEX ix_loan_book_returned ON loan (id_book, returned);
+CREATE INDEX ix_loan_customer ON loan (customer);
+CREATE INDEX ix_loan_date_returned ON loan (loan_date, returned);
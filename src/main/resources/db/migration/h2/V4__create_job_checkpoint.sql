@@ -0,0 +1,7 @@
+CREATE TABLE job_checkpoint (
+    job_name VARCHAR(255) NOT NULL,
+    run_date DATE,
+    position VARCHAR(255),
+    finished BOOLEAN,
+    CONSTRAINT pk_job_checkpoint PRIMARY KEY (job_name)
+);
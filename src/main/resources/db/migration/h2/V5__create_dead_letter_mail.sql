@@ -0,0 +1,12 @@
+CREATE SEQUENCE dead_letter_mail_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE dead_letter_mail (
+    id BIGINT NOT NULL,
+    recipients VARCHAR(1000),
+    subject VARCHAR(255),
+    body VARCHAR(4000),
+    error VARCHAR(1000),
+    attempts INTEGER,
+    created_at TIMESTAMP,
+    CONSTRAINT pk_dead_letter_mail PRIMARY KEY (id)
+);
@@ -0,0 +1,10 @@
+-- Um emprestimo em aberto por livro, garantido pelo banco: active_book_id
+-- guarda o id do livro enquanto o emprestimo nao foi devolvido e fica nulo
+-- depois. Indices unicos aceitam varios nulos.
+ALTER TABLE loan ADD COLUMN active_book_id BIGINT;
+
+UPDATE loan SET active_book_id = id_book
+WHERE (returned IS NULL OR returned = FALSE)
+  AND id = (SELECT MAX(l.id) FROM loan l WHERE l.id_book = loan.id_book AND (l.returned IS NULL OR l.returned = FALSE));
+
+CREATE UNIQUE INDEX uk_loan_active_book ON loan (active_book_id);
@@ -0,0 +1,9 @@
+ALTER TABLE book ADD COLUMN version BIGINT DEFAULT 0 NOT NULL;
+
+CREATE TABLE catalog_version (
+    id INTEGER NOT NULL,
+    version BIGINT NOT NULL,
+    CONSTRAINT pk_catalog_version PRIMARY KEY (id)
+);
+
+INSERT INTO catalog_version (id, version) VALUES (1, 0);
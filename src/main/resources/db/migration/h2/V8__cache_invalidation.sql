@@ -0,0 +1,14 @@
+-- Registro das alteracoes em entidades com cache de segundo nivel, lido por
+-- todas as instancias para invalidar os seus caches locais.
+CREATE SEQUENCE cache_invalidation_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE cache_invalidation (
+    id BIGINT NOT NULL,
+    entity_name VARCHAR(100) NOT NULL,
+    entity_id BIGINT NOT NULL,
+    origin VARCHAR(36) NOT NULL,
+    created_at TIMESTAMP NOT NULL,
+    CONSTRAINT pk_cache_invalidation PRIMARY KEY (id)
+);
+
+CREATE INDEX idx_cache_invalidation_created_at ON cache_invalidation (created_at);
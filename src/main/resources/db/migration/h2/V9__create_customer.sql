@@ -0,0 +1,43 @@
+-- Clientes saem das colunas de texto de loan para uma tabela propria, com
+-- contadores de emprestimos ativos e atrasados. O backfill cria um cliente
+-- por e-mail distinto e, para emprestimos sem e-mail, um por nome.
+CREATE SEQUENCE customer_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE customer (
+    id BIGINT NOT NULL,
+    name VARCHAR(255),
+    email VARCHAR(255),
+    active_loans INT DEFAULT 0 NOT NULL,
+    late_loans INT DEFAULT 0 NOT NULL,
+    CONSTRAINT pk_customer PRIMARY KEY (id)
+);
+
+INSERT INTO customer (id, name, email)
+SELECT ROW_NUMBER() OVER (ORDER BY k.email, k.name), k.name, k.email FROM (
+    SELECT MAX(customer) AS name, LOWER(customer_email) AS email FROM loan
+    WHERE customer_email IS NOT NULL GROUP BY LOWER(customer_email)
+    UNION ALL
+    SELECT customer AS name, NULL AS email FROM loan
+    WHERE customer_email IS NULL AND customer IS NOT NULL GROUP BY customer
+) k;
+
+ALTER TABLE loan ADD COLUMN customer_id BIGINT;
+
+UPDATE loan SET customer_id = (SELECT c.id FROM customer c WHERE c.email = LOWER(loan.customer_email))
+WHERE customer_email IS NOT NULL;
+
+UPDATE loan SET customer_id = (SELECT c.id FROM customer c WHERE c.email IS NULL AND c.name = loan.customer)
+WHERE customer_email IS NULL AND customer IS NOT NULL;
+
+-- late_loans fica a cargo do recalculo agendado
+UPDATE customer SET active_loans = (SELECT COUNT(*) FROM loan l
+    WHERE l.customer_id = customer.id AND (l.returned IS NULL OR l.returned = FALSE));
+
+CREATE UNIQUE INDEX uk_customer_email ON customer (email);
+
+ALTER TABLE loan ADD CONSTRAINT fk_loan_customer FOREIGN KEY (customer_id) REFERENCES customer (id);
+
+DROP INDEX ix_loan_customer;
+ALTER TABLE loan DROP COLUMN customer, customer_email;
+
+CREATE INDEX ix_loan_customer_id ON loan (customer_id, id);
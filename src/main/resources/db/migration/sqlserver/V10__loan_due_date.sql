@@ -0,0 +1,15 @@
+-- Prazo de devolucao gravado no emprestimo. O prazo pode ser definido por
+-- livro ou por cliente; emprestimos existentes recebem o prazo fixo anterior
+-- de 4 dias.
+ALTER TABLE book ADD loan_days INT;
+ALTER TABLE customer ADD loan_days INT;
+
+ALTER TABLE loan ADD due_date DATE, late_notified_at DATETIME2;
+GO
+
+UPDATE loan SET due_date = DATEADD(DAY, 4, loan_date);
+
+-- Apenas emprestimos em aberto entram no indice, entao a busca dos que
+-- venceram desde a ultima execucao le so a faixa de datas nova.
+CREATE INDEX ix_loan_active_due_date ON loan (due_date, id) INCLUDE (customer_id, late_notified_at)
+    WHERE active_book_id IS NOT NULL;
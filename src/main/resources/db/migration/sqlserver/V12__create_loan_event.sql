@@ -0,0 +1,28 @@
+-- Outbox dos emprestimos: cada alteracao de emprestimo grava um evento na
+-- mesma transacao e o relay da aplicacao os entrega aos handlers. A sequence
+-- nao usa pool, para que os eventos de um mesmo livro, gravados em transacoes
+-- que ja disputam a linha do emprestimo, recebam ids na ordem de commit.
+CREATE SEQUENCE loan_event_seq AS BIGINT START WITH 1 INCREMENT BY 1;
+
+CREATE TABLE loan_event (
+    id BIGINT NOT NULL,
+    event_type VARCHAR(20) NOT NULL,
+    loan_id BIGINT NOT NULL,
+    book_id BIGINT,
+    customer_id BIGINT,
+    created_at DATETIME2 NOT NULL,
+    attempts INT NOT NULL,
+    next_attempt_at DATETIME2,
+    processed_at DATETIME2,
+    error VARCHAR(1000),
+    CONSTRAINT pk_loan_event PRIMARY KEY (id)
+);
+
+-- os indices cobrem apenas os eventos pendentes; os processados so sao lidos
+-- pela limpeza, por processed_at
+CREATE INDEX ix_loan_event_pending ON loan_event (id) INCLUDE (book_id, next_attempt_at)
+    WHERE processed_at IS NULL;
+CREATE INDEX ix_loan_event_book ON loan_event (book_id, id) INCLUDE (next_attempt_at)
+    WHERE processed_at IS NULL;
+CREATE INDEX ix_loan_event_processed_at ON loan_event (processed_at)
+    WHERE processed_at IS NOT NULL;
@@ -0,0 +1,16 @@
+-- E-mails aceitos pelo dispatcher e ainda nao entregues ao servidor SMTP. A
+-- linha e gravada antes de send() retornar e apagada depois do envio; se a
+-- instancia cair, qualquer outra reenvia as linhas cujo claimed_until passou.
+CREATE SEQUENCE pending_mail_seq AS BIGINT START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE pending_mail (
+    id BIGINT NOT NULL,
+    recipient VARCHAR(255) NOT NULL,
+    subject VARCHAR(255),
+    body VARCHAR(4000),
+    created_at DATETIME2 NOT NULL,
+    claimed_until DATETIME2 NOT NULL,
+    CONSTRAINT pk_pending_mail PRIMARY KEY (id)
+);
+
+CREATE INDEX ix_pending_mail_claimed_until ON pending_mail (claimed_until, id);
@@ -0,0 +1,20 @@
+-- Esquema gerado anteriormente pelo ddl-auto=update. Bancos ja existentes
+-- recebem o baseline na versao 1 e partem direto para a V2.
+CREATE TABLE book (
+    id BIGINT IDENTITY(1,1) NOT NULL,
+    author VARCHAR(255),
+    isbn VARCHAR(255),
+    title VARCHAR(255),
+    CONSTRAINT pk_book PRIMARY KEY (id)
+);
+
+CREATE TABLE loan (
+    id BIGINT IDENTITY(1,1) NOT NULL,
+    customer VARCHAR(255),
+    customer_email VARCHAR(255),
+    loan_date DATE,
+    returned BIT,
+    id_book BIGINT,
+    CONSTRAINT pk_loan PRIMARY KEY (id),
+    CONSTRAINT fk_loan_book FOREIGN KEY (id_book) REFERENCES book (id)
+);
@@ -0,0 +1,49 @@
+-- Os ids passam a vir de sequences (pooled, incremento 50) para que o
+-- Hibernate consiga agrupar os inserts em lotes JDBC. Colunas IDENTITY nao
+-- aceitam ids informados pela aplicacao, entao as tabelas sao recriadas.
+CREATE TABLE book_tmp (
+    id BIGINT NOT NULL,
+    author VARCHAR(255),
+    isbn VARCHAR(255),
+    title VARCHAR(255)
+);
+
+CREATE TABLE loan_tmp (
+    id BIGINT NOT NULL,
+    customer VARCHAR(255),
+    customer_email VARCHAR(255),
+    loan_date DATE,
+    returned BIT,
+    id_book BIGINT
+);
+
+INSERT INTO book_tmp (id, author, isbn, title) SELECT id, author, isbn, title FROM book;
+INSERT INTO loan_tmp (id, customer, customer_email, loan_date, returned, id_book)
+    SELECT id, customer, customer_email, loan_date, returned, id_book FROM loan;
+
+DROP TABLE loan;
+DROP TABLE book;
+
+EXEC sp_rename 'book_tmp', 'book';
+EXEC sp_rename 'loan_tmp', 'loan';
+
+ALTER TABLE book ADD CONSTRAINT pk_book PRIMARY KEY (id);
+ALTER TABLE book ADD CONSTRAINT uk_book_isbn UNIQUE (isbn);
+ALTER TABLE loan ADD CONSTRAINT pk_loan PRIMARY KEY (id);
+ALTER TABLE loan ADD CONSTRAINT fk_loan_book FOREIGN KEY (id_book) REFERENCES book (id);
+
+CREATE INDEX ix_loan_book_returned ON loan (id_book, returned);
+CREATE INDEX ix_loan_customer ON loan (customer);
+CREATE INDEX ix_loan_date_returned ON loan (loan_date, returned);
+
+-- Com o otimizador pooled o valor da sequence e o limite superior do bloco,
+-- por isso o inicio fica 50 acima do maior id existente.
+BEGIN
+    DECLARE @sql NVARCHAR(400);
+    SELECT @sql = N'CREATE SEQUENCE book_seq AS BIGINT START WITH '
+        + CAST(COALESCE(MAX(id), 0) + 50 AS NVARCHAR(20)) + N' INCREMENT BY 50' FROM book;
+    EXEC sp_executesql @sql;
+    SELECT @sql = N'CREATE SEQUENCE loan_seq AS BIGINT START WITH '
+        + CAST(COALESCE(MAX(id), 0) + 50 AS NVARCHAR(20)) + N' INCREMENT BY 50' FROM loan;
+    EXEC sp_executesql @sql;
+END;
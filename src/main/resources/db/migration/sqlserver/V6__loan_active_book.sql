@@ -0,0 +1,12 @@
+-- Um emprestimo em aberto por livro, garantido pelo banco: active_book_id
+-- guarda o id do livro enquanto o emprestimo nao foi devolvido e fica nulo
+-- depois. No SQL Server o indice unico precisa ser filtrado para aceitar
+-- varios nulos.
+ALTER TABLE loan ADD active_book_id BIGINT;
+GO
+
+UPDATE loan SET active_book_id = id_book
+WHERE (returned IS NULL OR returned = 0)
+  AND id = (SELECT MAX(l.id) FROM loan l WHERE l.id_book = loan.id_book AND (l.returned IS NULL OR l.returned = 0));
+
+CREATE UNIQUE INDEX uk_loan_active_book ON loan (active_book_id) WHERE active_book_id IS NOT NULL;
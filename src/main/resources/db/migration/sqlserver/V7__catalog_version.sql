@@ -0,0 +1,9 @@
+ALTER TABLE book ADD version BIGINT NOT NULL CONSTRAINT df_book_version DEFAULT 0;
+
+CREATE TABLE catalog_version (
+    id INT NOT NULL,
+    version BIGINT NOT NULL,
+    CONSTRAINT pk_catalog_version PRIMARY KEY (id)
+);
+
+INSERT INTO catalog_version (id, version) VALUES (1, 0);
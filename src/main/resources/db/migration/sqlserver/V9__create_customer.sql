@@ -0,0 +1,50 @@
+-- Clientes saem das colunas de texto de loan para uma tabela propria, com
+-- contadores de emprestimos ativos e atrasados. O backfill cria um cliente
+-- por e-mail distinto e, para emprestimos sem e-mail, um por nome.
+CREATE TABLE customer (
+    id BIGINT NOT NULL,
+    name VARCHAR(255),
+    email VARCHAR(255),
+    active_loans INT NOT NULL CONSTRAINT df_customer_active_loans DEFAULT 0,
+    late_loans INT NOT NULL CONSTRAINT df_customer_late_loans DEFAULT 0,
+    CONSTRAINT pk_customer PRIMARY KEY (id)
+);
+
+INSERT INTO customer (id, name, email)
+SELECT ROW_NUMBER() OVER (ORDER BY k.email, k.name), k.name, k.email FROM (
+    SELECT MAX(customer) AS name, LOWER(customer_email) AS email FROM loan
+    WHERE customer_email IS NOT NULL GROUP BY LOWER(customer_email)
+    UNION ALL
+    SELECT customer AS name, NULL AS email FROM loan
+    WHERE customer_email IS NULL AND customer IS NOT NULL GROUP BY customer
+) k;
+
+ALTER TABLE loan ADD customer_id BIGINT;
+GO
+
+UPDATE loan SET customer_id = (SELECT c.id FROM customer c WHERE c.email = LOWER(loan.customer_email))
+WHERE customer_email IS NOT NULL;
+
+UPDATE loan SET customer_id = (SELECT c.id FROM customer c WHERE c.email IS NULL AND c.name = loan.customer)
+WHERE customer_email IS NULL AND customer IS NOT NULL;
+
+-- late_loans fica a cargo do recalculo agendado
+UPDATE customer SET active_loans = (SELECT COUNT(*) FROM loan l
+    WHERE l.customer_id = customer.id AND (l.returned IS NULL OR l.returned = 0));
+
+CREATE UNIQUE INDEX uk_customer_email ON customer (email) WHERE email IS NOT NULL;
+
+ALTER TABLE loan ADD CONSTRAINT fk_loan_customer FOREIGN KEY (customer_id) REFERENCES customer (id);
+
+DROP INDEX ix_loan_customer ON loan;
+ALTER TABLE loan DROP COLUMN customer, customer_email;
+
+CREATE INDEX ix_loan_customer_id ON loan (customer_id, id);
+
+-- Mesmo criterio da V3: inicio 50 acima do maior id gerado no backfill.
+BEGIN
+    DECLARE @sql NVARCHAR(400);
+    SELECT @sql = N'CREATE SEQUENCE customer_seq AS BIGINT START WITH '
+        + CAST(COALESCE(MAX(id), 0) + 50 AS NVARCHAR(20)) + N' INCREMENT BY 50' FROM customer;
+    EXEC sp_executesql @sql;
+END;
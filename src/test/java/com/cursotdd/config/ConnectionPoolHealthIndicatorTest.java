@@ -0,0 +1,74 @@
+package com.cursotdd.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.sql.Connection;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+public class ConnectionPoolHealthIndicatorTest {
+
+	private HikariDataSource pool;
+	private ConnectionPoolHealthIndicator indicator;
+
+	@BeforeEach
+	public void setUp() {
+		pool = new HikariDataSource();
+		pool.setJdbcUrl("jdbc:h2:mem:pool-health;DB_CLOSE_DELAY=-1");
+		pool.setPoolName("test");
+		pool.setMaximumPoolSize(2);
+		pool.setConnectionTimeout(5000);
+		indicator = new ConnectionPoolHealthIndicator(Collections.singletonList(pool), 0.9);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		pool.close();
+	}
+
+	@Test
+	@DisplayName("Deve ficar UP com o pool ocioso")
+	public void idlePoolTest() throws Exception {
+		pool.getConnection().close();
+
+		Health health = indicator.health();
+
+		assertThat(health.getStatus()).isEqualTo(Status.UP);
+		assertThat(health.getDetails()).containsKey("test");
+	}
+
+	@Test
+	@DisplayName("Deve ficar DEGRADED com threads esperando por conexao")
+	public void saturatedPoolTest() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try (Connection first = pool.getConnection(); Connection second = pool.getConnection()) {
+			Future<?> waiting = executor.submit(() -> {
+				pool.getConnection().close();
+				return null;
+			});
+			while (pool.getHikariPoolMXBean().getThreadsAwaitingConnection() == 0) {
+				Thread.sleep(10);
+			}
+
+			assertThat(indicator.health().getStatus()).isEqualTo(ConnectionPoolHealthIndicator.DEGRADED);
+
+			second.close();
+			waiting.get();
+		} finally {
+			executor.shutdown();
+		}
+
+		assertThat(indicator.health().getStatus()).isEqualTo(Status.UP);
+	}
+}
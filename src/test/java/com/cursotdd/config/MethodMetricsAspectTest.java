@@ -0,0 +1,75 @@
+package com.cursotdd.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+import java.util.Optional;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import com.cursotdd.model.entity.Loan;
+import com.cursotdd.model.repository.CustomerRepository;
+import com.cursotdd.model.repository.LoanEventRepository;
+import com.cursotdd.model.repository.LoanRepository;
+import com.cursotdd.service.BookAvailabilityService;
+import com.cursotdd.service.LoanService;
+import com.cursotdd.service.impl.LoanServiceImpl;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class MethodMetricsAspectTest {
+
+	SimpleMeterRegistry registry;
+
+	LoanRepository repository;
+
+	LoanService service;
+
+	@BeforeEach
+	public void setup() {
+		registry = new SimpleMeterRegistry();
+		repository = Mockito.mock(LoanRepository.class);
+
+		AspectJProxyFactory factory = new AspectJProxyFactory(
+				new LoanServiceImpl(repository, Mockito.mock(CustomerRepository.class),
+						Mockito.mock(LoanEventRepository.class), Mockito.mock(BookAvailabilityService.class), 4));
+		factory.addAspect(new MethodMetricsAspect(registry, 500, Collections.singletonList("LoanServiceImpl.save")));
+		service = factory.getProxy();
+	}
+
+	@Test
+	@DisplayName("Deve registrar o tempo de cada metodo do service com o resultado")
+	public void timeServiceMethodTest() {
+		Mockito.when(repository.findById(1L)).thenReturn(Optional.empty());
+		Mockito.when(repository.saveAndFlush(Mockito.any(Loan.class))).thenThrow(new IllegalStateException());
+
+		service.getById(1L);
+		service.getById(1L);
+		Assertions.catchThrowable(() -> service.save(new Loan()));
+
+		assertThat(registry.get("library.service").tag("class", "LoanServiceImpl").tag("method", "getById")
+				.tag("outcome", "success").timer().count()).isEqualTo(2);
+		assertThat(registry.get("library.service").tag("method", "save").tag("outcome", "error").timer().count())
+				.isEqualTo(1);
+	}
+
+	@Test
+	@DisplayName("Deve publicar o histograma apenas dos metodos configurados")
+	public void histogramMethodsTest() {
+		Mockito.when(repository.findById(1L)).thenReturn(Optional.empty());
+		Mockito.when(repository.saveAndFlush(Mockito.any(Loan.class))).thenThrow(new IllegalStateException());
+
+		service.getById(1L);
+		Assertions.catchThrowable(() -> service.save(new Loan()));
+
+		assertThat(registry.get("library.service").tag("method", "save").tag("outcome", "error").timer()
+				.takeSnapshot().histogramCounts()).isNotEmpty();
+		assertThat(registry.get("library.service").tag("method", "getById").tag("outcome", "success").timer()
+				.takeSnapshot().histogramCounts()).isEmpty();
+	}
+}
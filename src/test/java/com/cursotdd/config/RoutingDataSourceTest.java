@@ -0,0 +1,174 @@
+package com.cursotdd.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Tres H2 locais fazem o papel de primario, scheduler e replica; cada um
+ * responde com o proprio nome para mostrar quem atendeu a consulta.
+ */
+public class RoutingDataSourceTest {
+
+	private EmbeddedDatabase primary;
+	private EmbeddedDatabase scheduler;
+	private EmbeddedDatabase replica;
+
+	private DataSource dataSource;
+	private JdbcTemplate jdbcTemplate;
+	private TransactionTemplate writeTransaction;
+	private TransactionTemplate readOnlyTransaction;
+
+	@BeforeEach
+	public void setUp() {
+		primary = database("primary");
+		scheduler = database("scheduler");
+		replica = database("replica");
+
+		RoutingDataSource routingDataSource = new RoutingDataSource(primary, scheduler, replica);
+		routingDataSource.afterPropertiesSet();
+		dataSource = new LazyConnectionDataSourceProxy(routingDataSource);
+
+		DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+		jdbcTemplate = new JdbcTemplate(dataSource);
+		writeTransaction = new TransactionTemplate(transactionManager);
+		readOnlyTransaction = new TransactionTemplate(transactionManager);
+		readOnlyTransaction.setReadOnly(true);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		primary.shutdown();
+		scheduler.shutdown();
+		replica.shutdown();
+	}
+
+	@Test
+	@DisplayName("Deve enviar transacoes somente leitura para a replica e as demais para o primario")
+	public void routeByReadOnlyTest() {
+		assertThat(readOnlyTransaction.execute(status -> node())).isEqualTo("replica");
+		assertThat(writeTransaction.execute(status -> node())).isEqualTo("primary");
+		assertThat(node()).isEqualTo("primary");
+		assertThat(readOnlyTransaction.execute(status -> node())).isEqualTo("replica");
+	}
+
+	@Test
+	@DisplayName("Deve ler do primario depois de uma escrita na mesma requisicao")
+	public void readYourWritesTest() throws Exception {
+		String[] nodes = new String[3];
+		MockFilterChain chain = new MockFilterChain() {
+			@Override
+			public void doFilter(ServletRequest request, ServletResponse response) {
+				nodes[0] = readOnlyTransaction.execute(status -> node());
+				writeTransaction.execute(status -> node());
+				nodes[1] = readOnlyTransaction.execute(status -> node());
+			}
+		};
+
+		new ReadYourWritesFilter().doFilter(new MockHttpServletRequest(), new MockHttpServletResponse(), chain);
+		nodes[2] = readOnlyTransaction.execute(status -> node());
+
+		assertThat(nodes).containsExactly("replica", "primary", "replica");
+	}
+
+	@Test
+	@DisplayName("Deve usar o pool do scheduler nos jobs, exceto nas leituras enviadas para a replica")
+	public void schedulerWorkloadTest() {
+		Workload.beginScheduled();
+		try {
+			assertThat(writeTransaction.execute(status -> node())).isEqualTo("scheduler");
+			assertThat(node()).isEqualTo("scheduler");
+			assertThat(readOnlyTransaction.execute(status -> node())).isEqualTo("replica");
+		} finally {
+			Workload.end();
+		}
+		assertThat(node()).isEqualTo("primary");
+	}
+
+	/**
+	 * Mesmo caminho da aplicacao com open-in-view desligado: JpaTransactionManager
+	 * do Hibernate, EntityManager compartilhado e um EntityManager por transacao.
+	 */
+	@Test
+	@DisplayName("Deve escrever no primario pelo JPA depois de uma leitura na replica na mesma requisicao")
+	public void jpaWriteAfterReadTest() throws Exception {
+		LocalContainerEntityManagerFactoryBean factoryBean = new LocalContainerEntityManagerFactoryBean();
+		factoryBean.setDataSource(dataSource);
+		factoryBean.setPackagesToScan(getClass().getPackage().getName());
+		factoryBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+		factoryBean.afterPropertiesSet();
+		EntityManagerFactory entityManagerFactory = factoryBean.getObject();
+		try {
+			EntityManager entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+			JpaTransactionManager transactionManager = new JpaTransactionManager(entityManagerFactory);
+			TransactionTemplate jpaWrite = new TransactionTemplate(transactionManager);
+			TransactionTemplate jpaReadOnly = new TransactionTemplate(transactionManager);
+			jpaReadOnly.setReadOnly(true);
+
+			String[] nodes = new String[3];
+			MockFilterChain chain = new MockFilterChain() {
+				@Override
+				public void doFilter(ServletRequest request, ServletResponse response) {
+					nodes[0] = jpaReadOnly.execute(status -> jpaNode(entityManager));
+					nodes[1] = jpaWrite.execute(status -> {
+						entityManager.createNativeQuery("insert into node (name) values ('written')").executeUpdate();
+						return jpaNode(entityManager);
+					});
+					nodes[2] = jpaReadOnly.execute(status -> jpaNode(entityManager));
+				}
+			};
+			new ReadYourWritesFilter().doFilter(new MockHttpServletRequest(), new MockHttpServletResponse(), chain);
+
+			assertThat(nodes).containsExactly("replica", "primary", "primary");
+			assertThat(count(primary, "written")).isEqualTo(1);
+			assertThat(count(replica, "written")).isZero();
+		} finally {
+			entityManagerFactory.close();
+		}
+	}
+
+	private String jpaNode(EntityManager entityManager) {
+		return (String) entityManager.createNativeQuery("select name from node where name <> 'written'")
+				.getSingleResult();
+	}
+
+	private int count(DataSource database, String name) {
+		return new JdbcTemplate(database).queryForObject("select count(*) from node where name = ?", Integer.class,
+				name);
+	}
+
+	private String node() {
+		return jdbcTemplate.queryForObject("select name from node", String.class);
+	}
+
+	private EmbeddedDatabase database(String name) {
+		EmbeddedDatabase database = new EmbeddedDatabaseBuilder().setType(EmbeddedDatabaseType.H2).setName(name)
+				.build();
+		new JdbcTemplate(database).execute("create table node (name varchar(20))");
+		new JdbcTemplate(database).update("insert into node (name) values (?)", name);
+		return database;
+	}
+}
@@ -0,0 +1,31 @@
+package com.cursotdd.config;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+public class VirtualThreadsTest {
+
+	@Test
+	@DisplayName("Deve executar tarefas em virtual threads quando o Java suporta e falhar caso contrario")
+	public void executorTest() throws Exception {
+		if (!VirtualThreads.isSupported()) {
+			Throwable ex = Assertions.catchThrowable(() -> VirtualThreads.executor("test-"));
+
+			assertThat(ex).isInstanceOf(IllegalStateException.class);
+			return;
+		}
+
+		ExecutorService executor = VirtualThreads.executor("test-");
+		Object virtual = executor.submit(() -> Thread.class.getMethod("isVirtual").invoke(Thread.currentThread()))
+				.get(5, TimeUnit.SECONDS);
+		executor.shutdown();
+
+		assertThat(virtual).isEqualTo(true);
+	}
+}
@@ -1,18 +1,26 @@
 package com.cursotdd.model.repository;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Optional;
 
+import javax.persistence.PersistenceException;
+
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.Slice;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import com.cursotdd.dto.KeysetCursor;
 import com.cursotdd.model.entity.Book;
 
 @ExtendWith(SpringExtension.class)
@@ -63,6 +71,21 @@ public class BookRepositoryTest {
 		assertThat(returnedBook.isPresent()).isTrue();
 	}
 
+	@Test
+	@DisplayName("Deve obter um livro por isbn")
+	public void findByIsbnTest() {
+		Book book = createValidBook("123");
+		entityManager.persistAndFlush(book);
+		entityManager.clear();
+
+		Optional<Book> returnedBook = repository.findByIsbn("123");
+		Optional<Book> inexistentBook = repository.findByIsbn("456");
+
+		assertThat(returnedBook.isPresent()).isTrue();
+		assertThat(returnedBook.get().getId()).isEqualTo(book.getId());
+		assertThat(inexistentBook.isPresent()).isFalse();
+	}
+
 	@Test
 	@DisplayName("Deve salvar um livro")
 	public void saveBookTest() {
@@ -87,4 +110,106 @@ public class BookRepositoryTest {
 
 		assertThat(deletedBook).isNull();
 	}
+
+	@Test
+	@DisplayName("Nao deve permitir dois livros com o mesmo isbn")
+	public void uniqueIsbnTest() {
+		entityManager.persist(createValidBook("123"));
+
+		Throwable ex = catchThrowable(() -> entityManager.persistAndFlush(createValidBook("123")));
+
+		assertThat(ex).isInstanceOf(PersistenceException.class);
+	}
+
+	@Test
+	@DisplayName("Deve retornar apenas os isbns ja cadastrados")
+	public void findExistingIsbnsTest() {
+		entityManager.persist(createValidBook("123"));
+		entityManager.persist(createValidBook("456"));
+
+		List<String> isbns = repository.findExistingIsbns(Arrays.asList("123", "789"));
+
+		assertThat(isbns).containsExactly("123");
+	}
+
+	@Test
+	@DisplayName("Deve paginar livros por cursor ordenando pelo id")
+	public void findSliceByIdTest() {
+		Book first = entityManager.persist(createValidBook("1"));
+		Book second = entityManager.persist(createValidBook("2"));
+		Book third = entityManager.persist(createValidBook("3"));
+
+		Slice<Book> firstSlice = repository.findSlice(new Book(), "id", null, 2);
+		Slice<Book> secondSlice = repository.findSlice(new Book(), "id", new KeysetCursor(second.getId(), null), 2);
+
+		assertThat(firstSlice.getContent()).containsExactly(first, second);
+		assertThat(firstSlice.hasNext()).isTrue();
+		assertThat(secondSlice.getContent()).containsExactly(third);
+		assertThat(secondSlice.hasNext()).isFalse();
+	}
+
+	@Test
+	@DisplayName("Deve paginar livros filtrados por cursor ordenando pelo titulo")
+	public void findSliceByTitleTest() {
+		Book b = entityManager.persist(Book.builder().title("B").author("autor").isbn("1").build());
+		Book a = entityManager.persist(Book.builder().title("A").author("autor").isbn("2").build());
+		entityManager.persist(Book.builder().title("C").author("outro").isbn("3").build());
+
+		Book filter = Book.builder().author("AUTOR").build();
+		Slice<Book> firstSlice = repository.findSlice(filter, "title", null, 1);
+		Slice<Book> secondSlice = repository.findSlice(filter, "title", new KeysetCursor(a.getId(), "A"), 1);
+
+		assertThat(firstSlice.getContent()).containsExactly(a);
+		assertThat(secondSlice.getContent()).containsExactly(b);
+		assertThat(secondSlice.hasNext()).isFalse();
+	}
+
+	@Test
+	@DisplayName("Deve incluir os livros sem titulo na paginacao por titulo")
+	public void findSliceByTitleWithNullTitleTest() {
+		Book a = entityManager.persist(Book.builder().title("A").author("autor").isbn("1").build());
+		Book untitled = entityManager.persist(Book.builder().author("autor").isbn("2").build());
+
+		Slice<Book> firstSlice = repository.findSlice(new Book(), "title", null, 1);
+		Slice<Book> secondSlice = repository.findSlice(new Book(), "title",
+				KeysetCursor.decode(new KeysetCursor(untitled.getId(), null).encode()), 1);
+
+		assertThat(firstSlice.getContent()).containsExactly(untitled);
+		assertThat(firstSlice.hasNext()).isTrue();
+		assertThat(secondSlice.getContent()).containsExactly(a);
+		assertThat(secondSlice.hasNext()).isFalse();
+	}
+
+	@Test
+	@DisplayName("Deve tratar % e _ do filtro como texto e nao como curinga")
+	public void findSliceEscapesLikeTest() {
+		Book percent = entityManager.persist(Book.builder().title("100% java").author("autor").isbn("1").build());
+		entityManager.persist(Book.builder().title("1000 javas").author("autor").isbn("2").build());
+
+		Slice<Book> byPercent = repository.findSlice(Book.builder().title("0% j").build(), "id", null, 10);
+		Slice<Book> byUnderscore = repository.findSlice(Book.builder().title("_").build(), "id", null, 10);
+
+		assertThat(byPercent.getContent()).containsExactly(percent);
+		assertThat(byUnderscore.getContent()).isEmpty();
+	}
+
+	@Test
+	@DisplayName("Deve percorrer os livros depois do id informado, desanexando cada um")
+	public void forEachAfterTest() {
+		Book first = entityManager.persist(createValidBook("1"));
+		Book second = entityManager.persist(createValidBook("2"));
+		Book third = entityManager.persist(createValidBook("3"));
+		entityManager.flush();
+
+		List<Long> ids = new ArrayList<>();
+		long count = repository.forEachAfter(first.getId(), 1, book -> {
+			ids.add(book.getId());
+			assertThat(entityManager.getEntityManager().contains(book)).isTrue();
+		});
+
+		assertThat(count).isEqualTo(2);
+		assertThat(ids).containsExactly(second.getId(), third.getId());
+		assertThat(entityManager.getEntityManager().contains(second)).isFalse();
+		assertThat(entityManager.getEntityManager().contains(third)).isFalse();
+	}
 }
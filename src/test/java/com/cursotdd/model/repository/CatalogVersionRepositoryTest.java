@@ -0,0 +1,48 @@
+package com.cursotdd.model.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.cursotdd.model.entity.Book;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+public class CatalogVersionRepositoryTest {
+
+	@Autowired
+	TestEntityManager entityManager;
+
+	@Autowired
+	CatalogVersionRepository repository;
+
+	@Test
+	@DisplayName("Deve incrementar a versao do acervo")
+	public void incrementTest() {
+		Long before = repository.findVersion(1);
+
+		repository.increment(1);
+
+		assertThat(repository.findVersion(1)).isEqualTo(before + 1);
+	}
+
+	@Test
+	@DisplayName("Deve incrementar a versao do livro a cada alteracao")
+	public void bookVersionTest() {
+		Book book = entityManager.persistAndFlush(Book.builder().title("titulo").author("autor").isbn("123").build());
+		Long version = book.getVersion();
+
+		book.setTitle("outro titulo");
+		entityManager.flush();
+
+		assertThat(book.getVersion()).isEqualTo(version + 1);
+	}
+}
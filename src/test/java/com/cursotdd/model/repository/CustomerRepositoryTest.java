@@ -0,0 +1,153 @@
+package com.cursotdd.model.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.cursotdd.model.entity.Book;
+import com.cursotdd.model.entity.Customer;
+import com.cursotdd.model.entity.Loan;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+public class CustomerRepositoryTest {
+
+	private static final LocalDate TODAY = LocalDate.now();
+
+	@Autowired
+	TestEntityManager entityManager;
+
+	@Autowired
+	CustomerRepository repository;
+
+	@Test
+	@DisplayName("Deve somar os emprestimos ativos e atrasados de cada cliente")
+	public void updateLoanCountsTest() {
+		Customer fulano = persistCustomer("fulano@email.com");
+		Customer ciclano = persistCustomer("ciclano@email.com");
+		Loan first = persistLoan(fulano, "1", LocalDate.now().minusDays(5));
+		Loan second = persistLoan(fulano, "2", LocalDate.now());
+		Loan third = persistLoan(ciclano, "3", LocalDate.now());
+		entityManager.flush();
+
+		int updated = repository.updateLoanCounts(Arrays.asList(first.getId(), second.getId(), third.getId()),
+				TODAY, 1);
+		entityManager.clear();
+
+		assertThat(updated).isEqualTo(2);
+		Customer updatedFulano = entityManager.find(Customer.class, fulano.getId());
+		assertThat(updatedFulano.getActiveLoans()).isEqualTo(2);
+		assertThat(updatedFulano.getLateLoans()).isEqualTo(1);
+		assertThat(entityManager.find(Customer.class, ciclano.getId()).getActiveLoans()).isEqualTo(1);
+	}
+
+	@Test
+	@DisplayName("Deve descontar os emprestimos devolvidos")
+	public void releaseLoanCountsTest() {
+		Customer fulano = persistCustomer("fulano@email.com");
+		fulano.setActiveLoans(2);
+		fulano.setLateLoans(1);
+		Loan late = persistLoan(fulano, "1", LocalDate.now().minusDays(5));
+		persistLoan(fulano, "2", LocalDate.now());
+		entityManager.flush();
+
+		repository.updateLoanCounts(Arrays.asList(late.getId()), TODAY, -1);
+		entityManager.clear();
+
+		Customer updated = entityManager.find(Customer.class, fulano.getId());
+		assertThat(updated.getActiveLoans()).isEqualTo(1);
+		assertThat(updated.getLateLoans()).isEqualTo(0);
+	}
+
+	@Test
+	@DisplayName("Nao deve deixar os atrasos negativos ao devolver um emprestimo que venceu depois de registrado")
+	public void releaseUncountedLateLoanTest() {
+		Customer fulano = persistCustomer("fulano@email.com");
+		fulano.setActiveLoans(1);
+		Loan late = persistLoan(fulano, "1", LocalDate.now().minusDays(1));
+		entityManager.flush();
+
+		repository.updateLoanCounts(Arrays.asList(late.getId()), TODAY, -1);
+		entityManager.clear();
+
+		Customer updated = entityManager.find(Customer.class, fulano.getId());
+		assertThat(updated.getActiveLoans()).isEqualTo(0);
+		assertThat(updated.getLateLoans()).isEqualTo(0);
+	}
+
+	@Test
+	@DisplayName("Deve corrigir os atrasos negativos ja gravados")
+	public void refreshNegativeLateLoansTest() {
+		Customer fulano = persistCustomer("fulano@email.com");
+		fulano.setLateLoans(-1);
+		entityManager.flush();
+
+		repository.refreshLateLoans(TODAY);
+		entityManager.clear();
+
+		assertThat(entityManager.find(Customer.class, fulano.getId()).getLateLoans()).isEqualTo(0);
+	}
+
+	@Test
+	@DisplayName("Deve recalcular os atrasos apenas pelos emprestimos em aberto")
+	public void refreshLateLoansTest() {
+		Customer fulano = persistCustomer("fulano@email.com");
+		fulano.setActiveLoans(2);
+		persistLoan(fulano, "1", LocalDate.now().minusDays(5));
+		persistLoan(fulano, "2", LocalDate.now().minusDays(6)).setReturned(true);
+		persistLoan(fulano, "3", LocalDate.now());
+		entityManager.flush();
+
+		repository.refreshLateLoans(TODAY);
+		entityManager.clear();
+
+		assertThat(entityManager.find(Customer.class, fulano.getId()).getLateLoans()).isEqualTo(1);
+	}
+
+	@Test
+	@DisplayName("Deve alterar o prazo do cliente sem regravar os contadores")
+	public void updateLoanDaysTest() {
+		Customer fulano = persistCustomer("fulano@email.com");
+		entityManager.flush();
+		entityManager.getEntityManager().createQuery("update Customer c set c.activeLoans = 3 where c.id = :id")
+				.setParameter("id", fulano.getId()).executeUpdate();
+
+		int updated = repository.updateLoanDays(fulano.getId(), 30);
+
+		assertThat(updated).isEqualTo(1);
+		Customer customer = entityManager.find(Customer.class, fulano.getId());
+		assertThat(customer.getLoanDays()).isEqualTo(30);
+		assertThat(customer.getActiveLoans()).isEqualTo(3);
+	}
+
+	@Test
+	@DisplayName("Deve buscar o cliente pelo e-mail")
+	public void findByEmailTest() {
+		Customer customer = persistCustomer("fulano@email.com");
+
+		assertThat(repository.findByEmail("fulano@email.com")).contains(customer);
+		assertThat(repository.findByEmail("ciclano@email.com")).isEmpty();
+	}
+
+	private Customer persistCustomer(String email) {
+		return entityManager
+				.persist(Customer.builder().name("Fulano").email(email).activeLoans(0).lateLoans(0).build());
+	}
+
+	private Loan persistLoan(Customer customer, String isbn, LocalDate loanDate) {
+		Book book = entityManager.persist(Book.builder().author("autor").isbn(isbn).title("titulo").build());
+		return entityManager.persist(
+				Loan.builder().book(book).customer(customer).loanDate(loanDate).dueDate(loanDate.plusDays(4)).build());
+	}
+}
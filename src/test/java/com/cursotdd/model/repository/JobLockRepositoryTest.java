@@ -0,0 +1,91 @@
+package com.cursotdd.model.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.cursotdd.model.entity.JobLock;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+public class JobLockRepositoryTest {
+
+	private static final String JOB = "late-loans-mail-0";
+
+	@Autowired
+	TestEntityManager entityManager;
+
+	@Autowired
+	JobLockRepository repository;
+
+	@Test
+	@DisplayName("Deve obter um lease expirado incrementando o fencing token")
+	public void acquireTest() {
+		LocalDateTime now = LocalDateTime.now();
+		repository.create(JOB, now.minusSeconds(1));
+
+		int acquired = repository.acquire(JOB, "no-1", now, now.plusMinutes(5));
+		entityManager.clear();
+
+		assertThat(acquired).isEqualTo(1);
+		JobLock lock = entityManager.find(JobLock.class, JOB);
+		assertThat(lock.getOwner()).isEqualTo("no-1");
+		assertThat(lock.getFencingToken()).isEqualTo(1L);
+	}
+
+	@Test
+	@DisplayName("Nao deve obter um lease ainda valido de outro no")
+	public void acquireHeldLeaseTest() {
+		LocalDateTime now = LocalDateTime.now();
+		repository.create(JOB, now.minusSeconds(1));
+		repository.acquire(JOB, "no-1", now, now.plusMinutes(5));
+
+		int acquired = repository.acquire(JOB, "no-2", now.plusMinutes(1), now.plusMinutes(6));
+
+		assertThat(acquired).isZero();
+	}
+
+	@Test
+	@DisplayName("Deve tomar o lease expirado de outro no e invalidar o token antigo")
+	public void takeOverExpiredLeaseTest() {
+		LocalDateTime now = LocalDateTime.now();
+		repository.create(JOB, now.minusSeconds(1));
+		repository.acquire(JOB, "no-1", now, now.plusMinutes(5));
+
+		int acquired = repository.acquire(JOB, "no-2", now.plusMinutes(6), now.plusMinutes(11));
+		int renewed = repository.renew(JOB, "no-1", 1L, now.plusMinutes(6), now.plusMinutes(11));
+		entityManager.clear();
+
+		assertThat(acquired).isEqualTo(1);
+		assertThat(renewed).isZero();
+		JobLock lock = entityManager.find(JobLock.class, JOB);
+		assertThat(lock.getOwner()).isEqualTo("no-2");
+		assertThat(lock.getFencingToken()).isEqualTo(2L);
+	}
+
+	@Test
+	@DisplayName("Deve liberar o lease apenas para o dono com o token atual")
+	public void releaseTest() {
+		LocalDateTime now = LocalDateTime.now();
+		repository.create(JOB, now.minusSeconds(1));
+		repository.acquire(JOB, "no-1", now, now.plusMinutes(5));
+
+		int stale = repository.release(JOB, "no-1", 0L, now);
+		int released = repository.release(JOB, "no-1", 1L, now);
+		int acquired = repository.acquire(JOB, "no-2", now.plusSeconds(1), now.plusMinutes(5));
+
+		assertThat(stale).isZero();
+		assertThat(released).isEqualTo(1);
+		assertThat(acquired).isEqualTo(1);
+	}
+}
@@ -0,0 +1,110 @@
+package com.cursotdd.model.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.cursotdd.model.entity.Book;
+import com.cursotdd.model.entity.Customer;
+import com.cursotdd.model.entity.Loan;
+import com.cursotdd.model.entity.LoanEvent;
+import com.cursotdd.model.entity.LoanEvent.Type;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+public class LoanEventRepositoryTest {
+
+	@Autowired
+	TestEntityManager entityManager;
+
+	@Autowired
+	LoanEventRepository repository;
+
+	@Test
+	@DisplayName("Deve gravar um evento por emprestimo com o livro e o cliente")
+	public void insertEventsTest() {
+		Loan first = persistLoan("1");
+		Loan second = persistLoan("2");
+		entityManager.flush();
+
+		int inserted = repository.insertEvents(Type.LOAN_RETURNED.name(), Arrays.asList(first.getId(),
+				second.getId()), LocalDateTime.now());
+
+		assertThat(inserted).isEqualTo(2);
+		List<LoanEvent> events = repository.findReady(LocalDateTime.now(), PageRequest.of(0, 10));
+		assertThat(events).extracting(LoanEvent::getLoanId).containsExactlyInAnyOrder(first.getId(),
+				second.getId());
+		assertThat(events).extracting(LoanEvent::getType).containsOnly(Type.LOAN_RETURNED);
+		assertThat(events).extracting(LoanEvent::getAttempts).containsOnly(0);
+		assertThat(events.get(0).getBookId()).isNotNull();
+		assertThat(events.get(0).getCustomerId()).isNotNull();
+	}
+
+	@Test
+	@DisplayName("Deve obter os eventos pendentes em ordem, segurando os eventos de um livro com falha")
+	public void findReadyTest() {
+		LocalDateTime now = LocalDateTime.now();
+		LoanEvent failed = persistEvent(1L, now.plusMinutes(1), null);
+		LoanEvent blocked = persistEvent(1L, null, null);
+		LoanEvent ready = persistEvent(2L, null, null);
+		LoanEvent retry = persistEvent(3L, now.minusSeconds(1), null);
+		persistEvent(4L, null, now);
+		entityManager.flush();
+
+		List<LoanEvent> events = repository.findReady(now, PageRequest.of(0, 10));
+
+		assertThat(events).extracting(LoanEvent::getId).containsExactly(ready.getId(), retry.getId());
+		assertThat(events).extracting(LoanEvent::getId).doesNotContain(failed.getId(), blocked.getId());
+	}
+
+	@Test
+	@DisplayName("Deve marcar os eventos processados e remover os antigos")
+	public void markProcessedAndPurgeTest() {
+		LocalDateTime now = LocalDateTime.now();
+		LoanEvent event = persistEvent(1L, null, null);
+		LoanEvent old = persistEvent(2L, null, now.minusDays(2));
+		entityManager.flush();
+
+		int processed = repository.markProcessed(Arrays.asList(event.getId()), now);
+		int deleted = repository.deleteProcessedBefore(now.minusDays(1));
+		entityManager.clear();
+
+		assertThat(processed).isEqualTo(1);
+		assertThat(deleted).isEqualTo(1);
+		assertThat(repository.findReady(now, PageRequest.of(0, 10))).isEmpty();
+		assertThat(repository.existsById(old.getId())).isFalse();
+		assertThat(repository.existsById(event.getId())).isTrue();
+	}
+
+	private LoanEvent persistEvent(Long bookId, LocalDateTime nextAttemptAt, LocalDateTime processedAt) {
+		return entityManager.persist(LoanEvent.builder().type(Type.LOAN_CREATED).loanId(bookId).bookId(bookId)
+				.createdAt(LocalDateTime.now()).attempts(nextAttemptAt == null ? 0 : 1).nextAttemptAt(nextAttemptAt)
+				.processedAt(processedAt).build());
+	}
+
+	private Loan persistLoan(String isbn) {
+		Book book = Book.builder().author("autor").isbn(isbn).title("titulo").build();
+		Customer customer = Customer.builder().name("Fulano").email(isbn + "@email.com").activeLoans(0)
+				.lateLoans(0).build();
+		Loan loan = Loan.builder().book(book).customer(customer).loanDate(LocalDate.now())
+				.dueDate(LocalDate.now().plusDays(4)).build();
+
+		entityManager.persist(book);
+		entityManager.persist(customer);
+		return entityManager.persist(loan);
+	}
+}
@@ -1,9 +1,16 @@
 package com.cursotdd.model.repository;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.persistence.PersistenceException;
 
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -13,10 +20,15 @@ import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import com.cursotdd.dto.LateLoanDto;
+import com.cursotdd.dto.LoanDto;
 import com.cursotdd.model.entity.Book;
+import com.cursotdd.model.entity.Customer;
+import com.cursotdd.model.entity.JobLock;
 import com.cursotdd.model.entity.Loan;
 
 @ExtendWith(SpringExtension.class)
@@ -30,12 +42,15 @@ public class LoanRepositoryTest {
 	@Autowired
 	LoanRepository repository;
 
+	@Autowired
+	CustomerRepository customerRepository;
+
 	@Test
 	@DisplayName("deve verificar se existe emprestimo nao devolvido para o livro")
 	public void existsByBookAndNotReturnedTest() {
 
 		Book book = Book.builder().author("autor").isbn("123").title("titulo").build();
-		Loan loan = Loan.builder().book(book).customer("Fulano").loanDate(LocalDate.now()).build();
+		Loan loan = Loan.builder().book(book).customer(customer("Fulano")).loanDate(LocalDate.now()).build();
 
 		entityManager.persist(book);
 		entityManager.persist(loan);
@@ -46,30 +61,118 @@ public class LoanRepositoryTest {
 	}
 
 	@Test
-	@DisplayName("deve buscar emprestimo por isbn ou customer")
-	public void findByBookIsbnOrCustomerTest() {
+	@DisplayName("nao deve permitir dois emprestimos em aberto para o mesmo livro")
+	public void uniqueActiveLoanTest() {
+		Book book = Book.builder().author("autor").isbn("123").title("titulo").build();
+		entityManager.persist(book);
+		entityManager.persist(Loan.builder().book(book).customer(customer("Fulano")).loanDate(LocalDate.now()).build());
+
+		Loan secondLoan = Loan.builder().book(book).customer(customer("Ciclano")).loanDate(LocalDate.now()).build();
+		Throwable ex = catchThrowable(() -> entityManager.persistAndFlush(secondLoan));
+
+		assertThat(ex).isInstanceOf(PersistenceException.class);
+	}
+
+	@Test
+	@DisplayName("deve permitir novo emprestimo depois da devolucao do livro")
+	public void loanAfterReturnTest() {
+		Book book = Book.builder().author("autor").isbn("123").title("titulo").build();
+		Loan loan = Loan.builder().book(book).customer(customer("Fulano")).loanDate(LocalDate.now()).build();
+		entityManager.persist(book);
+		entityManager.persistAndFlush(loan);
+
+		loan.setReturned(true);
+		entityManager.flush();
+		Loan newLoan = entityManager.persistAndFlush(
+				Loan.builder().book(book).customer(customer("Ciclano")).loanDate(LocalDate.now()).build());
+
+		assertThat(loan.getActiveBookId()).isNull();
+		assertThat(newLoan.getActiveBookId()).isEqualTo(book.getId());
+	}
 
+	@Test
+	@DisplayName("deve buscar emprestimos ja convertidos em dto por isbn ou customer")
+	public void findDtoByBookIsbnOrCustomerTest() {
 		Book book = Book.builder().author("autor").isbn("123").title("titulo").build();
-		Loan loan = Loan.builder().book(book).customer("Fulano").loanDate(LocalDate.now()).build();
+		Loan loan = Loan.builder().book(book).customer(customer("Fulano", "fulano@email.com"))
+				.loanDate(LocalDate.now()).build();
 
 		entityManager.persist(book);
 		entityManager.persist(loan);
 
-		Page<Loan> result = repository.findByBookIsbnOrCustomer(book.getIsbn(), loan.getCustomer(),
+		Page<LoanDto> result = repository.findDtoByBookIsbnOrCustomer(book.getIsbn(), "Ciclano",
 				PageRequest.of(0, 10));
 
-		assertThat(result.getContent()).hasSize(1);
-		assertThat(result.getContent()).contains(loan);
-		assertThat(result.getPageable().getPageSize()).isEqualTo(10);
-		assertThat(result.getPageable().getPageNumber()).isEqualTo(0);
 		assertThat(result.getTotalElements()).isEqualTo(1);
+		LoanDto dto = result.getContent().get(0);
+		assertThat(dto.getId()).isEqualTo(loan.getId());
+		assertThat(dto.getCustomerEmail()).isEqualTo("fulano@email.com");
+		assertThat(dto.getBook().getId()).isEqualTo(book.getId());
+		assertThat(dto.getBook().getTitle()).isEqualTo("titulo");
+	}
+
+	@Test
+	@DisplayName("deve buscar emprestimos de um livro ja convertidos em dto")
+	public void findDtoByBookIdTest() {
+		Book book = Book.builder().author("autor").isbn("123").title("titulo").build();
+		Loan loan = Loan.builder().book(book).customer(customer("Fulano")).loanDate(LocalDate.now()).build();
+
+		entityManager.persist(book);
+		entityManager.persist(loan);
+
+		Page<LoanDto> result = repository.findDtoByBookId(book.getId(), PageRequest.of(0, 10));
+
+		assertThat(result.getContent()).extracting(LoanDto::getId).containsExactly(loan.getId());
+		assertThat(result.getContent().get(0).getIsbn()).isEqualTo("123");
+	}
+
+	@Test
+	@DisplayName("deve buscar o historico de emprestimos do cliente ja convertido em dto")
+	public void findDtoByCustomerIdTest() {
+		Loan first = persistLoan("1");
+		Loan second = persistLoan("2");
+		Book book = Book.builder().author("autor").isbn("3").title("titulo").build();
+		entityManager.persist(book);
+		entityManager
+				.persist(Loan.builder().book(book).customer(customer("Ciclano")).loanDate(LocalDate.now()).build());
+
+		Page<LoanDto> result = repository.findDtoByCustomerId(first.getCustomer().getId(), PageRequest.of(0, 10));
+
+		assertThat(result.getTotalElements()).isEqualTo(2);
+		assertThat(result.getContent()).extracting(LoanDto::getId).containsExactlyInAnyOrder(first.getId(),
+				second.getId());
+		assertThat(result.getContent().get(0).getCustomerEmail()).isEqualTo("fulano@email.com");
+	}
+
+	@Test
+	@DisplayName("deve paginar emprestimos por cursor sem consulta de contagem")
+	public void findDtoSliceByBookIsbnOrCustomerTest() {
+		Book book = Book.builder().author("autor").isbn("123").title("titulo").build();
+		Loan first = Loan.builder().book(book).customer(customer("Fulano")).loanDate(LocalDate.now()).returned(true)
+				.build();
+		Loan second = Loan.builder().book(book).customer(customer("Fulano")).loanDate(LocalDate.now()).build();
+
+		entityManager.persist(book);
+		entityManager.persist(first);
+		entityManager.persist(second);
+
+		Slice<LoanDto> firstSlice = repository.findDtoSliceByBookIsbnOrCustomer("123", "Fulano", 0L,
+				PageRequest.of(0, 1));
+		Slice<LoanDto> secondSlice = repository.findDtoSliceByBookIsbnOrCustomer("123", "Fulano", first.getId(),
+				PageRequest.of(0, 1));
+
+		assertThat(firstSlice.getContent()).extracting(LoanDto::getId).containsExactly(first.getId());
+		assertThat(firstSlice.hasNext()).isTrue();
+		assertThat(secondSlice.getContent()).extracting(LoanDto::getId).containsExactly(second.getId());
+		assertThat(secondSlice.hasNext()).isFalse();
 	}
 
 	@Test
 	@DisplayName("Deve obter emprestimos atrasados 3 dias")
 	public void findByLoanDateLessThanAndNotReturnedTest() {
 		Book book = Book.builder().author("autor").isbn("123").title("titulo").build();
-		Loan loan = Loan.builder().book(book).customer("Fulano").loanDate(LocalDate.now().minusDays(5)).build();
+		Loan loan = Loan.builder().book(book).customer(customer("Fulano")).loanDate(LocalDate.now().minusDays(5))
+				.build();
 
 		entityManager.persist(book);
 		entityManager.persist(loan);
@@ -83,7 +186,7 @@ public class LoanRepositoryTest {
 	@DisplayName("Deve retornar vazio quando nao existir emprestimos atrasados")
 	public void notFindByLoanDateLessThanAndNotReturnedTest() {
 		Book book = Book.builder().author("autor").isbn("123").title("titulo").build();
-		Loan loan = Loan.builder().book(book).customer("Fulano").loanDate(LocalDate.now()).build();
+		Loan loan = Loan.builder().book(book).customer(customer("Fulano")).loanDate(LocalDate.now()).build();
 
 		entityManager.persist(book);
 		entityManager.persist(loan);
@@ -92,4 +195,225 @@ public class LoanRepositoryTest {
 
 		assertThat(result).isEmpty();
 	}
+
+	@Test
+	@DisplayName("Deve obter apenas os emprestimos vencidos desde a marca d'agua e ainda nao avisados")
+	public void findNewlyLateLoansTest() {
+		LocalDate today = LocalDate.now();
+		Loan late = persistLateLoan("1", "a@email.com", today.minusDays(1));
+		persistLateLoan("2", "b@email.com", today.minusDays(5));
+		persistLateLoan("3", "c@email.com", today.minusDays(1)).setLateNotifiedAt(LocalDateTime.now());
+		persistLateLoan("4", "d@email.com", today.minusDays(1)).setReturned(true);
+		persistLateLoan("5", "e@email.com", today.plusDays(1));
+		entityManager.flush();
+
+		List<LateLoanDto> loans = repository.findNewlyLateLoans(today.minusDays(2), Long.MAX_VALUE, today, 0, 1,
+				PageRequest.of(0, 10));
+
+		assertThat(loans).extracting(LateLoanDto::getId).containsExactly(late.getId());
+		assertThat(loans.get(0).getCustomerEmail()).isEqualTo("a@email.com");
+		assertThat(loans.get(0).getDueDate()).isEqualTo(today.minusDays(1));
+	}
+
+	@Test
+	@DisplayName("Deve continuar a leitura dos emprestimos vencidos depois do ultimo emprestimo lido")
+	public void findNewlyLateLoansAfterLastTest() {
+		LocalDate today = LocalDate.now();
+		Loan first = persistLateLoan("1", "a@email.com", today.minusDays(1));
+		Loan second = persistLateLoan("2", "b@email.com", today.minusDays(1));
+		Loan third = persistLateLoan("3", "c@email.com", today);
+		Loan earlier = persistLateLoan("4", "d@email.com", today.minusDays(2));
+		entityManager.flush();
+
+		List<LateLoanDto> loans = repository.findNewlyLateLoans(today.minusDays(1), first.getId(), today, 0, 1,
+				PageRequest.of(0, 10));
+
+		assertThat(loans).extracting(LateLoanDto::getId).containsExactly(second.getId(), third.getId())
+				.doesNotContain(earlier.getId());
+	}
+
+	@Test
+	@DisplayName("Deve separar os emprestimos vencidos em fatias pelo id do cliente")
+	public void findNewlyLateLoansByShardTest() {
+		LocalDate today = LocalDate.now();
+		Loan first = persistLateLoan("1", "a@email.com", today.minusDays(1));
+		Loan second = persistLateLoan("2", "b@email.com", today.minusDays(1));
+		entityManager.flush();
+		int firstShard = (int) (first.getCustomer().getId() % 2);
+		int secondShard = (int) (second.getCustomer().getId() % 2);
+
+		List<LateLoanDto> loans = repository.findNewlyLateLoans(today.minusDays(2), Long.MAX_VALUE, today,
+				firstShard, 2, PageRequest.of(0, 10));
+
+		assertThat(loans).extracting(LateLoanDto::getId).contains(first.getId());
+		if (firstShard != secondShard) {
+			assertThat(loans).extracting(LateLoanDto::getId).doesNotContain(second.getId());
+		}
+	}
+
+	@Test
+	@DisplayName("Deve marcar os emprestimos avisados com o lease do job")
+	public void markLateNotifiedTest() {
+		LocalDate today = LocalDate.now();
+		Loan late = persistLateLoan("1", "a@email.com", today.minusDays(1));
+		JobLock lock = persistJobLock("no-1", 3L);
+		entityManager.flush();
+
+		int updated = repository.markLateNotified(Arrays.asList(late.getId()), LocalDateTime.now(), lock.getName(),
+				"no-1", 3L);
+
+		assertThat(updated).isEqualTo(1);
+		assertThat(repository.findNewlyLateLoans(today.minusDays(2), Long.MAX_VALUE, today, 0, 1,
+				PageRequest.of(0, 10))).isEmpty();
+	}
+
+	@Test
+	@DisplayName("Nao deve marcar os emprestimos avisados com um fencing token antigo")
+	public void markLateNotifiedStaleTokenTest() {
+		LocalDate today = LocalDate.now();
+		Loan late = persistLateLoan("1", "a@email.com", today.minusDays(1));
+		JobLock lock = persistJobLock("no-2", 4L);
+		entityManager.flush();
+
+		int updated = repository.markLateNotified(Arrays.asList(late.getId()), LocalDateTime.now(), lock.getName(),
+				"no-1", 3L);
+
+		assertThat(updated).isZero();
+		assertThat(repository.findNewlyLateLoans(today.minusDays(2), Long.MAX_VALUE, today, 0, 1,
+				PageRequest.of(0, 10))).extracting(LateLoanDto::getId).containsExactly(late.getId());
+	}
+
+	@Test
+	@DisplayName("Deve listar os livros com emprestimo em aberto em ordem de id")
+	public void findActiveBookIdsTest() {
+		Loan first = persistLoan("1");
+		Loan second = persistLoan("2");
+		persistLoan("3").setReturned(true);
+		entityManager.flush();
+
+		List<Long> bookIds = repository.findActiveBookIds(0L, PageRequest.of(0, 10));
+
+		assertThat(bookIds).containsExactly(first.getBook().getId(), second.getBook().getId());
+		assertThat(repository.findActiveBookIds(first.getBook().getId(), PageRequest.of(0, 10)))
+				.containsExactly(second.getBook().getId());
+		assertThat(repository.findBookIds(Arrays.asList(first.getId()))).containsExactly(first.getBook().getId());
+	}
+
+	@Test
+	@DisplayName("deve contar os emprestimos atrasados nao devolvidos")
+	public void countLateLoansTest() {
+		persistLateLoan("1", "a@email.com", LocalDate.now().minusDays(1));
+		persistLateLoan("2", "b@email.com", LocalDate.now());
+		persistLateLoan("3", "c@email.com", LocalDate.now().plusDays(1));
+
+		long count = repository.countLateLoans(LocalDate.now());
+
+		assertThat(count).isEqualTo(2);
+	}
+
+	@Test
+	@DisplayName("deve devolver emprestimos em lote liberando os livros")
+	public void markReturnedTest() {
+		Loan first = persistLoan("1");
+		Loan second = persistLoan("2");
+		Loan third = persistLoan("3");
+		entityManager.flush();
+
+		int updated = repository.markReturned(Arrays.asList(first.getId(), second.getId()));
+		entityManager.clear();
+
+		assertThat(updated).isEqualTo(2);
+		assertThat(repository.findOpenLoanIds(Arrays.asList(first.getId(), second.getId(), third.getId())))
+				.containsExactly(third.getId());
+		Loan returned = entityManager.find(Loan.class, first.getId());
+		assertThat(returned.getReturned()).isTrue();
+		assertThat(returned.getActiveBookId()).isNull();
+	}
+
+	@Test
+	@DisplayName("deve reabrir um emprestimo devolvido com novo vencimento e sem o aviso de atraso")
+	public void markNotReturnedTest() {
+		Loan loan = persistLoan("1");
+		loan.setLateNotifiedAt(LocalDateTime.now());
+		entityManager.flush();
+		repository.markReturned(Arrays.asList(loan.getId()));
+		LocalDate dueDate = LocalDate.now().plusDays(4);
+
+		int updated = repository.markNotReturned(loan.getId(), dueDate);
+		entityManager.clear();
+
+		assertThat(updated).isEqualTo(1);
+		Loan reopened = entityManager.find(Loan.class, loan.getId());
+		assertThat(reopened.getReturned()).isFalse();
+		assertThat(reopened.getActiveBookId()).isEqualTo(reopened.getBook().getId());
+		assertThat(reopened.getDueDate()).isEqualTo(dueDate);
+		assertThat(reopened.getLateNotifiedAt()).isNull();
+	}
+
+	@Test
+	@DisplayName("deve buscar os emprestimos em aberto pelos isbns")
+	public void findOpenLoanIdsByIsbnsTest() {
+		Loan open = persistLoan("1");
+		Loan returned = persistLoan("2");
+		returned.setReturned(true);
+		entityManager.flush();
+
+		List<Long> ids = repository.findOpenLoanIdsByIsbns(Arrays.asList("1", "2", "3"));
+		List<LoanDto> loans = repository.findDtoByIds(ids);
+
+		assertThat(ids).containsExactly(open.getId());
+		assertThat(loans).hasSize(1);
+		assertThat(loans.get(0).getId()).isEqualTo(open.getId());
+		assertThat(loans.get(0).getIsbn()).isEqualTo("1");
+	}
+
+	@Test
+	@DisplayName("Deve transmitir os emprestimos depois do id informado em ordem de id")
+	public void streamDtoAfterTest() {
+		Loan first = persistLoan("1");
+		Loan second = persistLoan("2");
+		Loan third = persistLoan("3");
+		entityManager.flush();
+
+		List<LoanDto> loans;
+		try (Stream<LoanDto> stream = repository.streamDtoAfter(first.getId())) {
+			loans = stream.collect(Collectors.toList());
+		}
+
+		assertThat(loans).extracting(LoanDto::getId).containsExactly(second.getId(), third.getId());
+		assertThat(loans.get(0).getIsbn()).isEqualTo("2");
+		assertThat(loans.get(0).getCustomer()).isEqualTo("Fulano");
+		assertThat(loans.get(0).getBook().getId()).isEqualTo(second.getBook().getId());
+	}
+
+	private Customer customer(String name) {
+		return customer(name, name.toLowerCase() + "@email.com");
+	}
+
+	private Customer customer(String name, String email) {
+		return customerRepository.findByEmail(email).orElseGet(() -> entityManager
+				.persist(Customer.builder().name(name).email(email).activeLoans(0).lateLoans(0).build()));
+	}
+
+	private Loan persistLoan(String isbn) {
+		Book book = Book.builder().author("autor").isbn(isbn).title("titulo").build();
+		Loan loan = Loan.builder().book(book).customer(customer("Fulano")).loanDate(LocalDate.now()).build();
+
+		entityManager.persist(book);
+		return entityManager.persist(loan);
+	}
+
+	private Loan persistLateLoan(String isbn, String email, LocalDate dueDate) {
+		Book book = Book.builder().author("autor").isbn(isbn).title("titulo").build();
+		Loan loan = Loan.builder().book(book).customer(customer("Fulano", email)).loanDate(dueDate.minusDays(4))
+				.dueDate(dueDate).build();
+
+		entityManager.persist(book);
+		return entityManager.persist(loan);
+	}
+
+	private JobLock persistJobLock(String owner, Long token) {
+		return entityManager.persist(JobLock.builder().name("late-loans-mail-0").owner(owner)
+				.lockedUntil(LocalDateTime.now().plusMinutes(5)).fencingToken(token).build());
+	}
 }
@@ -0,0 +1,77 @@
+package com.cursotdd.model.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.cursotdd.model.entity.PendingMail;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+public class PendingMailRepositoryTest {
+
+	@Autowired
+	TestEntityManager entityManager;
+
+	@Autowired
+	PendingMailRepository repository;
+
+	@Test
+	@DisplayName("Deve obter apenas os e-mails pendentes cujo prazo venceu")
+	public void findExpiredTest() {
+		LocalDateTime now = LocalDateTime.now();
+		PendingMail expired = persist("a@email.com", now.minusMinutes(1));
+		persist("b@email.com", now.plusMinutes(5));
+
+		List<PendingMail> mails = repository.findExpired(now, PageRequest.of(0, 10));
+
+		assertThat(mails).extracting(PendingMail::getId).containsExactly(expired.getId());
+	}
+
+	@Test
+	@DisplayName("Deve reclamar um e-mail vencido uma unica vez")
+	public void claimTest() {
+		LocalDateTime now = LocalDateTime.now();
+		PendingMail mail = persist("a@email.com", now.minusMinutes(1));
+
+		int first = repository.claim(mail.getId(), now, now.plusMinutes(10));
+		int second = repository.claim(mail.getId(), now.plusSeconds(1), now.plusMinutes(11));
+
+		assertThat(first).isEqualTo(1);
+		assertThat(second).isZero();
+		assertThat(repository.findExpired(now, PageRequest.of(0, 10))).isEmpty();
+	}
+
+	@Test
+	@DisplayName("Deve apagar os e-mails enviados")
+	public void deleteByIdsTest() {
+		LocalDateTime now = LocalDateTime.now();
+		PendingMail sent = persist("a@email.com", now);
+		PendingMail pending = persist("b@email.com", now);
+
+		int deleted = repository.deleteByIds(Arrays.asList(sent.getId()));
+
+		assertThat(deleted).isEqualTo(1);
+		assertThat(repository.findAll()).extracting(PendingMail::getId).containsExactly(pending.getId());
+	}
+
+	private PendingMail persist(String recipient, LocalDateTime claimedUntil) {
+		PendingMail mail = entityManager.persistAndFlush(PendingMail.builder().recipient(recipient).subject("assunto")
+				.body("mensagem").createdAt(LocalDateTime.now()).claimedUntil(claimedUntil).build());
+		entityManager.clear();
+		return mail;
+	}
+}
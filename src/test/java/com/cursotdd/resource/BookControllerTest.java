@@ -1,39 +1,68 @@
 package com.cursotdd.resource;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 
+import org.assertj.core.api.Assertions;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.BDDMockito;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataAccessResourceFailureException;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
 import com.cursotdd.dto.BookDto;
+import com.cursotdd.dto.BookImportResultDto;
+import com.cursotdd.dto.BookSearchResultDto;
+import com.cursotdd.dto.BookImportResultDto.Status;
+import com.cursotdd.dto.CursorPageDto;
 import com.cursotdd.exception.BusinessException;
 import com.cursotdd.model.entity.Book;
 import com.cursotdd.resources.BookController;
+import com.cursotdd.service.BookAvailabilityService;
+import com.cursotdd.service.BookSearchService;
 import com.cursotdd.service.BookService;
+import com.cursotdd.service.CatalogVersionService;
 import com.cursotdd.service.LoanService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import reactor.core.publisher.Flux;
+
 @ExtendWith(SpringExtension.class)
 @ActiveProfiles("test")
 @WebMvcTest(controllers = BookController.class)
@@ -51,6 +80,15 @@ class BookControllerTest {
 	@MockBean
 	LoanService loanService;
 
+	@MockBean
+	BookSearchService searchService;
+
+	@MockBean
+	CatalogVersionService catalogVersionService;
+
+	@MockBean
+	BookAvailabilityService availabilityService;
+
 	@Test
 	@DisplayName("Deve criar um livro com sucesso")
 	void createBookTest() throws Exception {
@@ -110,6 +148,20 @@ class BookControllerTest {
 				.andExpect(jsonPath("title").value(book.getTitle()));
 	}
 
+	@Test
+	@DisplayName("Deve retornar 304 quando o ETag do livro nao mudou")
+	public void getNotModifiedBookTest() throws Exception {
+		Book book = Book.builder().id(1L).author("Autor").title("Meu Livro").isbn("123456").version(3L).build();
+		BDDMockito.given(service.getById(1L)).willReturn(Optional.of(book));
+
+		mvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("/1")).accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk()).andExpect(header().string(HttpHeaders.ETAG, "\"1-3\""))
+				.andExpect(header().string(HttpHeaders.CACHE_CONTROL, Matchers.containsString("public")));
+
+		mvc.perform(MockMvcRequestBuilders.get(BOOK_API.concat("/1")).header(HttpHeaders.IF_NONE_MATCH, "\"1-3\""))
+				.andExpect(status().isNotModified()).andExpect(content().string(""));
+	}
+
 	@Test
 	@DisplayName("Deve retornar notfound quando nao encontrar detalhes de um livro")
 	public void getInvalidBookDetailsTest() throws Exception {
@@ -158,7 +210,7 @@ class BookControllerTest {
 
 		BDDMockito.given(service.getById(id)).willReturn(Optional.of(updatingBook));
 
-		BDDMockito.given(service.update(updatingBook)).willReturn(updatedBook);
+		BDDMockito.given(service.update(Mockito.any(Book.class))).willReturn(updatedBook);
 
 		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.put(BOOK_API.concat("/" + id))
 				.contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON).content(json);
@@ -166,6 +218,13 @@ class BookControllerTest {
 		mvc.perform(request).andExpect(status().isOk()).andExpect(jsonPath("id").value(id))
 				.andExpect(jsonPath("title").value(createNewBookDto().getTitle()))
 				.andExpect(jsonPath("isbn").value("456"));
+
+		ArgumentCaptor<Book> captor = ArgumentCaptor.forClass(Book.class);
+		Mockito.verify(service).update(captor.capture());
+		assertThat(captor.getValue()).isNotSameAs(updatingBook);
+		assertThat(captor.getValue().getTitle()).isEqualTo("Meu Livro");
+		assertThat(captor.getValue().getIsbn()).isEqualTo("456");
+		assertThat(updatingBook.getTitle()).isEqualTo("title 1");
 	}
 
 	@Test
@@ -192,6 +251,7 @@ class BookControllerTest {
 
 		BDDMockito.given(service.find(Mockito.any(Book.class), Mockito.any(Pageable.class)))
 				.willReturn(new PageImpl<Book>(Collections.singletonList(book), PageRequest.of(0, 100), 1));
+		BDDMockito.given(availabilityService.isAvailable(id)).willReturn(false);
 
 		String queryString = String.format("?title=%s&author=%s&page=0&size=100", book.getTitle(), book.getAuthor());
 
@@ -200,7 +260,262 @@ class BookControllerTest {
 
 		mvc.perform(request).andExpect(status().isOk()).andExpect(jsonPath("content", Matchers.hasSize(1)))
 				.andExpect(jsonPath("totalElements").value(1)).andExpect(jsonPath("pageable.pageSize").value(100))
-				.andExpect(jsonPath("pageable.pageNumber").value(0));
+				.andExpect(jsonPath("pageable.pageNumber").value(0))
+				.andExpect(jsonPath("content[0].available").value(false));
+	}
+
+	@Test
+	@DisplayName("Deve retornar 304 na listagem sem consultar o banco quando o acervo nao mudou")
+	public void findNotModifiedBooksTest() throws Exception {
+		BDDMockito.given(catalogVersionService.current()).willReturn(7L);
+		BDDMockito.given(availabilityService.checksum()).willReturn(42L);
+
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.get(BOOK_API.concat("?title=Livro"))
+				.header(HttpHeaders.IF_NONE_MATCH, "W/\"catalog-7-2a\"");
+
+		mvc.perform(request).andExpect(status().isNotModified())
+				.andExpect(header().string(HttpHeaders.ETAG, "\"catalog-7-2a\""));
+
+		Mockito.verify(service, Mockito.never()).find(Mockito.any(Book.class), Mockito.any(Pageable.class));
+	}
+
+	@Test
+	@DisplayName("Deve criar livros em lote")
+	public void createBatchTest() throws Exception {
+		List<BookDto> dtos = Arrays.asList(createNewBookDto(), createNewBookDto());
+		String json = new ObjectMapper().writeValueAsString(dtos);
+
+		BDDMockito.given(service.saveAll(Mockito.anyList())).willReturn(Arrays.asList(
+				BookImportResultDto.builder().id(1L).isbn("123456").status(Status.CREATED).build(),
+				BookImportResultDto.builder().isbn("123456").status(Status.DUPLICATED).build()));
+
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.post(BOOK_API.concat("/batch"))
+				.contentType(MediaType.APPLICATION_JSON).accept(MediaType.APPLICATION_JSON).content(json);
+
+		mvc.perform(request).andExpect(status().isOk()).andExpect(jsonPath("$", Matchers.hasSize(2)))
+				.andExpect(jsonPath("$[0].status").value("CREATED")).andExpect(jsonPath("$[1].status").value("DUPLICATED"));
+	}
+
+	@Test
+	@DisplayName("Deve importar livros a partir de um csv")
+	public void createBatchFromCsvTest() throws Exception {
+		String csv = "isbn,title,author\n123,\"Meu Livro, volume 1\",Autor\n456,Outro Livro,Autor\n";
+
+		BDDMockito.given(service.saveAll(Mockito.anyList())).willReturn(Arrays.asList(
+				BookImportResultDto.builder().id(1L).isbn("123").status(Status.CREATED).build(),
+				BookImportResultDto.builder().id(2L).isbn("456").status(Status.CREATED).build()));
+
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.post(BOOK_API.concat("/batch"))
+				.contentType(BookController.CSV_VALUE).content(csv);
+
+		mvc.perform(request).andExpect(status().isOk())
+				.andExpect(content().contentTypeCompatibleWith(BookController.NDJSON_VALUE));
+
+		ArgumentCaptor<List<Book>> captor = ArgumentCaptor.forClass(List.class);
+		Mockito.verify(service).saveAll(captor.capture());
+		assertThat(captor.getValue()).extracting(Book::getTitle).containsExactly("Meu Livro, volume 1",
+				"Outro Livro");
+	}
+
+	@Test
+	@DisplayName("Deve reprocessar o bloco da importacao quando outro cliente grava o mesmo isbn")
+	public void createBatchStreamConcurrentIsbnTest() throws Exception {
+		String csv = "123,Meu Livro,Autor\n456,Outro Livro,Autor\n";
+
+		BDDMockito.given(service.saveAll(Mockito.anyList())).willThrow(new BusinessException("isbn ja cadastrado"))
+				.willReturn(Arrays.asList(
+						BookImportResultDto.builder().isbn("123").status(Status.DUPLICATED).build(),
+						BookImportResultDto.builder().id(2L).isbn("456").status(Status.CREATED).build()));
+
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.post(BOOK_API.concat("/batch"))
+				.contentType(BookController.CSV_VALUE).content(csv);
+
+		MvcResult result = mvc.perform(request).andExpect(status().isOk()).andReturn();
+
+		String[] lines = result.getResponse().getContentAsString().trim().split("\n");
+		assertThat(lines).hasSize(2);
+		assertThat(lines[0]).contains("\"isbn\":\"123\"").contains("\"status\":\"DUPLICATED\"");
+		assertThat(lines[1]).contains("\"isbn\":\"456\"").contains("\"status\":\"CREATED\"");
+		Mockito.verify(service, Mockito.times(2)).saveAll(Mockito.anyList());
+	}
+
+	@Test
+	@DisplayName("Deve reportar o bloco da importacao como invalido quando o reprocessamento tambem falha")
+	public void createBatchStreamChunkFailureTest() throws Exception {
+		String ndjson = "{\"isbn\":\"123\",\"title\":\"Meu Livro\",\"author\":\"Autor\"}\n";
+
+		BDDMockito.given(service.saveAll(Mockito.anyList())).willThrow(new BusinessException("isbn ja cadastrado"));
+
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.post(BOOK_API.concat("/batch"))
+				.contentType(BookController.NDJSON_VALUE).content(ndjson);
+
+		MvcResult result = mvc.perform(request).andExpect(status().isOk()).andReturn();
+
+		String[] lines = result.getResponse().getContentAsString().trim().split("\n");
+		assertThat(lines).hasSize(1);
+		assertThat(lines[0]).contains("\"status\":\"INVALID\"").contains("\"message\":\"isbn ja cadastrado\"");
+	}
+
+	@Test
+	@DisplayName("Deve importar um csv com quebra de linha dentro de um campo entre aspas")
+	public void createBatchFromMultilineCsvTest() throws Exception {
+		String csv = "isbn,title,author\n123,\"Meu Livro\nvolume 1\",Autor\n456,Outro Livro,Autor\n";
+
+		BDDMockito.given(service.saveAll(Mockito.anyList())).willReturn(Arrays.asList(
+				BookImportResultDto.builder().id(1L).isbn("123").status(Status.CREATED).build(),
+				BookImportResultDto.builder().id(2L).isbn("456").status(Status.CREATED).build()));
+
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.post(BOOK_API.concat("/batch"))
+				.contentType(BookController.CSV_VALUE).content(csv);
+
+		mvc.perform(request).andExpect(status().isOk());
+
+		ArgumentCaptor<List<Book>> captor = ArgumentCaptor.forClass(List.class);
+		Mockito.verify(service).saveAll(captor.capture());
+		assertThat(captor.getValue()).extracting(Book::getTitle).containsExactly("Meu Livro\nvolume 1",
+				"Outro Livro");
+	}
+
+	@Test
+	@DisplayName("Deve interromper a resposta, sem fecha-la, quando a exportacao falha no meio")
+	public void exportBooksInterruptedTest() throws Exception {
+		Book book = Book.builder().id(1L).isbn("123").title("Meu Livro").author("Autor").build();
+		BDDMockito.given(service.export(Mockito.eq(0L), Mockito.any())).willAnswer(invocation -> {
+			Consumer<Book> consumer = invocation.getArgument(1);
+			consumer.accept(book);
+			throw new DataAccessResourceFailureException("banco fora");
+		});
+
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.get(BOOK_API.concat("/export"))
+				.header(HttpHeaders.ACCEPT_ENCODING, "gzip");
+
+		Throwable ex = Assertions.catchThrowable(() -> mvc.perform(request));
+
+		assertThat(ex).isInstanceOf(IOException.class)
+				.hasCauseInstanceOf(DataAccessResourceFailureException.class);
+	}
+
+	@Test
+	@DisplayName("Deve exportar os livros em csv a partir do ultimo id recebido")
+	public void exportBooksAsCsvTest() throws Exception {
+		Book book = Book.builder().id(11L).isbn("123").title("Meu Livro, volume 1").author("Autor").loanDays(7)
+				.build();
+		BDDMockito.given(service.export(Mockito.eq(10L), Mockito.any())).willAnswer(invocation -> {
+			Consumer<Book> consumer = invocation.getArgument(1);
+			consumer.accept(book);
+			return 1L;
+		});
+
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+				.get(BOOK_API.concat("/export?format=csv&afterId=10"));
+
+		mvc.perform(request).andExpect(status().isOk())
+				.andExpect(content().contentTypeCompatibleWith(BookController.CSV_VALUE))
+				.andExpect(header().string(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"books.csv\""))
+				.andExpect(content().string("isbn,title,author,loanDays,id\n123,\"Meu Livro, volume 1\",Autor,7,11\n"));
+	}
+
+	@Test
+	@DisplayName("Deve comprimir a exportacao de livros quando o cliente aceita gzip")
+	public void exportBooksGzipTest() throws Exception {
+		Book book = Book.builder().id(1L).isbn("123").title("Meu Livro").author("Autor").build();
+		BDDMockito.given(service.export(Mockito.eq(0L), Mockito.any())).willAnswer(invocation -> {
+			Consumer<Book> consumer = invocation.getArgument(1);
+			consumer.accept(book);
+			return 1L;
+		});
+
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.get(BOOK_API.concat("/export"))
+				.header(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+
+		MvcResult result = mvc.perform(request).andExpect(status().isOk())
+				.andExpect(content().contentTypeCompatibleWith(BookController.NDJSON_VALUE))
+				.andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip")).andReturn();
+
+		String body;
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new GZIPInputStream(new ByteArrayInputStream(result.getResponse().getContentAsByteArray())),
+				StandardCharsets.UTF_8))) {
+			body = reader.lines().collect(Collectors.joining("\n"));
+		}
+		BookDto exported = new ObjectMapper().readValue(body, BookDto.class);
+		assertThat(exported.getId()).isEqualTo(1L);
+		assertThat(exported.getIsbn()).isEqualTo("123");
+	}
+
+	@Test
+	@DisplayName("Deve lancar erro ao exportar livros em formato desconhecido")
+	public void exportBooksInvalidFormatTest() throws Exception {
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.get(BOOK_API.concat("/export?format=xml"));
+
+		mvc.perform(request).andExpect(status().isBadRequest()).andExpect(jsonPath("errors", Matchers.hasSize(1)));
+
+		Mockito.verify(service, Mockito.never()).export(Mockito.anyLong(), Mockito.any());
+	}
+
+	@Test
+	@DisplayName("Deve filtrar livros no modo cursor")
+	public void findBookByCursorTest() throws Exception {
+		Book book = Book.builder().id(1L).title("Meu Livro").author("Autor").isbn("123456").build();
+
+		BDDMockito.given(service.findByCursor(Mockito.any(Book.class), Mockito.eq("title"), Mockito.eq(""),
+				Mockito.eq(10))).willReturn(new CursorPageDto<Book>(Collections.singletonList(book), "abc", true));
+
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+				.get(BOOK_API.concat("?author=Autor&cursor=&size=10&sort=title,asc"))
+				.accept(MediaType.APPLICATION_JSON);
+
+		mvc.perform(request).andExpect(status().isOk()).andExpect(jsonPath("content", Matchers.hasSize(1)))
+				.andExpect(jsonPath("nextCursor").value("abc")).andExpect(jsonPath("hasNext").value(true))
+				.andExpect(jsonPath("totalElements").doesNotExist());
+	}
+
+	@Test
+	@DisplayName("Deve lancar erro ao buscar livros por cursor em ordem decrescente")
+	public void findBookByCursorDescendingTest() throws Exception {
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+				.get(BOOK_API.concat("?cursor=&size=10&sort=title,desc")).accept(MediaType.APPLICATION_JSON);
+
+		mvc.perform(request).andExpect(status().isBadRequest()).andExpect(jsonPath("errors", Matchers.hasSize(1)))
+				.andExpect(jsonPath("errors[0]").value("a busca por cursor so suporta ordenacao crescente"));
+
+		Mockito.verify(service, Mockito.never()).findByCursor(Mockito.any(Book.class), Mockito.anyString(),
+				Mockito.anyString(), Mockito.anyInt());
+	}
+
+	@Test
+	@DisplayName("Deve buscar livros por texto ordenados por relevancia")
+	public void searchBooksTest() throws Exception {
+		BookSearchResultDto result = BookSearchResultDto.builder().id(1L).title("Meu Livro").author("Autor")
+				.isbn("123456").score(2.5f).build();
+
+		BDDMockito.given(searchService.search("meu liv", 10)).willReturn(Arrays.asList(result));
+
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.get(BOOK_API.concat("/search?q=meu liv&size=10"))
+				.accept(MediaType.APPLICATION_JSON);
+
+		mvc.perform(request).andExpect(status().isOk()).andExpect(jsonPath("$", Matchers.hasSize(1)))
+				.andExpect(jsonPath("$[0].id").value(1L)).andExpect(jsonPath("$[0].title").value("Meu Livro"));
+	}
+
+	@Test
+	@DisplayName("Deve transmitir os livros filtrados um por linha")
+	public void streamBooksTest() throws Exception {
+		Book first = Book.builder().id(1L).title("Meu Livro").author("Autor").isbn("123").build();
+		Book second = Book.builder().id(2L).title("Outro Livro").author("Autor").isbn("456").build();
+
+		BDDMockito.given(service.stream(Mockito.any(Book.class))).willReturn(Flux.just(first, second));
+
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.get(BOOK_API.concat("?author=Autor"))
+				.accept(MediaType.APPLICATION_STREAM_JSON);
+
+		MvcResult result = mvc.perform(request).andExpect(request().asyncStarted()).andReturn();
+		mvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+
+		String[] lines = result.getResponse().getContentAsString().trim().split("\n");
+		assertThat(lines).hasSize(2);
+		assertThat(lines[0]).contains("\"isbn\":\"123\"");
+		assertThat(lines[1]).contains("\"isbn\":\"456\"");
 	}
 
 	private BookDto createNewBookDto() {
@@ -0,0 +1,109 @@
+package com.cursotdd.resource;
+
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.Collections;
+import java.util.Optional;
+
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.BDDMockito;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+import com.cursotdd.dto.LoanDto;
+import com.cursotdd.model.entity.Customer;
+import com.cursotdd.resources.CustomerController;
+import com.cursotdd.service.CustomerService;
+import com.cursotdd.service.LoanService;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@WebMvcTest(controllers = CustomerController.class)
+@AutoConfigureMockMvc
+public class CustomerControllerTest {
+
+	static String CUSTOMER_API = "/api/customers";
+
+	@Autowired
+	MockMvc mvc;
+
+	@MockBean
+	CustomerService service;
+
+	@MockBean
+	LoanService loanService;
+
+	@Test
+	@DisplayName("Deve retornar o resumo de emprestimos do cliente")
+	public void summaryTest() throws Exception {
+		Customer customer = Customer.builder().id(1L).name("Fulano").email("fulano@email.com").activeLoans(2)
+				.lateLoans(1).build();
+		BDDMockito.given(service.getById(1L)).willReturn(Optional.of(customer));
+
+		mvc.perform(MockMvcRequestBuilders.get(CUSTOMER_API.concat("/1/summary")).accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isOk()).andExpect(jsonPath("email").value("fulano@email.com"))
+				.andExpect(jsonPath("activeLoans").value(2)).andExpect(jsonPath("lateLoans").value(1));
+	}
+
+	@Test
+	@DisplayName("Deve alterar o prazo de emprestimo do cliente")
+	public void updateLoanDaysTest() throws Exception {
+		BDDMockito.given(service.updateLoanDays(1L, 30)).willReturn(Optional.of(
+				Customer.builder().id(1L).name("Fulano").email("fulano@email.com").loanDays(30).build()));
+
+		mvc.perform(MockMvcRequestBuilders.patch(CUSTOMER_API.concat("/1")).accept(MediaType.APPLICATION_JSON)
+				.contentType(MediaType.APPLICATION_JSON).content("{\"loanDays\": 30}")).andExpect(status().isOk())
+				.andExpect(jsonPath("loanDays").value(30));
+	}
+
+	@Test
+	@DisplayName("Deve lancar erro ao informar um prazo de emprestimo nao positivo")
+	public void updateInvalidLoanDaysTest() throws Exception {
+		mvc.perform(MockMvcRequestBuilders.patch(CUSTOMER_API.concat("/1")).accept(MediaType.APPLICATION_JSON)
+				.contentType(MediaType.APPLICATION_JSON).content("{\"loanDays\": 0}"))
+				.andExpect(status().isBadRequest()).andExpect(jsonPath("errors", Matchers.hasSize(1)));
+
+		Mockito.verify(service, Mockito.never()).updateLoanDays(Mockito.anyLong(), Mockito.any());
+	}
+
+	@Test
+	@DisplayName("Deve retornar o historico de emprestimos do cliente")
+	public void loansByCustomerTest() throws Exception {
+		Customer customer = Customer.builder().id(1L).name("Fulano").email("fulano@email.com").build();
+		BDDMockito.given(service.getById(1L)).willReturn(Optional.of(customer));
+		LoanDto loan = LoanDto.builder().id(5L).isbn("123").customer("Fulano").build();
+		BDDMockito.given(loanService.getLoansByCustomer(Mockito.eq(customer), Mockito.any(Pageable.class)))
+				.willReturn(new PageImpl<LoanDto>(Collections.singletonList(loan), PageRequest.of(0, 10), 1));
+
+		mvc.perform(MockMvcRequestBuilders.get(CUSTOMER_API.concat("/1/loans?page=0&size=10"))
+				.accept(MediaType.APPLICATION_JSON)).andExpect(status().isOk())
+				.andExpect(jsonPath("content", Matchers.hasSize(1))).andExpect(jsonPath("content[0].id").value(5));
+	}
+
+	@Test
+	@DisplayName("Deve retornar 404 para um cliente inexistente")
+	public void inexistentCustomerTest() throws Exception {
+		BDDMockito.given(service.getById(1L)).willReturn(Optional.empty());
+
+		mvc.perform(MockMvcRequestBuilders.get(CUSTOMER_API.concat("/1/loans")).accept(MediaType.APPLICATION_JSON))
+				.andExpect(status().isNotFound());
+
+		Mockito.verify(loanService, Mockito.never()).getLoansByCustomer(Mockito.any(Customer.class),
+				Mockito.any(Pageable.class));
+	}
+}
@@ -1,13 +1,19 @@
 package com.cursotdd.resource;
 
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.verify;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.DisplayName;
@@ -22,24 +28,34 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.transaction.CannotCreateTransactionException;
 
+import com.cursotdd.dto.CursorPageDto;
 import com.cursotdd.dto.LoanDto;
 import com.cursotdd.dto.LoanFilterDto;
+import com.cursotdd.dto.LoanReturnRequestDto;
+import com.cursotdd.dto.LoanReturnResultDto;
 import com.cursotdd.dto.ReturnedLoanDto;
 import com.cursotdd.exception.BusinessException;
 import com.cursotdd.model.entity.Book;
+import com.cursotdd.model.entity.Customer;
 import com.cursotdd.model.entity.Loan;
 import com.cursotdd.resources.LoanController;
 import com.cursotdd.service.BookService;
+import com.cursotdd.service.CustomerService;
 import com.cursotdd.service.LoanService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import reactor.core.publisher.Flux;
+
 @ExtendWith(SpringExtension.class)
 @ActiveProfiles("test")
 @WebMvcTest(controllers = LoanController.class)
@@ -57,6 +73,9 @@ public class LoanControllerTest {
 	@MockBean
 	LoanService loanService;
 
+	@MockBean
+	CustomerService customerService;
+
 	@Test
 	@DisplayName("Deve realizar um emprestimo")
 	public void createLoanTest() throws Exception {
@@ -66,7 +85,10 @@ public class LoanControllerTest {
 		Book book = Book.builder().id(1L).isbn("123").build();
 		BDDMockito.given(bookService.getBookByIsbn(dto.getIsbn())).willReturn(Optional.of(book));
 
-		Loan loan = Loan.builder().id(1L).customer("Fulano").book(book).loanDate(LocalDate.now()).build();
+		Customer customer = Customer.builder().id(1L).name("Fulano").email("customer@email.com").build();
+		BDDMockito.given(customerService.getOrCreate("Fulano", "customer@email.com")).willReturn(customer);
+
+		Loan loan = Loan.builder().id(1L).customer(customer).book(book).loanDate(LocalDate.now()).build();
 		BDDMockito.given(loanService.save(Mockito.any(Loan.class))).willReturn(loan);
 
 		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.post(LOAN_API).accept(MediaType.APPLICATION_JSON)
@@ -114,13 +136,13 @@ public class LoanControllerTest {
 	public void returnBookTest() throws Exception {
 		ReturnedLoanDto dto = ReturnedLoanDto.builder().returned(true).build();
 		String json = new ObjectMapper().writeValueAsString(dto);
-		Loan loan = Loan.builder().id(1l).build();
-		BDDMockito.given(loanService.getById(Mockito.anyLong())).willReturn(Optional.of(loan));
+		BDDMockito.given(loanService.markReturned(1L, true)).willReturn(true);
 
 		mvc.perform(MockMvcRequestBuilders.patch(LOAN_API.concat("/1")).accept(MediaType.APPLICATION_JSON)
 				.contentType(MediaType.APPLICATION_JSON).content(json)).andExpect(status().isOk());
 
-		verify(loanService, Mockito.times(1)).update(loan);
+		verify(loanService, Mockito.times(1)).markReturned(1L, true);
+		verify(loanService, Mockito.never()).getById(Mockito.anyLong());
 	}
 
 	@Test
@@ -129,12 +151,28 @@ public class LoanControllerTest {
 		ReturnedLoanDto dto = ReturnedLoanDto.builder().returned(true).build();
 		String json = new ObjectMapper().writeValueAsString(dto);
 
-		BDDMockito.given(loanService.getById(Mockito.anyLong())).willReturn(Optional.empty());
+		BDDMockito.given(loanService.markReturned(1L, true)).willReturn(false);
 
 		mvc.perform(MockMvcRequestBuilders.patch(LOAN_API.concat("/1")).accept(MediaType.APPLICATION_JSON)
 				.contentType(MediaType.APPLICATION_JSON).content(json)).andExpect(status().isNotFound());
+	}
 
-		verify(loanService, Mockito.never()).update(Mockito.any(Loan.class));
+	@Test
+	@DisplayName("Deve devolver emprestimos em lote informando o resultado de cada item")
+	public void returnBooksTest() throws Exception {
+		LoanReturnRequestDto dto = LoanReturnRequestDto.builder().ids(Arrays.asList(1L, 2L))
+				.isbns(Collections.singletonList("123")).build();
+		String json = new ObjectMapper().writeValueAsString(dto);
+
+		BDDMockito.given(loanService.returnAll(dto.getIds(), dto.getIsbns())).willReturn(Arrays.asList(
+				LoanReturnResultDto.builder().id(1L).status(LoanReturnResultDto.Status.RETURNED).build(),
+				LoanReturnResultDto.builder().id(2L).status(LoanReturnResultDto.Status.NOT_FOUND).build(),
+				LoanReturnResultDto.builder().id(3L).isbn("123").status(LoanReturnResultDto.Status.RETURNED).build()));
+
+		mvc.perform(MockMvcRequestBuilders.post(LOAN_API.concat("/returns")).accept(MediaType.APPLICATION_JSON)
+				.contentType(MediaType.APPLICATION_JSON).content(json)).andExpect(status().isOk())
+				.andExpect(jsonPath("$", Matchers.hasSize(3))).andExpect(jsonPath("$[1].status").value("NOT_FOUND"))
+				.andExpect(jsonPath("$[2].isbn").value("123"));
 	}
 
 	@Test
@@ -143,12 +181,18 @@ public class LoanControllerTest {
 		Long id = 1l;
 
 		Book book = Book.builder().id(2l).isbn("123").build();
-		Loan loan = Loan.builder().id(id).book(book).customer("zé").loanDate(LocalDate.now()).returned(true).build();
+		Customer customer = Customer.builder().id(3l).name("zé").email("ze@email.com").build();
+		Loan loan = Loan.builder().id(id).book(book).customer(customer).loanDate(LocalDate.now()).returned(true)
+				.build();
+
+		LoanDto loanDto = new LoanDto(loan.getId(), book.getIsbn(), customer.getEmail(), customer.getName(),
+				book.getId(), book.getTitle(), book.getAuthor());
 
 		BDDMockito.given(loanService.find(Mockito.any(LoanFilterDto.class), Mockito.any(Pageable.class)))
-				.willReturn(new PageImpl<Loan>(Collections.singletonList(loan), PageRequest.of(0, 100), 1));
+				.willReturn(new PageImpl<LoanDto>(Collections.singletonList(loanDto), PageRequest.of(0, 100), 1));
 
-		String queryString = String.format("?customer=%s&isbn=%s&page=0&size=100", loan.getCustomer(), book.getIsbn());
+		String queryString = String.format("?customer=%s&isbn=%s&page=0&size=100", customer.getName(),
+				book.getIsbn());
 
 		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.get(LOAN_API.concat(queryString))
 				.accept(MediaType.APPLICATION_JSON);
@@ -157,4 +201,93 @@ public class LoanControllerTest {
 				.andExpect(jsonPath("totalElements").value(1)).andExpect(jsonPath("pageable.pageSize").value(100))
 				.andExpect(jsonPath("pageable.pageNumber").value(0));
 	}
+
+	@Test
+	@DisplayName("Deve retornar 503 quando nao houver conexao disponivel no pool")
+	public void findLoanWithExhaustedPoolTest() throws Exception {
+		BDDMockito.given(loanService.find(Mockito.any(LoanFilterDto.class), Mockito.any(Pageable.class)))
+				.willThrow(new CannotCreateTransactionException("Connection is not available, request timed out"));
+
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.get(LOAN_API.concat("?customer=Fulano"))
+				.accept(MediaType.APPLICATION_JSON);
+
+		mvc.perform(request).andExpect(status().isServiceUnavailable())
+				.andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"))
+				.andExpect(jsonPath("errors", Matchers.hasSize(1)));
+	}
+
+	@Test
+	@DisplayName("Deve filtrar emprestimos no modo cursor")
+	public void findLoanByCursorTest() throws Exception {
+		LoanDto loan = LoanDto.builder().id(1L).customer("Fulano").isbn("123").build();
+
+		BDDMockito.given(loanService.findByCursor(Mockito.any(LoanFilterDto.class), Mockito.eq(""), Mockito.eq(50)))
+				.willReturn(new CursorPageDto<LoanDto>(Collections.singletonList(loan), null, false));
+
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+				.get(LOAN_API.concat("?customer=Fulano&cursor=&size=50")).accept(MediaType.APPLICATION_JSON);
+
+		mvc.perform(request).andExpect(status().isOk()).andExpect(jsonPath("content", Matchers.hasSize(1)))
+				.andExpect(jsonPath("hasNext").value(false)).andExpect(jsonPath("totalElements").doesNotExist());
+	}
+
+	@Test
+	@DisplayName("Deve transmitir os emprestimos filtrados como server-sent events")
+	public void streamLoansTest() throws Exception {
+		LoanDto loan = LoanDto.builder().id(1L).customer("Fulano").isbn("123").build();
+
+		BDDMockito.given(loanService.stream(Mockito.any(LoanFilterDto.class))).willReturn(Flux.just(loan));
+
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.get(LOAN_API.concat("?customer=Fulano"))
+				.accept(MediaType.TEXT_EVENT_STREAM);
+
+		MvcResult result = mvc.perform(request).andExpect(request().asyncStarted()).andReturn();
+		mvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+
+		assertThat(result.getResponse().getContentAsString()).startsWith("data:")
+				.contains("\"customer\":\"Fulano\"");
+	}
+
+	@Test
+	@DisplayName("Deve exportar os emprestimos em ndjson, um por linha")
+	public void exportLoansTest() throws Exception {
+		LoanDto first = new LoanDto(1L, "123", "fulano@email.com", "Fulano", 10L, "Meu Livro", "Autor");
+		LoanDto second = new LoanDto(2L, "456", "ciclano@email.com", "Ciclano", 20L, "Outro Livro", "Autor");
+		BDDMockito.given(loanService.export(Mockito.eq(0L), Mockito.any())).willAnswer(invocation -> {
+			Consumer<LoanDto> consumer = invocation.getArgument(1);
+			consumer.accept(first);
+			consumer.accept(second);
+			return 2L;
+		});
+
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders.get(LOAN_API.concat("/export"));
+
+		MvcResult result = mvc.perform(request).andExpect(status().isOk())
+				.andExpect(content().contentTypeCompatibleWith("application/x-ndjson"))
+				.andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING)).andReturn();
+
+		String[] lines = result.getResponse().getContentAsString().split("\n");
+		assertThat(lines).hasSize(2);
+		LoanDto exported = new ObjectMapper().readValue(lines[1], LoanDto.class);
+		assertThat(exported.getId()).isEqualTo(2L);
+		assertThat(exported.getBook().getId()).isEqualTo(20L);
+	}
+
+	@Test
+	@DisplayName("Deve exportar os emprestimos em csv")
+	public void exportLoansAsCsvTest() throws Exception {
+		LoanDto loan = new LoanDto(5L, "123", "fulano@email.com", "Fulano", 10L, "Meu Livro", "Autor");
+		BDDMockito.given(loanService.export(Mockito.eq(4L), Mockito.any())).willAnswer(invocation -> {
+			Consumer<LoanDto> consumer = invocation.getArgument(1);
+			consumer.accept(loan);
+			return 1L;
+		});
+
+		MockHttpServletRequestBuilder request = MockMvcRequestBuilders
+				.get(LOAN_API.concat("/export?format=csv&afterId=4"));
+
+		mvc.perform(request).andExpect(status().isOk())
+				.andExpect(content().string("id,isbn,bookId,title,author,customer,customerEmail\n"
+						+ "5,123,10,Meu Livro,Autor,Fulano,fulano@email.com\n"));
+	}
 }
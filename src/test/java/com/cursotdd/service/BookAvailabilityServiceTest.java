@@ -0,0 +1,89 @@
+package com.cursotdd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.cursotdd.model.repository.LoanRepository;
+import com.cursotdd.service.impl.BitSetBookAvailabilityService;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class BookAvailabilityServiceTest {
+
+	@MockBean
+	LoanRepository repository;
+
+	BookAvailabilityService service;
+
+	@BeforeEach
+	public void setup() {
+		this.service = new BitSetBookAvailabilityService(repository);
+	}
+
+	@Test
+	@DisplayName("Deve carregar os livros emprestados do banco")
+	public void reloadTest() {
+		Mockito.when(repository.findActiveBookIds(Mockito.eq(0L), Mockito.any(Pageable.class)))
+				.thenReturn(Arrays.asList(2L, 5L));
+
+		long count = service.reload();
+
+		assertThat(count).isEqualTo(2);
+		assertThat(service.isAvailable(1L)).isTrue();
+		assertThat(service.isAvailable(2L)).isFalse();
+		assertThat(service.isAvailable(5L)).isFalse();
+	}
+
+	@Test
+	@DisplayName("Nao deve informar a disponibilidade antes da carga")
+	public void notLoadedTest() {
+		assertThat(service.isAvailable(1L)).isNull();
+	}
+
+	@Test
+	@DisplayName("Deve atualizar a disponibilidade nos emprestimos e devolucoes")
+	public void updateTest() {
+		Mockito.when(repository.findActiveBookIds(Mockito.eq(0L), Mockito.any(Pageable.class)))
+				.thenReturn(Collections.singletonList(2L));
+		service.reload();
+
+		service.loaned(Collections.singletonList(3L));
+		service.returned(Collections.singletonList(2L));
+
+		assertThat(service.isAvailable(2L)).isTrue();
+		assertThat(service.isAvailable(3L)).isFalse();
+	}
+
+	@Test
+	@DisplayName("Deve ter o mesmo resumo para o mesmo conjunto de livros emprestados")
+	public void checksumTest() {
+		Mockito.when(repository.findActiveBookIds(Mockito.eq(0L), Mockito.any(Pageable.class)))
+				.thenReturn(Arrays.asList(2L, 3L));
+		service.reload();
+		long reloaded = service.checksum();
+
+		BookAvailabilityService other = new BitSetBookAvailabilityService(repository);
+		Mockito.when(repository.findActiveBookIds(Mockito.eq(0L), Mockito.any(Pageable.class)))
+				.thenReturn(Collections.emptyList());
+		other.reload();
+		long empty = other.checksum();
+		other.loaned(Arrays.asList(3L, 2L));
+
+		assertThat(other.checksum()).isEqualTo(reloaded);
+		assertThat(reloaded).isNotEqualTo(empty);
+		other.returned(Collections.singletonList(3L));
+		assertThat(other.checksum()).isNotEqualTo(reloaded);
+	}
+}
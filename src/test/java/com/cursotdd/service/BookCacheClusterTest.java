@@ -0,0 +1,104 @@
+package com.cursotdd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.sql.SQLException;
+import java.util.function.BooleanSupplier;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.h2.tools.Server;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.cursotdd.LibraryApiApplication;
+import com.cursotdd.model.entity.Book;
+import com.cursotdd.model.repository.BookRepository;
+
+/**
+ * Duas instancias da aplicacao no mesmo processo, cada uma com o seu cache de
+ * segundo nivel, apontando para um unico H2 em modo servidor. O que uma altera
+ * a outra deve deixar de servir do cache.
+ */
+public class BookCacheClusterTest {
+
+	private static final long TIMEOUT_MS = 10000;
+
+	private static Server server;
+	private static ConfigurableApplicationContext nodeA;
+	private static ConfigurableApplicationContext nodeB;
+
+	@BeforeAll
+	public static void start() throws SQLException {
+		server = Server.createTcpServer("-tcpPort", "0", "-ifNotExists").start();
+		String url = "jdbc:h2:tcp://localhost:" + server.getPort() + "/mem:cluster;DB_CLOSE_DELAY=-1";
+		nodeA = startNode(url);
+		nodeB = startNode(url);
+	}
+
+	@AfterAll
+	public static void stop() {
+		if (nodeA != null) {
+			nodeA.close();
+		}
+		if (nodeB != null) {
+			nodeB.close();
+		}
+		server.stop();
+	}
+
+	@Test
+	@DisplayName("Deve servir o livro do cache e descartar a copia alterada por outra instancia")
+	public void updateOnOtherNodeTest() throws InterruptedException {
+		BookService serviceA = nodeA.getBean(BookService.class);
+		BookService serviceB = nodeB.getBean(BookService.class);
+		BookRepository repositoryB = nodeB.getBean(BookRepository.class);
+		Book book = serviceA.save(Book.builder().title("Titulo").author("Autor").isbn("cluster-1").build());
+
+		Statistics statistics = statistics(nodeB);
+		statistics.clear();
+		repositoryB.findById(book.getId());
+		repositoryB.findById(book.getId());
+		assertThat(serviceB.getBookByIsbn("cluster-1").isPresent()).isTrue();
+		assertThat(statistics.getSecondLevelCacheHitCount()).isGreaterThan(0);
+
+		book.setTitle("Novo titulo");
+		book.setIsbn("cluster-2");
+		Book updatedBook = serviceA.update(book);
+
+		await(() -> "Novo titulo".equals(repositoryB.findById(book.getId()).get().getTitle()));
+		await(() -> serviceB.getById(book.getId()).get().getIsbn().equals("cluster-2"));
+		await(() -> !serviceB.getBookByIsbn("cluster-1").isPresent());
+
+		serviceA.delete(updatedBook);
+
+		await(() -> !serviceB.getById(book.getId()).isPresent());
+		assertThat(repositoryB.findById(book.getId()).isPresent()).isFalse();
+	}
+
+	private static ConfigurableApplicationContext startNode(String url) {
+		return new SpringApplicationBuilder(LibraryApiApplication.class).web(WebApplicationType.NONE).run(
+				"--spring.datasource.url=" + url, "--spring.datasource.username=sa", "--spring.jpa.show-sql=false",
+				"--spring.boot.admin.client.enabled=false", "--application.cache.invalidation.poll-ms=100",
+				"--logging.level.root=WARN");
+	}
+
+	private static Statistics statistics(ConfigurableApplicationContext node) {
+		return node.getBean(EntityManagerFactory.class).unwrap(SessionFactory.class).getStatistics();
+	}
+
+	private static void await(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+		while (!condition.getAsBoolean()) {
+			assertThat(System.currentTimeMillis()).as("invalidacao nao chegou a tempo").isLessThan(deadline);
+			Thread.sleep(50);
+		}
+	}
+}
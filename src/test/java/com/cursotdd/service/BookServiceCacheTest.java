@@ -0,0 +1,135 @@
+package com.cursotdd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+
+import java.util.Optional;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.cursotdd.config.CacheConfig;
+import com.cursotdd.model.entity.Book;
+import com.cursotdd.model.repository.BookRepository;
+import com.cursotdd.service.impl.BookServiceImpl;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@ContextConfiguration(classes = BookServiceCacheTest.Config.class)
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_EACH_TEST_METHOD)
+public class BookServiceCacheTest {
+
+	@Configuration
+	@Import({ CacheConfig.class, BookServiceImpl.class })
+	static class Config {
+
+		@Bean
+		public CacheManager cacheManager() {
+			return new CaffeineCacheManager(CacheConfig.BOOKS_BY_ID, CacheConfig.BOOKS_BY_ISBN);
+		}
+	}
+
+	@Autowired
+	BookService service;
+
+	@MockBean
+	BookRepository repository;
+
+	@MockBean
+	BookSearchService searchService;
+
+	@MockBean
+	CatalogVersionService catalogVersionService;
+
+	@MockBean
+	CacheInvalidationService cacheInvalidationService;
+
+	@Test
+	@DisplayName("Deve consultar o repositorio apenas uma vez ao buscar o mesmo isbn")
+	public void cachedBookByIsbnTest() {
+		Book book = createBook();
+		Mockito.when(repository.findByIsbn(book.getIsbn())).thenReturn(Optional.of(book));
+
+		service.getBookByIsbn(book.getIsbn());
+		Optional<Book> returnedBook = service.getBookByIsbn(book.getIsbn());
+
+		assertThat(returnedBook.isPresent()).isTrue();
+		assertThat(returnedBook.get().getId()).isEqualTo(book.getId());
+		Mockito.verify(repository, times(1)).findByIsbn(book.getIsbn());
+	}
+
+	@Test
+	@DisplayName("Nao deve guardar em cache um isbn inexistente")
+	public void notCachedInexistentIsbnTest() {
+		Mockito.when(repository.findByIsbn("123")).thenReturn(Optional.empty());
+
+		service.getBookByIsbn("123");
+		Optional<Book> returnedBook = service.getBookByIsbn("123");
+
+		assertThat(returnedBook.isPresent()).isFalse();
+		Mockito.verify(repository, times(2)).findByIsbn("123");
+	}
+
+	@Test
+	@DisplayName("Deve invalidar o cache ao atualizar um livro")
+	public void evictOnUpdateTest() {
+		Book book = createBook();
+		Mockito.when(repository.findById(book.getId())).thenReturn(Optional.of(book));
+		Mockito.when(repository.findByIsbn(book.getIsbn())).thenReturn(Optional.of(book));
+		Mockito.when(repository.save(book)).thenReturn(book);
+
+		service.getById(book.getId());
+		service.getBookByIsbn(book.getIsbn());
+		service.update(book);
+		service.getById(book.getId());
+		service.getBookByIsbn(book.getIsbn());
+
+		Mockito.verify(repository, times(2)).findById(book.getId());
+		Mockito.verify(repository, times(2)).findByIsbn(book.getIsbn());
+	}
+
+	@Test
+	@DisplayName("Deve invalidar o isbn anterior ao trocar o isbn de um livro")
+	public void evictPreviousIsbnOnUpdateTest() {
+		Book book = createBook();
+		Book changed = Book.builder().id(1L).isbn("456").author("Fulano").title("Teste").build();
+		Mockito.when(repository.findByIsbn("123")).thenReturn(Optional.of(book), Optional.empty());
+		Mockito.when(repository.save(changed)).thenReturn(changed);
+
+		service.getBookByIsbn("123");
+		service.update(changed);
+
+		assertThat(service.getBookByIsbn("123")).isEmpty();
+		Mockito.verify(repository, times(2)).findByIsbn("123");
+	}
+
+	@Test
+	@DisplayName("Deve invalidar o cache ao deletar um livro")
+	public void evictOnDeleteTest() {
+		Book book = createBook();
+		Mockito.when(repository.findById(book.getId())).thenReturn(Optional.of(book));
+
+		service.getById(book.getId());
+		service.delete(book);
+		service.getById(book.getId());
+
+		Mockito.verify(repository, times(2)).findById(book.getId());
+	}
+
+	private Book createBook() {
+		return Book.builder().id(1L).isbn("123").author("Fulano").title("Teste").build();
+	}
+}
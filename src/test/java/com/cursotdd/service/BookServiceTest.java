@@ -3,6 +3,7 @@ package com.cursotdd.service;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.times;
 
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -15,13 +16,19 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Example;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import com.cursotdd.dto.BookImportResultDto;
+import com.cursotdd.dto.BookImportResultDto.Status;
+import com.cursotdd.dto.CursorPageDto;
+import com.cursotdd.dto.KeysetCursor;
 import com.cursotdd.exception.BusinessException;
 import com.cursotdd.model.entity.Book;
 import com.cursotdd.model.repository.BookRepository;
@@ -36,9 +43,19 @@ public class BookServiceTest {
 	@MockBean
 	BookRepository repository;
 
+	@MockBean
+	BookSearchService searchService;
+
+	@MockBean
+	CatalogVersionService catalogVersionService;
+
+	@MockBean
+	CacheInvalidationService cacheInvalidationService;
+
 	@BeforeEach
 	public void setup() {
-		this.service = new BookServiceImpl(repository);
+		this.service = new BookServiceImpl(repository, searchService, catalogVersionService,
+				cacheInvalidationService);
 	}
 
 	@Test
@@ -46,9 +63,8 @@ public class BookServiceTest {
 	public void saveBookTest() {
 		Book book = createBook();
 
-		Mockito.when(repository.save(book))
+		Mockito.when(repository.saveAndFlush(book))
 				.thenReturn(Book.builder().id(1L).isbn("123").author("Fulano").title("Teste").build());
-		Mockito.when(repository.existsByIsbn(book.getIsbn())).thenReturn(false);
 
 		Book savedBook = service.save(book);
 
@@ -62,13 +78,25 @@ public class BookServiceTest {
 	@DisplayName("Deve lancar erro de negocio ao tentar salvar um livro com isbn duplicado")
 	public void shouldNotSaveBookWithDuplicatedIsbnTest() {
 		Book book = createBook();
-		Mockito.when(repository.existsByIsbn(book.getIsbn())).thenReturn(true);
+		Mockito.when(repository.saveAndFlush(book)).thenThrow(new DataIntegrityViolationException("uk_book_isbn"));
 
 		Throwable ex = Assertions.catchThrowable(() -> service.save(book));
 
 		assertThat(ex).isInstanceOf(BusinessException.class).hasMessage("isbn ja cadastrado");
 
-		Mockito.verify(repository, Mockito.never()).save(book);
+		Mockito.verify(repository, Mockito.never()).existsByIsbn(book.getIsbn());
+	}
+
+	@Test
+	@DisplayName("Nao deve reportar como isbn duplicado a violacao de outra constraint")
+	public void otherConstraintSaveTest() {
+		Book book = createBook();
+		DataIntegrityViolationException violation = new DataIntegrityViolationException("NOT NULL check: TITLE");
+		Mockito.when(repository.saveAndFlush(book)).thenThrow(violation);
+
+		Throwable ex = Assertions.catchThrowable(() -> service.save(book));
+
+		assertThat(ex).isSameAs(violation);
 	}
 
 	@Test
@@ -137,6 +165,7 @@ public class BookServiceTest {
 		Mockito.verify(repository, Mockito.times(1)).save(bookToUpdate);
 		assertThat(returnedBook.getIsbn()).isEqualTo(updatedBook.getIsbn());
 		assertThat(returnedBook.getAuthor()).isEqualTo(updatedBook.getAuthor());
+		Mockito.verify(cacheInvalidationService).publish(updatedBook);
 	}
 
 	@Test
@@ -195,6 +224,101 @@ public class BookServiceTest {
 		assertThat(returnedBook.isPresent()).isFalse();
 	}
 
+	@Test
+	@DisplayName("Deve salvar livros em lote informando o resultado de cada linha")
+	public void saveAllBooksTest() {
+		Book newBook = Book.builder().isbn("1").author("Fulano").title("Teste").build();
+		Book existingBook = Book.builder().isbn("2").author("Fulano").title("Teste").build();
+		Book repeatedBook = Book.builder().isbn("1").author("Ciclano").title("Outro").build();
+		Book invalidBook = Book.builder().isbn("3").build();
+
+		Mockito.when(repository.findExistingIsbns(Mockito.anyCollection()))
+				.thenReturn(Collections.singletonList("2"));
+		Mockito.when(repository.saveAll(Mockito.anyList())).thenReturn(
+				Collections.singletonList(Book.builder().id(10L).isbn("1").author("Fulano").title("Teste").build()));
+
+		List<BookImportResultDto> results = service
+				.saveAll(Arrays.asList(newBook, existingBook, repeatedBook, invalidBook));
+
+		assertThat(results).extracting(BookImportResultDto::getStatus).containsExactly(Status.CREATED,
+				Status.DUPLICATED, Status.DUPLICATED, Status.INVALID);
+		assertThat(results.get(0).getId()).isEqualTo(10L);
+		Mockito.verify(repository, times(1)).findExistingIsbns(Mockito.anyCollection());
+		Mockito.verify(repository, times(1)).saveAll(Collections.singletonList(newBook));
+	}
+
+	@Test
+	@DisplayName("Deve retornar o cursor da proxima pagina a partir do ultimo livro")
+	public void findByCursorTest() {
+		Book book = createBook();
+		book.setId(7L);
+		String cursor = new KeysetCursor(3L, "Outro").encode();
+
+		Mockito.when(repository.findSlice(Mockito.eq(book), Mockito.eq("title"), Mockito.any(KeysetCursor.class),
+				Mockito.eq(1))).thenReturn(new SliceImpl<Book>(Collections.singletonList(book), PageRequest.of(0, 1), true));
+
+		CursorPageDto<Book> result = service.findByCursor(book, "title", cursor, 1);
+
+		assertThat(result.getContent()).containsExactly(book);
+		assertThat(result.isHasNext()).isTrue();
+		KeysetCursor next = KeysetCursor.decode(result.getNextCursor());
+		assertThat(next.getId()).isEqualTo(7L);
+		assertThat(next.getSortValue()).isEqualTo("Teste");
+	}
+
+	@Test
+	@DisplayName("Deve lancar erro de negocio para ordenacao nao suportada no modo cursor")
+	public void findByCursorInvalidSortTest() {
+		Throwable ex = Assertions.catchThrowable(() -> service.findByCursor(createBook(), "author", "", 10));
+
+		assertThat(ex).isInstanceOf(BusinessException.class);
+	}
+
+	@Test
+	@DisplayName("Deve manter o indice de busca ao salvar e deletar um livro")
+	public void keepSearchIndexTest() {
+		Book book = createBook();
+		Book savedBook = Book.builder().id(1L).isbn("123").author("Fulano").title("Teste").build();
+		Mockito.when(repository.saveAndFlush(book)).thenReturn(savedBook);
+
+		service.save(book);
+		service.delete(savedBook);
+
+		Mockito.verify(searchService).index(Collections.singletonList(savedBook));
+		Mockito.verify(searchService).remove(savedBook);
+		Mockito.verify(catalogVersionService, times(2)).increment();
+		Mockito.verify(cacheInvalidationService).publish(savedBook);
+	}
+
+	@Test
+	@DisplayName("Nao deve indexar um livro com isbn duplicado")
+	public void notIndexDuplicatedBookTest() {
+		Book book = createBook();
+		Mockito.when(repository.saveAndFlush(book)).thenThrow(new DataIntegrityViolationException("uk_book_isbn"));
+
+		Assertions.catchThrowable(() -> service.save(book));
+
+		Mockito.verify(searchService, Mockito.never()).index(Mockito.anyCollection());
+	}
+
+	@Test
+	@DisplayName("Deve transmitir os livros lendo um bloco por vez")
+	public void streamBooksTest() {
+		Book filter = createBook();
+		Book first = Book.builder().id(1L).isbn("1").build();
+		Book second = Book.builder().id(2L).isbn("2").build();
+
+		Mockito.when(repository.findSlice(Mockito.eq(filter), Mockito.eq("id"), Mockito.isNull(), Mockito.anyInt()))
+				.thenReturn(new SliceImpl<Book>(Collections.singletonList(first), PageRequest.of(0, 1), true));
+		Mockito.when(repository.findSlice(Mockito.eq(filter), Mockito.eq("id"),
+				Mockito.eq(new KeysetCursor(1L, null)), Mockito.anyInt()))
+				.thenReturn(new SliceImpl<Book>(Collections.singletonList(second)));
+
+		List<Book> books = service.stream(filter).collectList().block();
+
+		assertThat(books).containsExactly(first, second);
+	}
+
 	private Book createBook() {
 		return Book.builder().isbn("123").author("Fulano").title("Teste").build();
 	}
@@ -0,0 +1,89 @@
+package com.cursotdd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.cursotdd.config.CacheConfig;
+import com.cursotdd.model.entity.Book;
+import com.cursotdd.model.entity.CacheInvalidation;
+import com.cursotdd.model.repository.CacheInvalidationRepository;
+import com.cursotdd.service.impl.CacheInvalidationServiceImpl;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class CacheInvalidationServiceTest {
+
+	@MockBean
+	CacheInvalidationRepository repository;
+
+	@MockBean
+	EntityManagerFactory entityManagerFactory;
+
+	SessionFactory sessionFactory = Mockito.mock(SessionFactory.class);
+
+	javax.persistence.Cache jpaCache = Mockito.mock(javax.persistence.Cache.class);
+
+	CacheInvalidationServiceImpl service;
+
+	@BeforeEach
+	public void setup() {
+		when(entityManagerFactory.getCache()).thenReturn(jpaCache);
+		when(entityManagerFactory.unwrap(SessionFactory.class)).thenReturn(sessionFactory);
+		when(sessionFactory.getCache()).thenReturn(Mockito.mock(org.hibernate.Cache.class));
+		service = new CacheInvalidationServiceImpl(repository, entityManagerFactory,
+				new CaffeineCacheManager(CacheConfig.BOOKS_BY_ID, CacheConfig.BOOKS_BY_ISBN), 10000, 3600000, 60000);
+	}
+
+	@Test
+	@DisplayName("Deve ler apenas a janela recente entre as varreduras")
+	public void pollRecentTest() {
+		LocalDateTime before = LocalDateTime.now();
+
+		service.poll();
+
+		ArgumentCaptor<LocalDateTime> since = ArgumentCaptor.forClass(LocalDateTime.class);
+		verify(repository).findByEntityNameAndCreatedAtAfterAndOriginNot(Mockito.eq("Book"), since.capture(),
+				Mockito.anyString());
+		assertThat(since.getValue()).isAfter(before.minusMinutes(1));
+	}
+
+	@Test
+	@DisplayName("Deve aplicar, na varredura, a invalidacao de uma transacao que demorou a fazer commit")
+	public void sweepLateCommitTest() {
+		CacheInvalidation late = CacheInvalidation.builder().id(1L).entityName("Book").entityId(7L).origin("outra")
+				.createdAt(LocalDateTime.now().minusMinutes(30)).build();
+		when(repository.findByEntityNameAndCreatedAtAfterAndOriginNot(Mockito.eq("Book"), Mockito.any(),
+				Mockito.anyString())).thenReturn(Collections.singletonList(late));
+		ReflectionTestUtils.setField(service, "lastSweep", LocalDateTime.now().minusMinutes(2));
+
+		service.poll();
+		ReflectionTestUtils.setField(service, "lastSweep", LocalDateTime.now().minusMinutes(2));
+		service.poll();
+
+		ArgumentCaptor<LocalDateTime> since = ArgumentCaptor.forClass(LocalDateTime.class);
+		verify(repository, times(2)).findByEntityNameAndCreatedAtAfterAndOriginNot(Mockito.eq("Book"),
+				since.capture(), Mockito.anyString());
+		assertThat(since.getAllValues()).allMatch(value -> value.isBefore(late.getCreatedAt()));
+		verify(jpaCache, times(1)).evict(Book.class, 7L);
+	}
+}
@@ -0,0 +1,50 @@
+package com.cursotdd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.times;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.cursotdd.model.repository.CatalogVersionRepository;
+import com.cursotdd.service.impl.CatalogVersionServiceImpl;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class CatalogVersionServiceTest {
+
+	@MockBean
+	CatalogVersionRepository repository;
+
+	@Test
+	@DisplayName("Deve reaproveitar a versao do acervo dentro do ttl")
+	public void cachedVersionTest() {
+		CatalogVersionService service = new CatalogVersionServiceImpl(repository, 60000);
+		Mockito.when(repository.findVersion(1)).thenReturn(5L);
+
+		service.current();
+		long version = service.current();
+
+		assertThat(version).isEqualTo(5);
+		Mockito.verify(repository, times(1)).findVersion(1);
+	}
+
+	@Test
+	@DisplayName("Deve reler a versao do acervo depois de um incremento")
+	public void incrementTest() {
+		CatalogVersionService service = new CatalogVersionServiceImpl(repository, 60000);
+		Mockito.when(repository.findVersion(1)).thenReturn(5L, 6L);
+
+		service.current();
+		service.increment();
+		long version = service.current();
+
+		assertThat(version).isEqualTo(6);
+		Mockito.verify(repository).increment(1);
+	}
+}
@@ -0,0 +1,116 @@
+package com.cursotdd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
+
+import java.util.Optional;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.cursotdd.exception.BusinessException;
+import com.cursotdd.model.entity.Customer;
+import com.cursotdd.model.repository.CustomerRepository;
+import com.cursotdd.service.impl.CustomerServiceImpl;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class CustomerServiceTest {
+
+	@MockBean
+	CustomerRepository repository;
+
+	CustomerService service;
+
+	@BeforeEach
+	public void setup() {
+		this.service = new CustomerServiceImpl(repository);
+	}
+
+	@Test
+	@DisplayName("Deve reutilizar o cliente ja cadastrado com o mesmo e-mail")
+	public void getExistingCustomerTest() {
+		Customer customer = Customer.builder().id(1L).name("Fulano").email("fulano@email.com").build();
+		Mockito.when(repository.findByEmail("fulano@email.com")).thenReturn(Optional.of(customer));
+
+		Customer returned = service.getOrCreate("Fulano", " Fulano@Email.com ");
+
+		assertThat(returned).isSameAs(customer);
+		verify(repository, Mockito.never()).saveAndFlush(Mockito.any(Customer.class));
+	}
+
+	@Test
+	@DisplayName("Deve criar o cliente com os contadores zerados")
+	public void createCustomerTest() {
+		Mockito.when(repository.findByEmail("fulano@email.com")).thenReturn(Optional.empty());
+		Mockito.when(repository.saveAndFlush(Mockito.any(Customer.class)))
+				.thenAnswer(invocation -> invocation.getArgument(0));
+
+		Customer created = service.getOrCreate("Fulano", "fulano@email.com");
+
+		assertThat(created.getEmail()).isEqualTo("fulano@email.com");
+		assertThat(created.getActiveLoans()).isZero();
+		assertThat(created.getLateLoans()).isZero();
+	}
+
+	@Test
+	@DisplayName("Deve reler o cliente criado por outra requisicao ao mesmo tempo")
+	public void concurrentCreateCustomerTest() {
+		Customer customer = Customer.builder().id(1L).name("Fulano").email("fulano@email.com").build();
+		Mockito.when(repository.findByEmail("fulano@email.com")).thenReturn(Optional.empty(),
+				Optional.of(customer));
+		Mockito.when(repository.saveAndFlush(Mockito.any(Customer.class)))
+				.thenThrow(new DataIntegrityViolationException("uk_customer_email"));
+
+		Customer returned = service.getOrCreate("Fulano", "fulano@email.com");
+
+		assertThat(returned).isSameAs(customer);
+	}
+
+	@Test
+	@DisplayName("Deve lancar erro quando o e-mail do cliente nao for informado")
+	public void customerWithoutEmailTest() {
+		Throwable ex = Assertions.catchThrowable(() -> service.getOrCreate("Fulano", null));
+
+		assertThat(ex).isInstanceOf(BusinessException.class).hasMessage("e-mail do cliente nao informado");
+	}
+
+	@Test
+	@DisplayName("Deve alterar o prazo de emprestimo do cliente")
+	public void updateLoanDaysTest() {
+		Customer customer = Customer.builder().id(1L).name("Fulano").email("fulano@email.com").loanDays(30).build();
+		Mockito.when(repository.updateLoanDays(1L, 30)).thenReturn(1);
+		Mockito.when(repository.findById(1L)).thenReturn(Optional.of(customer));
+
+		Optional<Customer> updated = service.updateLoanDays(1L, 30);
+
+		assertThat(updated).contains(customer);
+		verify(repository, Mockito.never()).save(Mockito.any(Customer.class));
+	}
+
+	@Test
+	@DisplayName("Deve retornar vazio ao alterar o prazo de um cliente inexistente")
+	public void updateInexistentCustomerLoanDaysTest() {
+		Mockito.when(repository.updateLoanDays(1L, 30)).thenReturn(0);
+
+		assertThat(service.updateLoanDays(1L, 30)).isEmpty();
+		verify(repository, Mockito.never()).findById(1L);
+	}
+
+	@Test
+	@DisplayName("Deve lancar erro ao alterar o prazo de emprestimo para um valor nao positivo")
+	public void updateInvalidLoanDaysTest() {
+		Throwable ex = Assertions.catchThrowable(() -> service.updateLoanDays(1L, 0));
+
+		assertThat(ex).isInstanceOf(BusinessException.class).hasMessage("prazo de emprestimo deve ser positivo");
+		verify(repository, Mockito.never()).updateLoanDays(Mockito.anyLong(), Mockito.any());
+	}
+}
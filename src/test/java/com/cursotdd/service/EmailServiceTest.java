@@ -0,0 +1,254 @@
+package com.cursotdd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.cursotdd.model.entity.DeadLetterMail;
+import com.cursotdd.model.entity.PendingMail;
+import com.cursotdd.model.repository.DeadLetterMailRepository;
+import com.cursotdd.model.repository.PendingMailRepository;
+import com.cursotdd.service.impl.EmailServiceImpl;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class EmailServiceTest {
+
+	@MockBean
+	DeadLetterMailRepository deadLetterRepository;
+
+	@MockBean
+	PendingMailRepository pendingRepository;
+
+	MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+	EmailServiceImpl service;
+
+	@BeforeEach
+	public void setup() {
+		AtomicLong ids = new AtomicLong();
+		when(pendingRepository.saveAll(Mockito.anyList())).thenAnswer(invocation -> {
+			List<PendingMail> mails = invocation.getArgument(0);
+			mails.forEach(mail -> mail.setId(ids.incrementAndGet()));
+			return mails;
+		});
+	}
+
+	@AfterEach
+	public void tearDown() throws InterruptedException {
+		service.stop();
+	}
+
+	@Test
+	@DisplayName("Deve enviar uma mensagem por destinatario em lotes assincronos")
+	public void sendMailsTest() throws InterruptedException {
+		StubMailSender sender = new StubMailSender(0, 3);
+		service = createService(sender, 3);
+
+		service.send("mensagem", Arrays.asList("a@email.com", "b@email.com", "c@email.com"));
+
+		assertThat(sender.delivered.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(sender.messages).extracting(message -> message.getTo()[0]).containsExactlyInAnyOrder(
+				"a@email.com", "b@email.com", "c@email.com");
+		assertThat(sender.sessions.get()).isLessThanOrEqualTo(3);
+		assertThat(meterRegistry.get("library.mail.send").timer().count()).isPositive();
+	}
+
+	@Test
+	@DisplayName("Deve gravar as mensagens antes de retornar e apaga-las depois do envio")
+	public void persistBeforeSendTest() throws InterruptedException {
+		StubMailSender sender = new StubMailSender(0, 1);
+		service = createService(sender, 3);
+
+		service.send("assunto", "mensagem", Arrays.asList("a@email.com"));
+
+		ArgumentCaptor<List<PendingMail>> captor = ArgumentCaptor.forClass(List.class);
+		verify(pendingRepository).saveAll(captor.capture());
+		assertThat(captor.getValue()).extracting(PendingMail::getRecipient).containsExactly("a@email.com");
+		assertThat(captor.getValue().get(0).getClaimedUntil()).isAfter(LocalDateTime.now());
+
+		assertThat(sender.delivered.await(5, TimeUnit.SECONDS)).isTrue();
+		verify(pendingRepository, timeout(5000)).deleteByIds(Collections.singletonList(1L));
+	}
+
+	@Test
+	@DisplayName("Deve manter a mensagem gravada quando a fila esta cheia")
+	public void fullQueueTest() throws InterruptedException {
+		StubMailSender sender = new StubMailSender(0, 1);
+		service = new EmailServiceImpl(sender, deadLetterRepository, pendingRepository, meterRegistry, 1, 1, 10, 3, 1,
+				10, 60000);
+		ReflectionTestUtils.setField(service, "remetent", "mail@library-api.com");
+
+		service.send("mensagem", Arrays.asList("a@email.com", "b@email.com"));
+		service.start();
+
+		assertThat(sender.delivered.await(5, TimeUnit.SECONDS)).isTrue();
+		verify(pendingRepository, timeout(5000)).deleteByIds(Collections.singletonList(1L));
+		verify(pendingRepository, never()).deleteByIds(Collections.singletonList(2L));
+		verify(deadLetterRepository, never()).save(Mockito.any(DeadLetterMail.class));
+	}
+
+	@Test
+	@DisplayName("Deve esperar pela fila cheia apenas uma vez por lote")
+	public void fullQueueWaitsOnceTest() {
+		StubMailSender sender = new StubMailSender(0, 1);
+		service = new EmailServiceImpl(sender, deadLetterRepository, pendingRepository, meterRegistry, 1, 1, 10, 3, 1,
+				2000, 60000);
+		ReflectionTestUtils.setField(service, "remetent", "mail@library-api.com");
+		long start = System.nanoTime();
+
+		service.send("mensagem", Arrays.asList("a@email.com", "b@email.com", "c@email.com", "d@email.com",
+				"e@email.com", "f@email.com"));
+
+		assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(5000);
+		verify(pendingRepository).saveAll(Mockito.anyList());
+	}
+
+	@Test
+	@DisplayName("Deve apenas gravar as mensagens quando o envio esta desligado")
+	public void disabledDispatcherTest() throws InterruptedException {
+		StubMailSender sender = new StubMailSender(0, 1);
+		service = new EmailServiceImpl(sender, deadLetterRepository, pendingRepository, meterRegistry, 10, 0, 10, 3, 1,
+				10, 60000);
+		ReflectionTestUtils.setField(service, "remetent", "mail@library-api.com");
+		service.start();
+
+		service.send("mensagem", Collections.singletonList("a@email.com"));
+		service.recover();
+
+		verify(pendingRepository).saveAll(Mockito.anyList());
+		verify(pendingRepository, never()).findExpired(Mockito.any(LocalDateTime.class), Mockito.any());
+		assertThat(sender.delivered.await(200, TimeUnit.MILLISECONDS)).isFalse();
+	}
+
+	@Test
+	@DisplayName("Deve reenviar as mensagens gravadas cujo prazo venceu")
+	public void recoverPendingMailsTest() throws InterruptedException {
+		StubMailSender sender = new StubMailSender(0, 1);
+		service = createService(sender, 3);
+		PendingMail mail = PendingMail.builder().id(7L).recipient("a@email.com").subject("assunto").body("mensagem")
+				.createdAt(LocalDateTime.now().minusHours(1)).claimedUntil(LocalDateTime.now().minusMinutes(1))
+				.build();
+		when(pendingRepository.findExpired(Mockito.any(LocalDateTime.class), Mockito.any()))
+				.thenReturn(Collections.singletonList(mail));
+		when(pendingRepository.claim(Mockito.eq(7L), Mockito.any(LocalDateTime.class),
+				Mockito.any(LocalDateTime.class))).thenReturn(1);
+
+		service.recover();
+
+		assertThat(sender.delivered.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(sender.messages.get(0).getTo()).containsExactly("a@email.com");
+		verify(pendingRepository, timeout(5000)).deleteByIds(Collections.singletonList(7L));
+	}
+
+	@Test
+	@DisplayName("Nao deve reenviar a mensagem reclamada por outra instancia")
+	public void recoverClaimedByAnotherNodeTest() {
+		StubMailSender sender = new StubMailSender(0, 1);
+		service = createService(sender, 3);
+		PendingMail mail = PendingMail.builder().id(7L).recipient("a@email.com")
+				.claimedUntil(LocalDateTime.now().minusMinutes(1)).build();
+		when(pendingRepository.findExpired(Mockito.any(LocalDateTime.class), Mockito.any()))
+				.thenReturn(Collections.singletonList(mail));
+		when(pendingRepository.claim(Mockito.eq(7L), Mockito.any(LocalDateTime.class),
+				Mockito.any(LocalDateTime.class))).thenReturn(0);
+
+		service.recover();
+
+		assertThat(sender.sessions.get()).isZero();
+	}
+
+	@Test
+	@DisplayName("Deve reenviar as mensagens que falharam")
+	public void retryFailedMailsTest() throws InterruptedException {
+		StubMailSender sender = new StubMailSender(1, 1);
+		service = createService(sender, 3);
+
+		service.send("mensagem", Arrays.asList("a@email.com"));
+
+		assertThat(sender.delivered.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(sender.sessions.get()).isEqualTo(2);
+		assertThat(meterRegistry.get("library.mail.failures").counter().count()).isEqualTo(1);
+	}
+
+	@Test
+	@DisplayName("Deve gravar em dead letter as mensagens que esgotaram as tentativas")
+	public void deadLetterTest() {
+		StubMailSender sender = new StubMailSender(Integer.MAX_VALUE, 1);
+		service = createService(sender, 2);
+
+		service.send("mensagem", Arrays.asList("a@email.com"));
+
+		ArgumentCaptor<DeadLetterMail> captor = ArgumentCaptor.forClass(DeadLetterMail.class);
+		verify(deadLetterRepository, timeout(5000)).save(captor.capture());
+		assertThat(captor.getValue().getRecipients()).isEqualTo("a@email.com");
+		assertThat(captor.getValue().getAttempts()).isEqualTo(2);
+		verify(pendingRepository, timeout(5000)).deleteByIds(Collections.singletonList(1L));
+	}
+
+	private EmailServiceImpl createService(StubMailSender sender, int maxAttempts) {
+		EmailServiceImpl emailService = new EmailServiceImpl(sender, deadLetterRepository, pendingRepository,
+				meterRegistry, 10, 1, 10, maxAttempts, 1, 10, 60000);
+		ReflectionTestUtils.setField(emailService, "remetent", "mail@library-api.com");
+		emailService.start();
+		return emailService;
+	}
+
+	/**
+	 * Servidor SMTP simulado: cada chamada a send corresponde a uma conexao e as
+	 * primeiras chamadas podem falhar.
+	 */
+	static class StubMailSender extends JavaMailSenderImpl {
+
+		final List<SimpleMailMessage> messages = new CopyOnWriteArrayList<>();
+		final AtomicInteger sessions = new AtomicInteger();
+		final CountDownLatch delivered;
+		final int failures;
+
+		StubMailSender(int failures, int expectedMessages) {
+			this.failures = failures;
+			this.delivered = new CountDownLatch(expectedMessages);
+		}
+
+		@Override
+		public void send(SimpleMailMessage... simpleMessages) {
+			if (sessions.incrementAndGet() <= failures) {
+				throw new MailSendException("servidor indisponivel");
+			}
+			for (SimpleMailMessage message : simpleMessages) {
+				messages.add(message);
+				delivered.countDown();
+			}
+		}
+	}
+}
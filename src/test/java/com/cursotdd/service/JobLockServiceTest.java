@@ -0,0 +1,96 @@
+package com.cursotdd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.cursotdd.model.entity.JobLock;
+import com.cursotdd.model.repository.JobLockRepository;
+import com.cursotdd.service.impl.JobLockServiceImpl;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class JobLockServiceTest {
+
+	private static final String JOB = "late-loans-mail-0";
+
+	@MockBean
+	JobLockRepository repository;
+
+	JobLockService service;
+
+	@BeforeEach
+	public void setup() {
+		this.service = new JobLockServiceImpl(repository, 300);
+	}
+
+	@Test
+	@DisplayName("Deve obter o lease com o fencing token da aquisicao")
+	public void tryAcquireTest() {
+		ArgumentCaptor<String> owner = ArgumentCaptor.forClass(String.class);
+		Mockito.when(repository.acquire(Mockito.eq(JOB), owner.capture(), Mockito.any(LocalDateTime.class),
+				Mockito.any(LocalDateTime.class))).thenReturn(1);
+		Mockito.when(repository.findById(JOB)).thenAnswer(i -> Optional.of(JobLock.builder().name(JOB)
+				.owner(owner.getValue()).lockedUntil(LocalDateTime.now().plusMinutes(5)).fencingToken(7L).build()));
+
+		Optional<JobLease> lease = service.tryAcquire(JOB);
+
+		assertThat(lease.isPresent()).isTrue();
+		assertThat(lease.get().getName()).isEqualTo(JOB);
+		assertThat(lease.get().getOwner()).isEqualTo(owner.getValue());
+		assertThat(lease.get().getToken()).isEqualTo(7L);
+	}
+
+	@Test
+	@DisplayName("Nao deve obter o lease quando outro no o detem")
+	public void tryAcquireHeldTest() {
+		Mockito.when(repository.acquire(Mockito.eq(JOB), Mockito.anyString(), Mockito.any(LocalDateTime.class),
+				Mockito.any(LocalDateTime.class))).thenReturn(0);
+		Mockito.when(repository.existsById(JOB)).thenReturn(true);
+
+		Optional<JobLease> lease = service.tryAcquire(JOB);
+
+		assertThat(lease.isPresent()).isFalse();
+		Mockito.verify(repository, Mockito.never()).create(Mockito.anyString(), Mockito.any(LocalDateTime.class));
+	}
+
+	@Test
+	@DisplayName("Deve criar o lease na primeira execucao do job, mesmo se outro no o criar antes")
+	public void tryAcquireCreateTest() {
+		Mockito.when(repository.acquire(Mockito.eq(JOB), Mockito.anyString(), Mockito.any(LocalDateTime.class),
+				Mockito.any(LocalDateTime.class))).thenReturn(0, 0);
+		Mockito.when(repository.existsById(JOB)).thenReturn(false);
+		Mockito.when(repository.create(Mockito.eq(JOB), Mockito.any(LocalDateTime.class)))
+				.thenThrow(new DataIntegrityViolationException("duplicado"));
+
+		Optional<JobLease> lease = service.tryAcquire(JOB);
+
+		assertThat(lease.isPresent()).isFalse();
+		Mockito.verify(repository, Mockito.times(2)).acquire(Mockito.eq(JOB), Mockito.anyString(),
+				Mockito.any(LocalDateTime.class), Mockito.any(LocalDateTime.class));
+	}
+
+	@Test
+	@DisplayName("Deve informar quando o lease nao pode ser renovado")
+	public void renewLostLeaseTest() {
+		JobLease lease = new JobLease(JOB, "no-1", 1L);
+		Mockito.when(repository.renew(Mockito.eq(JOB), Mockito.eq("no-1"), Mockito.eq(1L),
+				Mockito.any(LocalDateTime.class), Mockito.any(LocalDateTime.class))).thenReturn(0);
+
+		boolean renewed = service.renew(lease);
+
+		assertThat(renewed).isFalse();
+	}
+}
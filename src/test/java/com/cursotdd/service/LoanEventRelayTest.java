@@ -0,0 +1,126 @@
+package com.cursotdd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.cursotdd.model.entity.LoanEvent;
+import com.cursotdd.model.entity.LoanEvent.Type;
+import com.cursotdd.model.repository.LoanEventRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class LoanEventRelayTest {
+
+	@MockBean
+	LoanEventRepository repository;
+
+	@MockBean
+	LoanEventHandler handler;
+
+	@MockBean
+	JobLockService jobLockService;
+
+	SimpleMeterRegistry registry;
+
+	LoanEventRelay relay;
+
+	JobLease lease = new JobLease(LoanEventRelay.JOB, "no-1", 1L);
+
+	@BeforeEach
+	public void setup() {
+		registry = new SimpleMeterRegistry();
+		relay = new LoanEventRelay(repository, Collections.singletonList(handler), jobLockService, registry, 10, 3,
+				1000, 86400000);
+
+		when(handler.supports(Mockito.any(Type.class))).thenReturn(true);
+		when(jobLockService.tryAcquire(LoanEventRelay.JOB)).thenReturn(Optional.of(lease));
+	}
+
+	@Test
+	@DisplayName("Deve entregar os eventos aos handlers e marca-los como processados")
+	public void relayTest() {
+		LoanEvent first = event(1L, 10L, 0);
+		LoanEvent second = event(2L, 20L, 0);
+		when(repository.findReady(Mockito.any(LocalDateTime.class), Mockito.any(Pageable.class)))
+				.thenReturn(Arrays.asList(first, second));
+
+		relay.relay();
+
+		verify(handler).handle(first);
+		verify(handler).handle(second);
+		verify(repository).markProcessed(Mockito.eq(Arrays.asList(1L, 2L)), Mockito.any(LocalDateTime.class));
+		verify(jobLockService).release(lease);
+		assertThat(registry.get("library.outbox.dispatched").tag("type", "LOAN_CREATED").counter().count())
+				.isEqualTo(2);
+	}
+
+	@Test
+	@DisplayName("Deve adiar o evento com falha e segurar os eventos seguintes do mesmo livro")
+	public void failedEventTest() {
+		LoanEvent failed = event(1L, 10L, 0);
+		LoanEvent sameBook = event(2L, 10L, 0);
+		LoanEvent otherBook = event(3L, 20L, 0);
+		when(repository.findReady(Mockito.any(LocalDateTime.class), Mockito.any(Pageable.class)))
+				.thenReturn(Arrays.asList(failed, sameBook, otherBook));
+		Mockito.doThrow(new IllegalStateException("smtp fora")).when(handler).handle(failed);
+
+		relay.drain();
+
+		verify(handler, never()).handle(sameBook);
+		verify(repository).markProcessed(Mockito.eq(Collections.singletonList(3L)), Mockito.any(LocalDateTime.class));
+		ArgumentCaptor<LocalDateTime> nextAttempt = ArgumentCaptor.forClass(LocalDateTime.class);
+		verify(repository).markFailed(Mockito.eq(1L), Mockito.eq(1), nextAttempt.capture(), Mockito.isNull(),
+				Mockito.eq("smtp fora"));
+		assertThat(nextAttempt.getValue()).isAfter(LocalDateTime.now());
+	}
+
+	@Test
+	@DisplayName("Deve descartar o evento esgotadas as tentativas")
+	public void giveUpTest() {
+		LoanEvent failed = event(1L, 10L, 2);
+		when(repository.findReady(Mockito.any(LocalDateTime.class), Mockito.any(Pageable.class)))
+				.thenReturn(Collections.singletonList(failed));
+		Mockito.doThrow(new IllegalStateException("smtp fora")).when(handler).handle(failed);
+
+		relay.drain();
+
+		verify(repository).markFailed(Mockito.eq(1L), Mockito.eq(3), Mockito.isNull(),
+				Mockito.any(LocalDateTime.class), Mockito.eq("smtp fora"));
+		verify(repository, never()).markProcessed(Mockito.anyCollection(), Mockito.any(LocalDateTime.class));
+	}
+
+	@Test
+	@DisplayName("Nao deve entregar eventos quando outro no detem o lease")
+	public void leaseHeldTest() {
+		when(jobLockService.tryAcquire(LoanEventRelay.JOB)).thenReturn(Optional.empty());
+
+		relay.relay();
+
+		verify(repository, never()).findReady(Mockito.any(LocalDateTime.class), Mockito.any(Pageable.class));
+	}
+
+	private LoanEvent event(Long id, Long bookId, int attempts) {
+		return LoanEvent.builder().id(id).type(Type.LOAN_CREATED).loanId(id).bookId(bookId).customerId(1L)
+				.createdAt(LocalDateTime.now()).attempts(attempts).build();
+	}
+}
@@ -0,0 +1,95 @@
+package com.cursotdd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Optional;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.cursotdd.model.entity.Customer;
+import com.cursotdd.model.entity.LoanEvent;
+import com.cursotdd.model.entity.LoanEvent.Type;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class LoanMailHandlerTest {
+
+	@MockBean
+	CustomerService customerService;
+
+	@MockBean
+	EmailService emailService;
+
+	LoanMailHandler handler;
+
+	@BeforeEach
+	public void setup() {
+		handler = new LoanMailHandler(customerService, emailService);
+		ReflectionTestUtils.setField(handler, "createdMessage", "registrado");
+		ReflectionTestUtils.setField(handler, "returnedMessage", "devolvido");
+	}
+
+	@Test
+	@DisplayName("Deve avisar o cliente do emprestimo registrado")
+	public void createdMailTest() {
+		when(customerService.getById(1L)).thenReturn(Optional.of(Customer.builder().id(1L).email("a@email.com")
+				.build()));
+
+		handler.handle(event(Type.LOAN_CREATED));
+
+		verify(emailService).send(Mockito.anyString(), Mockito.eq("registrado"),
+				Mockito.eq(Collections.singletonList("a@email.com")));
+	}
+
+	@Test
+	@DisplayName("Deve falhar, para nova tentativa, quando o cliente ainda nao e encontrado")
+	public void customerNotFoundTest() {
+		when(customerService.getById(1L)).thenReturn(Optional.empty());
+
+		Throwable ex = Assertions.catchThrowable(() -> handler.handle(event(Type.LOAN_RETURNED)));
+
+		assertThat(ex).isInstanceOf(IllegalStateException.class);
+		verify(emailService, never()).send(Mockito.anyString(), Mockito.anyString(), Mockito.anyList());
+	}
+
+	@Test
+	@DisplayName("Deve falhar, para nova tentativa, quando o e-mail nao pode ser gravado")
+	public void mailNotStoredTest() {
+		when(customerService.getById(1L)).thenReturn(Optional.of(Customer.builder().id(1L).email("a@email.com")
+				.build()));
+		Mockito.doThrow(new DataAccessResourceFailureException("banco fora")).when(emailService)
+				.send(Mockito.anyString(), Mockito.anyString(), Mockito.anyList());
+
+		Throwable ex = Assertions.catchThrowable(() -> handler.handle(event(Type.LOAN_CREATED)));
+
+		assertThat(ex).isInstanceOf(DataAccessResourceFailureException.class);
+	}
+
+	@Test
+	@DisplayName("Nao deve tratar a reabertura de um emprestimo")
+	public void supportsTest() {
+		assertThat(handler.supports(Type.LOAN_CREATED)).isTrue();
+		assertThat(handler.supports(Type.LOAN_RETURNED)).isTrue();
+		assertThat(handler.supports(Type.LOAN_REOPENED)).isFalse();
+	}
+
+	private LoanEvent event(Type type) {
+		return LoanEvent.builder().id(1L).type(type).loanId(1L).bookId(1L).customerId(1L)
+				.createdAt(LocalDateTime.now()).attempts(0).build();
+	}
+}
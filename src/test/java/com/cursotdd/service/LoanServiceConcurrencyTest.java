@@ -0,0 +1,110 @@
+package com.cursotdd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.cursotdd.exception.BusinessException;
+import com.cursotdd.model.entity.Book;
+import com.cursotdd.model.entity.Customer;
+import com.cursotdd.model.entity.Loan;
+import com.cursotdd.model.repository.BookRepository;
+import com.cursotdd.model.repository.CustomerRepository;
+import com.cursotdd.model.repository.LoanRepository;
+import com.cursotdd.service.impl.BitSetBookAvailabilityService;
+import com.cursotdd.service.impl.LoanServiceImpl;
+
+/**
+ * Varias threads tentam emprestar o mesmo livro ao mesmo tempo, cada uma na
+ * sua propria transacao. O indice unico de emprestimo ativo deve deixar passar
+ * exatamente um.
+ */
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+@DataJpaTest
+@Import({ LoanServiceImpl.class, BitSetBookAvailabilityService.class })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class LoanServiceConcurrencyTest {
+
+	private static final int THREADS = 8;
+	private static final int ATTEMPTS = 64;
+
+	@Autowired
+	LoanService service;
+
+	@Autowired
+	LoanRepository loanRepository;
+
+	@Autowired
+	BookRepository bookRepository;
+
+	@Autowired
+	CustomerRepository customerRepository;
+
+	@AfterEach
+	public void cleanUp() {
+		loanRepository.deleteAll();
+		bookRepository.deleteAll();
+		customerRepository.deleteAll();
+	}
+
+	@Test
+	@DisplayName("Deve registrar um unico emprestimo quando varias threads emprestam o mesmo livro")
+	public void concurrentLoanTest() throws Exception {
+		Book book = bookRepository.save(Book.builder().isbn("123").author("Fulano").title("Teste").build());
+
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Boolean>> results = new ArrayList<>(ATTEMPTS);
+		for (int i = 0; i < ATTEMPTS; i++) {
+			Customer customer = customerRepository.save(Customer.builder().name("cliente " + i)
+					.email("cliente" + i + "@email.com").activeLoans(0).lateLoans(0).build());
+			results.add(executor.submit(borrow(start, book, customer)));
+		}
+
+		start.countDown();
+		int winners = 0;
+		for (Future<Boolean> result : results) {
+			if (result.get(30, TimeUnit.SECONDS)) {
+				winners++;
+			}
+		}
+		executor.shutdown();
+
+		assertThat(winners).isEqualTo(1);
+		assertThat(loanRepository.count()).isEqualTo(1);
+		assertThat(customerRepository.findAll()).extracting(Customer::getActiveLoans).containsOnlyOnce(1);
+	}
+
+	private Callable<Boolean> borrow(CountDownLatch start, Book book, Customer customer) {
+		return () -> {
+			start.await();
+			try {
+				service.save(Loan.builder().book(book).customer(customer).loanDate(LocalDate.now()).build());
+				return true;
+			} catch (BusinessException e) {
+				return false;
+			}
+		};
+	}
+}
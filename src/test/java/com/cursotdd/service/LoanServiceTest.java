@@ -5,9 +5,14 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 import org.assertj.core.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
@@ -16,16 +21,24 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 
+import com.cursotdd.dto.LateLoanDto;
+import com.cursotdd.dto.LoanDto;
 import com.cursotdd.dto.LoanFilterDto;
+import com.cursotdd.dto.LoanReturnResultDto;
+import com.cursotdd.dto.LoanReturnResultDto.Status;
 import com.cursotdd.exception.BusinessException;
 import com.cursotdd.model.entity.Book;
+import com.cursotdd.model.entity.Customer;
 import com.cursotdd.model.entity.Loan;
+import com.cursotdd.model.repository.CustomerRepository;
+import com.cursotdd.model.repository.LoanEventRepository;
 import com.cursotdd.model.repository.LoanRepository;
 import com.cursotdd.service.impl.LoanServiceImpl;
 
@@ -36,44 +49,92 @@ public class LoanServiceTest {
 	@MockBean
 	LoanRepository repository;
 
+	@MockBean
+	CustomerRepository customerRepository;
+
+	@MockBean
+	LoanEventRepository eventRepository;
+
+	@MockBean
+	BookAvailabilityService availabilityService;
+
 	LoanService service;
 
 	@BeforeEach
 	public void setup() {
-		this.service = new LoanServiceImpl(repository);
+		this.service = new LoanServiceImpl(repository, customerRepository, eventRepository, availabilityService, 4);
 	}
 
 	@Test
 	@DisplayName("Deve salvar um emprestimo")
 	public void saveLoanTest() {
 		Book book = Book.builder().id(1L).build();
-		Loan loanToSave = Loan.builder().customer("Fulano").book(book).loanDate(LocalDate.now()).build();
+		Loan loanToSave = Loan.builder().customer(createCustomer()).book(book).loanDate(LocalDate.now()).build();
 
-		Loan savedLoan = Loan.builder().id(1L).loanDate(LocalDate.now()).customer("Fulano").book(book).build();
+		Loan savedLoan = Loan.builder().id(1L).loanDate(LocalDate.now()).customer(createCustomer()).book(book)
+				.build();
 
-		when(repository.existsByBookAndNotReturned(book)).thenReturn(false);
-		when(repository.save(loanToSave)).thenReturn(savedLoan);
+		when(repository.saveAndFlush(loanToSave)).thenReturn(savedLoan);
 
 		Loan loan = service.save(loanToSave);
 
 		assertThat(loan.getId()).isEqualTo(savedLoan.getId());
 		assertThat(loan.getCustomer()).isEqualTo(savedLoan.getCustomer());
 		assertThat(loan.getBook().getId()).isEqualTo(savedLoan.getBook().getId());
+		verify(customerRepository).updateLoanCounts(Collections.singletonList(1L), LocalDate.now(), 1);
+		verify(eventRepository).insertEvents(Mockito.eq("LOAN_CREATED"), Mockito.eq(Collections.singletonList(1L)),
+				Mockito.any(LocalDateTime.class));
+		verify(availabilityService).loaned(Collections.singletonList(1L));
+	}
+
+	@Test
+	@DisplayName("Deve calcular o vencimento pelo prazo do cliente, do livro ou pelo prazo padrao")
+	public void dueDateTest() {
+		LocalDate today = LocalDate.now();
+		Customer customer = createCustomer();
+		Book book = Book.builder().id(1L).loanDays(7).build();
+		when(repository.saveAndFlush(Mockito.any(Loan.class))).thenAnswer(i -> i.getArgument(0));
+
+		Loan defaultLoan = service.save(Loan.builder().book(Book.builder().id(2L).build()).customer(customer)
+				.loanDate(today).build());
+		Loan bookLoan = service.save(Loan.builder().book(book).customer(customer).loanDate(today).build());
+		customer.setLoanDays(14);
+		Loan customerLoan = service.save(Loan.builder().book(book).customer(customer).loanDate(today).build());
+
+		assertThat(defaultLoan.getDueDate()).isEqualTo(today.plusDays(4));
+		assertThat(bookLoan.getDueDate()).isEqualTo(today.plusDays(7));
+		assertThat(customerLoan.getDueDate()).isEqualTo(today.plusDays(14));
+	}
+
+	@Test
+	@DisplayName("Nao deve reportar como livro emprestado a violacao de outra constraint")
+	public void otherConstraintLoanSaveTest() {
+		Loan loanToSave = Loan.builder().customer(createCustomer()).book(Book.builder().id(1L).build())
+				.loanDate(LocalDate.now()).build();
+		DataIntegrityViolationException violation = new DataIntegrityViolationException("fk_loan_book");
+		when(repository.saveAndFlush(loanToSave)).thenThrow(violation);
+
+		Throwable ex = Assertions.catchThrowable(() -> service.save(loanToSave));
+
+		assertThat(ex).isSameAs(violation);
 	}
 
 	@Test
 	@DisplayName("Deve lancar erro ao salvar um emprestimo com livro ja emprestado")
 	public void loanedBookSaveTest() {
 		Book book = Book.builder().id(1L).build();
-		Loan loanToSave = Loan.builder().customer("Fulano").book(book).loanDate(LocalDate.now()).build();
+		Loan loanToSave = Loan.builder().customer(createCustomer()).book(book).loanDate(LocalDate.now()).build();
 
-		when(repository.existsByBookAndNotReturned(book)).thenReturn(true);
+		when(repository.saveAndFlush(loanToSave))
+				.thenThrow(new DataIntegrityViolationException("uk_loan_active_book"));
 
 		Throwable ex = Assertions.catchThrowable(() -> service.save(loanToSave));
 
 		assertThat(ex).isInstanceOf(BusinessException.class).hasMessage("livro ja emprestado");
-
-		Mockito.verify(repository, Mockito.never()).save(loanToSave);
+		verify(customerRepository, Mockito.never()).updateLoanCounts(Mockito.anyCollection(),
+				Mockito.any(LocalDate.class), Mockito.anyInt());
+		verify(eventRepository, Mockito.never()).insertEvents(Mockito.anyString(), Mockito.anyCollection(),
+				Mockito.any(LocalDateTime.class));
 	}
 
 	@Test
@@ -108,20 +169,107 @@ public class LoanServiceTest {
 		verify(repository).save(loanToUpdate);
 	}
 
+	@Test
+	@DisplayName("deve devolver um emprestimo sem carregar a entidade")
+	public void markReturnedTest() {
+		List<Long> ids = Collections.singletonList(1L);
+		Mockito.when(repository.findOpenLoanIds(ids)).thenReturn(ids);
+		Mockito.when(repository.markReturned(ids)).thenReturn(1);
+		Mockito.when(repository.findBookIds(ids)).thenReturn(Collections.singletonList(5L));
+
+		boolean found = service.markReturned(1L, true);
+
+		assertThat(found).isTrue();
+		verify(repository, Mockito.never()).findById(Mockito.anyLong());
+		verify(repository).markReturned(ids);
+		verify(customerRepository).updateLoanCounts(ids, LocalDate.now(), -1);
+		verify(eventRepository).insertEvents(Mockito.eq("LOAN_RETURNED"), Mockito.eq(ids),
+				Mockito.any(LocalDateTime.class));
+		verify(availabilityService).returned(Collections.singletonList(5L));
+	}
+
+	@Test
+	@DisplayName("deve reabrir um emprestimo devolvido com novo vencimento, incrementando o contador do cliente")
+	public void markNotReturnedTest() {
+		List<Long> ids = Collections.singletonList(1L);
+		Customer customer = Customer.builder().id(2L).loanDays(10).build();
+		Mockito.when(repository.findReturnedLoanIds(ids)).thenReturn(ids);
+		Mockito.when(repository.findById(1L)).thenReturn(Optional.of(
+				Loan.builder().id(1L).customer(customer).loanDate(LocalDate.now().minusDays(30)).build()));
+		Mockito.when(repository.markNotReturned(Mockito.eq(1L), Mockito.any(LocalDate.class))).thenReturn(1);
+
+		boolean found = service.markReturned(1L, false);
+
+		assertThat(found).isTrue();
+		verify(repository).markNotReturned(1L, LocalDate.now().plusDays(10));
+		verify(customerRepository).updateLoanCounts(ids, LocalDate.now(), 1);
+		verify(eventRepository).insertEvents(Mockito.eq("LOAN_REOPENED"), Mockito.eq(ids),
+				Mockito.any(LocalDateTime.class));
+	}
+
+	@Test
+	@DisplayName("nao deve alterar o contador do cliente ao devolver um emprestimo ja devolvido")
+	public void markReturnedAlreadyReturnedLoanTest() {
+		Mockito.when(repository.existsById(1L)).thenReturn(true);
+
+		boolean found = service.markReturned(1L, true);
+
+		assertThat(found).isTrue();
+		verify(repository, Mockito.never()).markReturned(Mockito.anyCollection());
+		verify(customerRepository, Mockito.never()).updateLoanCounts(Mockito.anyCollection(),
+				Mockito.any(LocalDate.class), Mockito.anyInt());
+	}
+
+	@Test
+	@DisplayName("deve informar emprestimo inexistente ao devolver")
+	public void markReturnedInexistentLoanTest() {
+		Mockito.when(repository.existsById(1L)).thenReturn(false);
+
+		boolean found = service.markReturned(1L, true);
+
+		assertThat(found).isFalse();
+	}
+
+	@Test
+	@DisplayName("deve devolver emprestimos em lote informando o resultado de cada item")
+	public void returnAllTest() {
+		Mockito.when(repository.findOpenLoanIds(Arrays.asList(1L, 2L, 3L))).thenReturn(Arrays.asList(1L));
+		Mockito.when(repository.findExistingIds(Arrays.asList(2L, 3L))).thenReturn(Arrays.asList(2L));
+		Mockito.when(repository.findOpenLoanIdsByIsbns(Arrays.asList("123", "456")))
+				.thenReturn(Collections.singletonList(7L));
+		Mockito.when(repository.findDtoByIds(Collections.singletonList(7L)))
+				.thenReturn(Collections.singletonList(LoanDto.builder().id(7L).isbn("123").build()));
+
+		List<LoanReturnResultDto> results = service.returnAll(Arrays.asList(1L, 2L, 3L, 1L),
+				Arrays.asList("123", "456"));
+
+		assertThat(results).extracting(LoanReturnResultDto::getStatus).containsExactly(Status.RETURNED,
+				Status.ALREADY_RETURNED, Status.NOT_FOUND, Status.RETURNED, Status.NOT_FOUND);
+		assertThat(results.get(3).getId()).isEqualTo(7L);
+		verify(repository).markReturned(Collections.singleton(1L));
+		verify(repository).markReturned(Collections.singletonList(7L));
+		verify(customerRepository).updateLoanCounts(Collections.singleton(1L), LocalDate.now(), -1);
+		verify(customerRepository).updateLoanCounts(Collections.singletonList(7L), LocalDate.now(), -1);
+		verify(eventRepository).insertEvents(Mockito.eq("LOAN_RETURNED"), Mockito.eq(Collections.singleton(1L)),
+				Mockito.any(LocalDateTime.class));
+		verify(eventRepository).insertEvents(Mockito.eq("LOAN_RETURNED"),
+				Mockito.eq(Collections.singletonList(7L)), Mockito.any(LocalDateTime.class));
+	}
+
 	@Test
 	@DisplayName("Deve filtrar emprestimos pelas propriedades")
 	public void findLoanTest() {
-		Loan loan = createLoan(1l);
+		LoanDto loan = LoanDto.builder().id(1L).customer("fulano").isbn("123").build();
 		LoanFilterDto dto = LoanFilterDto.builder().customer(loan.getCustomer()).isbn("123").build();
 
 		PageRequest pageRequest = PageRequest.of(0, 10);
-		List<Loan> lista = Collections.singletonList(loan);
-		Page<Loan> page = new PageImpl<Loan>(lista, pageRequest, 1);
+		List<LoanDto> lista = Collections.singletonList(loan);
+		Page<LoanDto> page = new PageImpl<LoanDto>(lista, pageRequest, 1);
 
-		Mockito.when(repository.findByBookIsbnOrCustomer(Mockito.anyString(), Mockito.anyString(),
+		Mockito.when(repository.findDtoByBookIsbnOrCustomer(Mockito.anyString(), Mockito.anyString(),
 				Mockito.any(org.springframework.data.domain.Pageable.class))).thenReturn(page);
 
-		Page<Loan> result = service.find(dto, pageRequest);
+		Page<LoanDto> result = service.find(dto, pageRequest);
 
 		assertThat(result.getTotalElements()).isEqualTo(1);
 		assertThat(result.getContent()).isEqualTo(lista);
@@ -129,8 +277,89 @@ public class LoanServiceTest {
 		assertThat(result.getPageable().getPageSize()).isEqualTo(10);
 	}
 
+	@Test
+	@DisplayName("Deve obter os emprestimos que venceram desde a ultima execucao")
+	public void getNewlyLateLoansTest() {
+		LocalDate after = LocalDate.now().minusDays(1);
+		List<LateLoanDto> loans = Collections.singletonList(new LateLoanDto(1L, "a@email.com", LocalDate.now()));
+		Mockito.when(repository.findNewlyLateLoans(after, Long.MAX_VALUE, LocalDate.now(), 1, 4,
+				PageRequest.of(0, 50))).thenReturn(loans);
+
+		List<LateLoanDto> result = service.getNewlyLateLoans(after, null, LocalDate.now(), 1, 4, 50);
+
+		assertThat(result).isEqualTo(loans);
+	}
+
+	@Test
+	@DisplayName("Deve continuar a leitura dos emprestimos vencidos a partir do ultimo do bloco anterior")
+	public void getNewlyLateLoansAfterLastTest() {
+		LocalDate after = LocalDate.now().minusDays(3);
+		LateLoanDto last = new LateLoanDto(7L, "a@email.com", LocalDate.now().minusDays(1));
+		Mockito.when(repository.findNewlyLateLoans(last.getDueDate(), 7L, LocalDate.now(), 1, 4,
+				PageRequest.of(0, 50))).thenReturn(Collections.emptyList());
+
+		List<LateLoanDto> result = service.getNewlyLateLoans(after, last, LocalDate.now(), 1, 4, 50);
+
+		assertThat(result).isEmpty();
+		Mockito.verify(repository).findNewlyLateLoans(last.getDueDate(), 7L, LocalDate.now(), 1, 4,
+				PageRequest.of(0, 50));
+	}
+
+	@Test
+	@DisplayName("Deve marcar os emprestimos avisados com o fencing token do lease")
+	public void markLateNotifiedTest() {
+		JobLease lease = new JobLease("late-loans-mail-0", "no-1", 2L);
+		Mockito.when(repository.markLateNotified(Mockito.eq(Arrays.asList(1L, 2L)), Mockito.any(LocalDateTime.class),
+				Mockito.eq("late-loans-mail-0"), Mockito.eq("no-1"), Mockito.eq(2L))).thenReturn(2);
+
+		int updated = service.markLateNotified(Arrays.asList(1L, 2L), lease);
+
+		assertThat(updated).isEqualTo(2);
+	}
+
+	@Test
+	@DisplayName("deve contar emprestimos vencidos")
+	public void countLateLoansTest() {
+		Mockito.when(repository.countLateLoans(LocalDate.now())).thenReturn(3L);
+
+		long count = service.countLateLoans();
+
+		assertThat(count).isEqualTo(3);
+	}
+
+	@Test
+	@DisplayName("deve recalcular os atrasos dos clientes com a data limite de devolucao")
+	public void refreshCustomerLateLoansTest() {
+		Mockito.when(customerRepository.refreshLateLoans(LocalDate.now())).thenReturn(2);
+
+		int updated = service.refreshCustomerLateLoans();
+
+		assertThat(updated).isEqualTo(2);
+	}
+
+	@Test
+	@DisplayName("deve exportar os emprestimos e fechar o cursor ao final")
+	public void exportTest() {
+		LoanDto first = LoanDto.builder().id(3L).isbn("1").build();
+		LoanDto second = LoanDto.builder().id(4L).isbn("2").build();
+		AtomicBoolean closed = new AtomicBoolean();
+		Mockito.when(repository.streamDtoAfter(2L))
+				.thenReturn(Stream.of(first, second).onClose(() -> closed.set(true)));
+
+		List<LoanDto> exported = new ArrayList<>();
+		long count = service.export(2L, exported::add);
+
+		assertThat(count).isEqualTo(2);
+		assertThat(exported).containsExactly(first, second);
+		assertThat(closed).isTrue();
+	}
+
 	private Loan createLoan(long id) {
-		return Loan.builder().id(id).book(Book.builder().id(1l).build()).customer("fulano").loanDate(LocalDate.now())
-				.build();
+		return Loan.builder().id(id).book(Book.builder().id(1l).build()).customer(createCustomer())
+				.loanDate(LocalDate.now()).build();
+	}
+
+	private Customer createCustomer() {
+		return Customer.builder().id(1L).name("fulano").email("fulano@email.com").build();
 	}
 }
@@ -0,0 +1,125 @@
+package com.cursotdd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import com.cursotdd.dto.BookSearchResultDto;
+import com.cursotdd.dto.KeysetCursor;
+import com.cursotdd.model.entity.Book;
+import com.cursotdd.model.repository.BookRepository;
+import com.cursotdd.service.impl.LuceneBookSearchService;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class LuceneBookSearchServiceTest {
+
+	LuceneBookSearchService service;
+
+	@MockBean
+	BookRepository repository;
+
+	@BeforeEach
+	public void setup() throws IOException {
+		this.service = new LuceneBookSearchService(repository, "", 100);
+		service.index(Arrays.asList(createBook(1L, "123", "Harry Potter e a Pedra Filosofal", "J. K. Rowling"),
+				createBook(2L, "456", "O Senhor dos Anéis", "J. R. R. Tolkien"),
+				createBook(3L, "789", "O Hobbit", "J. R. R. Tolkien")));
+	}
+
+	@AfterEach
+	public void close() throws IOException {
+		service.close();
+	}
+
+	@Test
+	@DisplayName("Deve encontrar livros pelo prefixo do titulo")
+	public void searchByPrefixTest() {
+		List<BookSearchResultDto> results = service.search("harr pot", 10);
+
+		assertThat(results).extracting(BookSearchResultDto::getId).containsExactly(1L);
+	}
+
+	@Test
+	@DisplayName("Deve encontrar livros com erro de digitacao e sem acentos")
+	public void searchFuzzyTest() {
+		assertThat(service.search("tolkein", 10)).extracting(BookSearchResultDto::getId).containsOnly(2L, 3L);
+		assertThat(service.search("aneis", 10)).extracting(BookSearchResultDto::getId).containsExactly(2L);
+	}
+
+	@Test
+	@DisplayName("Deve encontrar um livro pelo isbn exato")
+	public void searchByIsbnTest() {
+		List<BookSearchResultDto> results = service.search("789", 10);
+
+		assertThat(results).hasSize(1);
+		assertThat(results.get(0).getTitle()).isEqualTo("O Hobbit");
+	}
+
+	@Test
+	@DisplayName("Deve refletir atualizacoes e remocoes no indice")
+	public void updateAndRemoveTest() {
+		service.index(Collections.singletonList(createBook(3L, "789", "The Hobbit", "J. R. R. Tolkien")));
+		service.remove(createBook(2L, "456", "O Senhor dos Anéis", "J. R. R. Tolkien"));
+
+		List<BookSearchResultDto> results = service.search("tolkien", 10);
+
+		assertThat(results).extracting(BookSearchResultDto::getTitle).containsExactly("The Hobbit");
+	}
+
+	@Test
+	@DisplayName("Deve reconstruir o indice a partir do banco")
+	public void rebuildTest() {
+		Book book = createBook(10L, "999", "Dom Casmurro", "Machado de Assis");
+		Mockito.when(
+				repository.findSlice(Mockito.any(Book.class), Mockito.eq("id"), Mockito.isNull(), Mockito.anyInt()))
+				.thenReturn(new SliceImpl<Book>(Collections.singletonList(book), PageRequest.of(0, 1), true));
+		Mockito.when(repository.findSlice(Mockito.any(Book.class), Mockito.eq("id"), Mockito.any(KeysetCursor.class),
+				Mockito.anyInt())).thenReturn(new SliceImpl<Book>(Collections.<Book>emptyList()));
+
+		long indexed = service.rebuild();
+
+		assertThat(indexed).isEqualTo(1);
+		assertThat(service.search("casmurro", 10)).extracting(BookSearchResultDto::getId).containsExactly(10L);
+		assertThat(service.search("hobbit", 10)).isEmpty();
+	}
+
+	@Test
+	@DisplayName("Nao deve sobrescrever com a versao lida pela reconstrucao um livro alterado durante ela")
+	public void rebuildConcurrentChangeTest() {
+		Book stale = createBook(10L, "999", "Dom Casmuro", "Machado de Assis");
+		Book removed = createBook(11L, "888", "Memorias Postumas", "Machado de Assis");
+		Mockito.when(
+				repository.findSlice(Mockito.any(Book.class), Mockito.eq("id"), Mockito.isNull(), Mockito.anyInt()))
+				.thenAnswer(invocation -> {
+					service.index(Collections.singletonList(createBook(10L, "999", "Dom Casmurro", "Machado")));
+					service.remove(removed);
+					return new SliceImpl<Book>(Arrays.asList(stale, removed), PageRequest.of(0, 2), false);
+				});
+
+		service.rebuild();
+
+		assertThat(service.search("machado", 10)).extracting(BookSearchResultDto::getTitle)
+				.containsExactly("Dom Casmurro");
+		assertThat(service.search("tolkien", 10)).isEmpty();
+	}
+
+	private Book createBook(Long id, String isbn, String title, String author) {
+		return Book.builder().id(id).isbn(isbn).title(title).author(author).build();
+	}
+}
@@ -0,0 +1,232 @@
+package com.cursotdd.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+
+import com.cursotdd.dto.LateLoanDto;
+import com.cursotdd.model.entity.JobCheckpoint;
+import com.cursotdd.model.repository.JobCheckpointRepository;
+
+@ExtendWith(SpringExtension.class)
+@ActiveProfiles("test")
+public class ScheduleServiceTest {
+
+	private static final String JOB = ScheduleService.shardJob(0);
+
+	@MockBean
+	LoanService loanService;
+
+	@MockBean
+	EmailService emailService;
+
+	@MockBean
+	JobCheckpointRepository checkpointRepository;
+
+	@MockBean
+	JobLockService jobLockService;
+
+	PlatformTransactionManager transactionManager = Mockito.mock(PlatformTransactionManager.class);
+
+	ScheduleService service;
+
+	JobLease lease = new JobLease(JOB, "no-1", 1L);
+
+	@BeforeEach
+	public void setup() {
+		this.service = new ScheduleService(loanService, emailService, checkpointRepository, jobLockService,
+				transactionManager);
+		ReflectionTestUtils.setField(service, "message", "mensagem");
+		ReflectionTestUtils.setField(service, "chunkSize", 2);
+		ReflectionTestUtils.setField(service, "initialLookbackDays", 30);
+		ReflectionTestUtils.setField(service, "shards", 1);
+
+		when(checkpointRepository.save(Mockito.any(JobCheckpoint.class))).thenAnswer(i -> i.getArgument(0));
+		when(jobLockService.tryAcquire(Mockito.anyString())).thenReturn(Optional.empty());
+		when(jobLockService.tryAcquire(JOB)).thenReturn(Optional.of(lease));
+		when(jobLockService.renew(lease)).thenReturn(true);
+		when(loanService.markLateNotified(Mockito.anyCollection(), Mockito.eq(lease))).thenReturn(1);
+	}
+
+	@Test
+	@DisplayName("Deve avisar os emprestimos vencidos desde a marca d'agua com um e-mail por cliente")
+	public void sendMailInChunksTest() {
+		LocalDate today = LocalDate.now();
+		JobCheckpoint checkpoint = JobCheckpoint.builder().jobName(JOB).runDate(today.minusDays(1)).position("")
+				.finished(true).build();
+		when(checkpointRepository.findById(JOB)).thenReturn(Optional.of(checkpoint));
+		LateLoanDto second = new LateLoanDto(2L, "b@email.com", today);
+		LateLoanDto third = new LateLoanDto(3L, "a@email.com", today);
+		when(loanService.getNewlyLateLoans(today.minusDays(1), null, today, 0, 1, 2))
+				.thenReturn(Arrays.asList(new LateLoanDto(1L, "a@email.com", today), second));
+		when(loanService.getNewlyLateLoans(today.minusDays(1), second, today, 0, 1, 2))
+				.thenReturn(Collections.singletonList(third));
+		when(loanService.getNewlyLateLoans(today.minusDays(1), third, today, 0, 1, 2))
+				.thenReturn(Collections.emptyList());
+
+		service.sendMailToLateLoans();
+
+		verify(emailService).send("mensagem", Arrays.asList("a@email.com", "b@email.com"));
+		verify(emailService, Mockito.times(1)).send(Mockito.anyString(), Mockito.anyList());
+		verify(loanService).markLateNotified(Arrays.asList(1L, 2L), lease);
+		verify(loanService).markLateNotified(Collections.singletonList(3L), lease);
+		verify(jobLockService).release(lease);
+
+		ArgumentCaptor<JobCheckpoint> captor = ArgumentCaptor.forClass(JobCheckpoint.class);
+		verify(checkpointRepository).save(captor.capture());
+		assertThat(captor.getValue().getRunDate()).isEqualTo(today);
+		assertThat(captor.getValue().getFinished()).isTrue();
+	}
+
+	@Test
+	@DisplayName("Deve partir da janela inicial quando o job nunca foi executado")
+	public void initialWatermarkTest() {
+		LocalDate today = LocalDate.now();
+		when(checkpointRepository.findById(JOB)).thenReturn(Optional.empty());
+		when(loanService.getNewlyLateLoans(today.minusDays(30), null, today, 0, 1, 2))
+				.thenReturn(Collections.emptyList());
+
+		service.sendMailToLateLoans();
+
+		verify(loanService).getNewlyLateLoans(today.minusDays(30), null, today, 0, 1, 2);
+		verify(emailService, never()).send(Mockito.anyString(), Mockito.anyList());
+	}
+
+	@Test
+	@DisplayName("Nao deve reenviar os e-mails quando a execucao do dia ja terminou")
+	public void finishedCheckpointTest() {
+		JobCheckpoint checkpoint = JobCheckpoint.builder().jobName(JOB).runDate(LocalDate.now()).position("")
+				.finished(true).build();
+		when(checkpointRepository.findById(JOB)).thenReturn(Optional.of(checkpoint));
+
+		service.sendMailToLateLoans();
+
+		verify(loanService, never()).getNewlyLateLoans(Mockito.any(LocalDate.class), Mockito.any(),
+				Mockito.any(LocalDate.class), Mockito.anyInt(), Mockito.anyInt(), Mockito.anyInt());
+		verify(emailService, never()).send(Mockito.anyString(), Mockito.anyList());
+	}
+
+	@Test
+	@DisplayName("Nao deve processar a fatia cujo lease esta com outro no")
+	public void shardHeldByAnotherNodeTest() {
+		when(jobLockService.tryAcquire(JOB)).thenReturn(Optional.empty());
+
+		service.sendMailToLateLoans();
+
+		verify(checkpointRepository, never()).findById(Mockito.anyString());
+		verify(loanService, never()).getNewlyLateLoans(Mockito.any(LocalDate.class), Mockito.any(),
+				Mockito.any(LocalDate.class), Mockito.anyInt(), Mockito.anyInt(), Mockito.anyInt());
+		verify(jobLockService, never()).release(Mockito.any(JobLease.class));
+	}
+
+	@Test
+	@DisplayName("Deve processar apenas as fatias cujo lease foi obtido")
+	public void shardsTest() {
+		LocalDate today = LocalDate.now();
+		ReflectionTestUtils.setField(service, "shards", 2);
+		when(checkpointRepository.findById(JOB)).thenReturn(Optional.empty());
+		when(loanService.getNewlyLateLoans(today.minusDays(30), null, today, 0, 2, 2))
+				.thenReturn(Collections.emptyList());
+
+		service.sendMailToLateLoans();
+
+		verify(jobLockService).tryAcquire(ScheduleService.shardJob(1));
+		verify(loanService).getNewlyLateLoans(today.minusDays(30), null, today, 0, 2, 2);
+		verify(loanService, never()).getNewlyLateLoans(Mockito.any(LocalDate.class), Mockito.any(),
+				Mockito.any(LocalDate.class), Mockito.eq(1), Mockito.anyInt(), Mockito.anyInt());
+	}
+
+	@Test
+	@DisplayName("Deve pular o bloco ja avisado e continuar a fatia")
+	public void alreadyNotifiedChunkTest() {
+		LocalDate today = LocalDate.now();
+		LateLoanDto notified = new LateLoanDto(1L, "a@email.com", today);
+		when(checkpointRepository.findById(JOB)).thenReturn(Optional.empty());
+		when(loanService.getNewlyLateLoans(today.minusDays(30), null, today, 0, 1, 2))
+				.thenReturn(Collections.singletonList(notified));
+		when(loanService.getNewlyLateLoans(today.minusDays(30), notified, today, 0, 1, 2))
+				.thenReturn(Collections.singletonList(new LateLoanDto(2L, "b@email.com", today)));
+		when(loanService.markLateNotified(Collections.singletonList(1L), lease)).thenReturn(0);
+
+		service.sendMailToLateLoans();
+
+		verify(emailService, Mockito.times(1)).send(Mockito.anyString(), Mockito.anyList());
+		verify(emailService).send("mensagem", Collections.singletonList("b@email.com"));
+		verify(checkpointRepository).save(Mockito.any(JobCheckpoint.class));
+		verify(jobLockService).release(lease);
+	}
+
+	@Test
+	@DisplayName("Nao deve marcar, enviar nem avancar o checkpoint quando o lease nao pode ser renovado")
+	public void lostLeaseTest() {
+		LocalDate today = LocalDate.now();
+		when(checkpointRepository.findById(JOB)).thenReturn(Optional.empty());
+		when(loanService.getNewlyLateLoans(today.minusDays(30), null, today, 0, 1, 2))
+				.thenReturn(Collections.singletonList(new LateLoanDto(1L, "a@email.com", today)));
+		when(jobLockService.renew(lease)).thenReturn(false);
+
+		service.sendMailToLateLoans();
+
+		verify(loanService, never()).markLateNotified(Mockito.anyCollection(), Mockito.any(JobLease.class));
+		verify(emailService, never()).send(Mockito.anyString(), Mockito.anyList());
+		verify(jobLockService).release(lease);
+		verify(loanService, Mockito.times(1)).getNewlyLateLoans(Mockito.any(LocalDate.class), Mockito.any(),
+				Mockito.any(LocalDate.class), Mockito.anyInt(), Mockito.anyInt(), Mockito.anyInt());
+		verify(checkpointRepository, never()).save(Mockito.any(JobCheckpoint.class));
+	}
+
+	@Test
+	@DisplayName("Deve marcar o bloco e gravar os e-mails na mesma transacao")
+	public void markAndSendInOneTransactionTest() {
+		LocalDate today = LocalDate.now();
+		when(checkpointRepository.findById(JOB)).thenReturn(Optional.empty());
+		when(loanService.getNewlyLateLoans(today.minusDays(30), null, today, 0, 1, 2))
+				.thenReturn(Collections.singletonList(new LateLoanDto(1L, "a@email.com", today)));
+		when(loanService.getNewlyLateLoans(Mockito.eq(today.minusDays(30)), Mockito.any(LateLoanDto.class),
+				Mockito.eq(today), Mockito.eq(0), Mockito.eq(1), Mockito.eq(2))).thenReturn(Collections.emptyList());
+		TransactionStatus status = Mockito.mock(TransactionStatus.class);
+		when(transactionManager.getTransaction(Mockito.any())).thenReturn(status);
+
+		service.sendMailToLateLoans();
+
+		InOrder order = Mockito.inOrder(transactionManager, loanService, emailService);
+		order.verify(transactionManager).getTransaction(Mockito.any());
+		order.verify(loanService).markLateNotified(Collections.singletonList(1L), lease);
+		order.verify(emailService).send("mensagem", Collections.singletonList("a@email.com"));
+		order.verify(transactionManager).commit(status);
+	}
+
+	@Test
+	@DisplayName("Deve recalcular os atrasos dos clientes apenas com o lease do job")
+	public void refreshCustomerLateLoansTest() {
+		JobLease refreshLease = new JobLease(ScheduleService.CUSTOMER_LATE_LOANS_JOB, "no-1", 1L);
+		when(jobLockService.tryAcquire(ScheduleService.CUSTOMER_LATE_LOANS_JOB))
+				.thenReturn(Optional.of(refreshLease), Optional.empty());
+
+		service.refreshCustomerLateLoans();
+		service.refreshCustomerLateLoans();
+
+		verify(loanService, Mockito.times(1)).refreshCustomerLateLoans();
+		verify(jobLockService).release(refreshLease);
+	}
+}